@@ -265,6 +265,15 @@ public class PlayerInfo {
 		}
 	}
 
+	/**
+	 * Removes a player's information from the cache, if it is cached, so that it is next loaded from the database
+	 *
+	 * @param uuid of the player to remove
+	 */
+	public static void removeFromCache(UUID uuid) {
+		CACHE.invalidate(uuid);
+	}
+
 	/**
 	 * Updates a player's last known name in the database
 	 *
@@ -1,13 +1,29 @@
 package uk.co.harieo.FurBridge.ranks;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import uk.co.harieo.FurBridge.ranks.modules.CompiledPermissions;
+import uk.co.harieo.FurBridge.ranks.modules.PermissionBits;
+import uk.co.harieo.FurBridge.ranks.modules.PermissionDictionary;
 import uk.co.harieo.FurBridge.ranks.modules.PermissionNode;
+import uk.co.harieo.FurBridge.ranks.modules.PermissionSet;
+import uk.co.harieo.FurBridge.ranks.modules.PermissionState;
+import uk.co.harieo.FurBridge.ranks.modules.PermissionTrie;
+import uk.co.harieo.FurBridge.ranks.modules.RankAncestry;
 import uk.co.harieo.FurBridge.ranks.modules.RankModule;
+import uk.co.harieo.FurBridge.ranks.modules.RankModuleState;
 import uk.co.harieo.FurBridge.ranks.redis.RankUpdateMessage;
 import uk.co.harieo.FurBridge.sql.FurDB;
 import uk.co.harieo.FurBridge.sql.InfoCore;
@@ -23,34 +39,36 @@ import uk.co.harieo.FurBridge.sql.InfoTable;
  */
 public class PlayerRankInfo extends InfoCore {
 
+    public static final InfoTable VERSIONS_TABLE = InfoTable
+            .get("player_rank_versions", "player_id int primary key, version bigint not null default 0");
+    // Null unless the rank is timed, indexed so that expired ranks can be found without scanning every player's ranks
+    public static final String EXPIRES_AT_DEFINITION = "timestamp(3) NULL DEFAULT NULL";
+    public static final InfoTable PLAYER_RANKS_TABLE = InfoTable.get("player_ranks",
+            "player_id int, rank_id int, expires_at " + EXPIRES_AT_DEFINITION
+                    + ", INDEX player_ranks_expiry (expires_at), FOREIGN KEY (rank_id) REFERENCES ranks(id)");
+
+    public static final long PERMANENT = 0; // The expiry of a rank which doesn't expire
+    private static final int SWEEP_BATCH_SIZE = 500;
+
     private static RankModule rankModule;
+    private static volatile boolean hasMigratedTables;
 
-    private List<Integer> rawRanks = new ArrayList<>(); // Rank ids that haven't been compared to a rank module
-    private final List<Rank> ranks = new ArrayList<>();  // Ranks that have been pulled from a rank module
-    private final List<Rank> confirmedParents = new ArrayList<>(); // Ranks that this player indirectly owns in the hierarchy
-    private final Set<Rank> excludedRanks = new HashSet<>(); // Ranks which are excluded but would be owned by this player
-    private final Set<PermissionNode> forcedPermissions = new HashSet<>();
+    // Everything this class knows about the player's ranks, replaced as a whole each time any of it changes
+    private final AtomicReference<RankState> state = new AtomicReference<>(RankState.EMPTY);
 
     @Override
     protected void load() {
         if (RankCache.isPresent(getPlayerInfo().getUniqueId())) {
-            PlayerRankInfo cachedInfo = RankCache.getIfPresent(getPlayerInfo().getUniqueId());
-            rawRanks = cachedInfo.getRawRanks();
-            injectModule();
+            RankState cachedState = RankCache.getIfPresent(getPlayerInfo().getUniqueId()).state.get();
+            state.set(new RankState(cachedState.rawRanks, cachedState.expiries, cachedState.rankVersion));
+            injectModule(); // The cached information has already scheduled the expiries
         } else {
-            try (Connection connection = FurDB.getConnection();
-                 PreparedStatement statement = connection
-                         .prepareStatement("SELECT rank_id FROM player_ranks WHERE player_id=?")) {
-                statement.setInt(1, getPlayerInfo().getPlayerId());
-                ResultSet result = statement.executeQuery();
-
-                // Adds the raw rank ids in preparation for a rank module being provided
-                while (result.next()) {
-                    rawRanks.add(result.getInt(1));
-                }
+            try (Connection connection = FurDB.getConnection()) {
+                state.set(readRankState(connection));
 
                 injectModule(); // Compare raw ranks to loaded ones
                 RankCache.cache(getPlayerInfo().getUniqueId(), this);
+                scheduleExpiries(); // Once cached, as removing an expired entry cancels this player's expiries
             } catch (SQLException e) {
                 e.printStackTrace();
                 setHasErrorOccurred(true);
@@ -58,6 +76,145 @@ public class PlayerRankInfo extends InfoCore {
         }
     }
 
+    /**
+     * Reads this player's raw ranks and rank version from the database. The version is read first, so the ranks
+     * reflect at least every change up to it and any change which is applied afterwards is only applied again.
+     *
+     * @param connection to read with
+     * @return the unresolved rank state
+     * @throws SQLException if an error occurs in the queries
+     */
+    private RankState readRankState(Connection connection) throws SQLException {
+        long rankVersion = 0;
+        try (PreparedStatement versionStatement = connection.prepareStatement(
+                "SELECT version FROM " + VERSIONS_TABLE.getTableName() + " WHERE player_id=?")) {
+            versionStatement.setInt(1, getPlayerInfo().getPlayerId());
+            ResultSet versionResult = versionStatement.executeQuery();
+            if (versionResult.next()) {
+                rankVersion = versionResult.getLong(1);
+            }
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement("SELECT rank_id,expires_at FROM "
+                + PLAYER_RANKS_TABLE.getTableName()
+                + " WHERE player_id=? AND (expires_at IS NULL OR expires_at>CURRENT_TIMESTAMP(3))")) {
+            statement.setInt(1, getPlayerInfo().getPlayerId());
+            ResultSet result = statement.executeQuery();
+
+            // Adds the raw rank ids in preparation for a rank module being provided
+            List<Integer> rawRanks = new ArrayList<>();
+            Map<Integer, Long> expiries = new HashMap<>();
+            while (result.next()) {
+                rawRanks.add(result.getInt(1));
+                Timestamp expiresAt = result.getTimestamp(2);
+                if (expiresAt != null) {
+                    expiries.put(result.getInt(1), expiresAt.getTime());
+                }
+            }
+
+            return new RankState(rawRanks, expiries, rankVersion);
+        }
+    }
+
+    /**
+     * Replaces this player's rank state with their ranks as they are in the database, unless a newer change has been
+     * applied in the meantime, and schedules the expiries of the loaded ranks
+     *
+     * @param connection to read with
+     * @throws SQLException if an error occurs in the queries
+     */
+    private void reloadRawRanks(Connection connection) throws SQLException {
+        RankState loaded = readRankState(connection);
+        RankState previous;
+        while (true) {
+            previous = state.get();
+            if (loaded.rankVersion < previous.rankVersion) {
+                return; // A newer change has already been applied, which includes everything that was loaded
+            }
+
+            RankState updated = rankModule != null ? loaded.resolve(rankModule.getState()) : loaded;
+            if (state.compareAndSet(previous, updated)) {
+                break;
+            }
+        }
+
+        for (int rankId : previous.expiries.keySet()) {
+            if (!loaded.expiries.containsKey(rankId)) {
+                cancelExpiry(rankId);
+            }
+        }
+        scheduleExpiries(); // Replaces the existing schedule of each timed rank
+    }
+
+    /**
+     * Schedules the removal of each of this player's timed ranks when it expires
+     */
+    private void scheduleExpiries() {
+        for (Map.Entry<Integer, Long> entry : state.get().expiries.entrySet()) {
+            scheduleExpiry(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Schedules the removal of a timed rank from this player when it expires, replacing any existing schedule for it.
+     * The removal only holds this player's {@link UUID}, so it is applied to whichever information is cached for the
+     * player when it runs and is cancelled by {@link RankCache} once none is.
+     *
+     * @param rankId of the timed rank
+     * @param expiresAt the time in milliseconds at which the rank expires
+     */
+    private void scheduleExpiry(int rankId, long expiresAt) {
+        UUID uuid = getPlayerInfo().getUniqueId();
+        RankExpiryScheduler.getInstance().schedule(uuid, rankId, expiresAt, () -> {
+            PlayerRankInfo cached = RankCache.getIfPresent(uuid);
+            if (cached != null) { // Otherwise the offline sweep will remove it
+                cached.expireRank(rankId, expiresAt);
+            }
+        });
+    }
+
+    /**
+     * Cancels the scheduled removal of a timed rank from this player, if there is one
+     *
+     * @param rankId of the timed rank
+     */
+    private void cancelExpiry(int rankId) {
+        RankExpiryScheduler.getInstance().cancel(getPlayerInfo().getUniqueId(), rankId);
+    }
+
+    /**
+     * Removes a timed rank from this player once it has expired. Only the expiry which was scheduled is removed from
+     * the database, so if the rank was removed or given again in the meantime, or another server has already removed
+     * it, the database is left alone.
+     *
+     * @param rankId of the expired rank
+     * @param expiresAt the time in milliseconds at which the rank expired
+     */
+    private void expireRank(int rankId, long expiresAt) {
+        Long currentExpiry = state.get().expiries.get(rankId);
+        if (currentExpiry == null || currentExpiry != expiresAt) {
+            return; // The rank has since been removed or replaced
+        }
+
+        try (Connection connection = FurDB.getConnection();
+             PreparedStatement statement = connection.prepareStatement("DELETE FROM " + PLAYER_RANKS_TABLE.getTableName()
+                     + " WHERE player_id=? AND rank_id=? AND expires_at=?")) {
+            statement.setInt(1, getPlayerInfo().getPlayerId());
+            statement.setInt(2, rankId);
+            statement.setTimestamp(3, new Timestamp(expiresAt));
+            if (statement.executeUpdate() > 0) {
+                long rankVersion = incrementRankVersion(connection, getPlayerInfo().getPlayerId());
+                updateRawRanks(connection, rankId, false, PERMANENT, rankVersion);
+                new RankUpdateMessage(this, rankVersion).removed(rankId).publishAsync();
+            } else {
+                // Another server removed it first and will have published the update, which may not have arrived
+                reloadRawRanks(connection);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
     public static void setRankModule(RankModule module) {
         rankModule = module;
     }
@@ -76,34 +233,7 @@ public class PlayerRankInfo extends InfoCore {
             throw new IllegalArgumentException("Attempted to inject a malfunctioning rank module");
         }
 
-        ranks.clear(); // Safety in-case of duplicate injection
-
-        for (int rankId : rawRanks) {
-            Rank rank = rankModule.getRank(rankId);
-            if (rank != null) { // Possible if a rank is deleted without proper attention or it is excluded
-                ranks.add(rank);
-            }
-        }
-
-        List<Rank> excludedRanks = rankModule.getExcludedRanks();
-        for (Rank rank : excludedRanks) {
-            if (rawRanks.contains(rank.getId())) {
-                this.excludedRanks.add(rank);
-                for (PermissionNode node : rank.getPermissions().values()) {
-                    if (node.isForced()) {
-                        forcedPermissions.add(node);
-                    }
-                }
-            }
-        }
-
-        for (Rank rank : rankModule.getLoadedRanks().values()) {
-            if (rank.isDefault()) { // Adds default ranks as all players are entitled to them
-                ranks.add(rank);
-            }
-        }
-
-        return ranks;
+        return state.updateAndGet(current -> current.resolve(rankModule.getState())).ranks;
     }
 
     /**
@@ -120,23 +250,42 @@ public class PlayerRankInfo extends InfoCore {
      * @return whether the async update was successful
      */
     public CompletableFuture<Boolean> addRank(Rank rank) {
+        return addRank(rank, PERMANENT);
+    }
+
+    /**
+     * Gives this player the specified rank until the given time and updates the database accordingly. Once the rank
+     * expires, it is removed by whichever server has this player loaded or by the offline sweep of
+     * {@link RankExpiryScheduler}.
+     *
+     * @param rank to add to this player
+     * @param expiresAt the time in milliseconds at which the rank expires or {@link #PERMANENT}
+     * @return whether the async update was successful
+     */
+    public CompletableFuture<Boolean> addRank(Rank rank, long expiresAt) {
         if (rank == null) {
             throw new NullPointerException("Attempted to add null rank to player");
-        } else if (ranks.contains(rank)) {
+        } else if (state.get().rawRanks.contains(rank.getId())) {
             return CompletableFuture.completedFuture(false); // Returns a soft error as this is likely a user error
+        } else if (expiresAt != PERMANENT && expiresAt <= System.currentTimeMillis()) {
+            return CompletableFuture.completedFuture(false); // Already expired
         }
 
         return CompletableFuture.supplyAsync(() -> {
             try (Connection connection = FurDB.getConnection();
-                 PreparedStatement statement =
-                         connection.prepareStatement("INSERT INTO player_ranks (player_id,rank_id) VALUES (?,?)")) {
+                 PreparedStatement statement = connection.prepareStatement("INSERT INTO "
+                         + PLAYER_RANKS_TABLE.getTableName() + " (player_id,rank_id,expires_at) VALUES (?,?,?)")) {
                 statement.setInt(1, getPlayerInfo().getPlayerId());
                 statement.setInt(2, rank.getId());
+                statement.setTimestamp(3, expiresAt == PERMANENT ? null : new Timestamp(expiresAt));
                 statement.executeUpdate();
 
-                rawRanks.add(rank.getId());
-                ranks.add(rank);
-                new RankUpdateMessage(this).publish();
+                long rankVersion = incrementRankVersion(connection, getPlayerInfo().getPlayerId());
+                updateRawRanks(connection, rank.getId(), true, expiresAt, rankVersion);
+                if (expiresAt != PERMANENT) {
+                    scheduleExpiry(rank.getId(), expiresAt);
+                }
+                new RankUpdateMessage(this, rankVersion).added(rank.getId(), expiresAt).publishAsync();
                 return true;
             } catch (SQLException e) {
                 e.printStackTrace();
@@ -154,21 +303,23 @@ public class PlayerRankInfo extends InfoCore {
     public CompletableFuture<Boolean> removeRank(Rank rank) {
         if (rank == null) {
             throw new NullPointerException("Attempted to add null rank to player");
-        } else if (!ranks.contains(rank)) {
+        } else if (!state.get().rawRanks.contains(rank.getId())) {
             return CompletableFuture.completedFuture(false); // Returns a soft error as this is likely a user error
         }
 
         return CompletableFuture.supplyAsync(() -> {
             try (Connection connection = FurDB.getConnection();
                  PreparedStatement statement =
-                         connection.prepareStatement("DELETE FROM player_ranks WHERE player_id=? AND rank_id=?")) {
+                         connection.prepareStatement("DELETE FROM " + PLAYER_RANKS_TABLE.getTableName()
+                                 + " WHERE player_id=? AND rank_id=?")) {
                 statement.setInt(1, getPlayerInfo().getPlayerId());
                 statement.setInt(2, rank.getId());
                 statement.executeUpdate();
 
-                rawRanks.remove((Integer) rank.getId());
-                ranks.remove(rank);
-                new RankUpdateMessage(this).publish();
+                long rankVersion = incrementRankVersion(connection, getPlayerInfo().getPlayerId());
+                updateRawRanks(connection, rank.getId(), false, PERMANENT, rankVersion);
+                cancelExpiry(rank.getId());
+                new RankUpdateMessage(this, rankVersion).removed(rank.getId()).publishAsync();
                 return true;
             } catch (SQLException e) {
                 e.printStackTrace();
@@ -178,104 +329,409 @@ public class PlayerRankInfo extends InfoCore {
     }
 
     /**
-     * @return a list of cached ranks, only available after injecting a proper rank module
+     * Replaces this player's rank state with one where a raw rank id has been added or removed by a change made on this
+     * server. The change is only applied if it immediately follows the current rank version, otherwise another server
+     * has changed this player's ranks in between and its change may not have arrived yet, so this player's ranks are
+     * loaded from the database instead.
+     *
+     * @param connection to load this player's ranks with if a change has been missed
+     * @param rankId of the rank which has been added or removed
+     * @param isAdded whether the rank has been added rather than removed
+     * @param expiresAt the time in milliseconds at which an added rank expires or {@link #PERMANENT}
+     * @param rankVersion produced by the change or 0 if it isn't known
+     * @throws SQLException if an error occurs while loading this player's ranks
      */
-    public List<Rank> getRanks() {
-        return ranks;
+    private void updateRawRanks(Connection connection, int rankId, boolean isAdded, long expiresAt, long rankVersion)
+            throws SQLException {
+        Map<Integer, Long> added = isAdded ? Collections.singletonMap(rankId, expiresAt) : Collections.emptyMap();
+        Set<Integer> removed = isAdded ? Collections.emptySet() : Collections.singleton(rankId);
+        while (true) {
+            RankState current = state.get();
+            if (rankVersion != current.rankVersion + 1) {
+                reloadRawRanks(connection);
+                return;
+            }
+
+            if (state.compareAndSet(current, withDelta(current, added, removed, rankVersion))) {
+                return;
+            }
+        }
     }
 
     /**
-     * Note: This should not be used for any security, permission or rank handling function. It is purely for information
-     * only and {@link #getRanks()} should be used instead.
+     * Applies a change to this player's ranks which was made on another server, as described by a
+     * {@link RankUpdateMessage}, so that the change doesn't need to be read from the database. The change is only
+     * applied if it immediately follows the current rank version, as any change in between would otherwise be lost.
      *
-     * @return a list of ranks which are excluded but would be owned by this player if they weren't
+     * @param added the ids of the ranks which were given to this player with the time in milliseconds at which each
+     * expires or {@link #PERMANENT}
+     * @param removed the ids of the ranks which were taken from this player
+     * @param rankVersion the rank version produced by the change
+     * @return whether this player's ranks now reflect the change, which is false if a change has been missed and this
+     * player's ranks should be loaded from the database instead
      */
-    public Set<Rank> getExcludedRanks() {
-        return excludedRanks;
+    public boolean applyRankDelta(Map<Integer, Long> added, Collection<Integer> removed, long rankVersion) {
+        while (true) {
+            RankState current = state.get();
+            if (rankVersion <= current.rankVersion) {
+                return true; // Already applied
+            } else if (rankVersion != current.rankVersion + 1) {
+                return false; // At least one change has been missed
+            }
+
+            if (state.compareAndSet(current, withDelta(current, added, removed, rankVersion))) {
+                break;
+            }
+        }
+
+        for (int rankId : removed) {
+            cancelExpiry(rankId);
+        }
+        for (Map.Entry<Integer, Long> entry : added.entrySet()) {
+            if (entry.getValue() != PERMANENT) {
+                scheduleExpiry(entry.getKey(), entry.getValue());
+            }
+        }
+        return true;
     }
 
     /**
-     * @return a list of raw rank ids, not for use outside of this class
+     * Creates a rank state where raw rank ids have been added and removed, resolving them against the current module
+     * if one has been injected
+     *
+     * @param current rank state to be changed
+     * @param added the ids of the ranks to be added with the time in milliseconds at which each expires or
+     * {@link #PERMANENT}
+     * @param removed the ids of the ranks to be removed
+     * @param rankVersion of the changed ranks
+     * @return the changed rank state
      */
-    private List<Integer> getRawRanks() {
-        return rawRanks;
+    private static RankState withDelta(RankState current, Map<Integer, Long> added, Collection<Integer> removed,
+            long rankVersion) {
+        List<Integer> rawRanks = new ArrayList<>(current.rawRanks);
+        Map<Integer, Long> expiries = new HashMap<>(current.expiries);
+        rawRanks.removeAll(removed);
+        rawRanks.removeAll(added.keySet()); // Replaced rather than duplicated
+        expiries.keySet().removeAll(removed);
+        for (Map.Entry<Integer, Long> entry : added.entrySet()) {
+            rawRanks.add(entry.getKey());
+            if (entry.getValue() != PERMANENT) {
+                expiries.put(entry.getKey(), entry.getValue());
+            } else {
+                expiries.remove(entry.getKey());
+            }
+        }
+
+        RankState updated = new RankState(rawRanks, expiries, rankVersion);
+        return rankModule != null ? updated.resolve(rankModule.getState()) : updated;
     }
 
     /**
-     * Checks whether this player posses the given rank, or higher
+     * Increments a player's rank version in the database, using the connection's last insert id so that the returned
+     * version is exactly the one this update produced even if other servers are updating the same player
      *
-     * @param rank to check the possession of
-     * @return whether the player posses this rank or one if its children
+     * @param connection to perform the update on
+     * @param playerId of the player
+     * @return the new rank version or 0 if it could not be read
+     * @throws SQLException if an error occurs in the update
      */
-    public boolean hasRank(Rank rank) {
-        verifyInjection();
-        if (ranks.contains(rank)) {
-            return true;
-        } else if (confirmedParents.contains(rank)) {
-            return true;
-        } else {
-            // Scan all ranks this player has and see if that rank is a child of the parameter rank
-            for (Rank possessedRank : ranks) {
-                Rank parent = rankModule.getRank(possessedRank.getParentRankId());
-                while (parent != null) {
-                    if (parent.getId() == rank.getId()) {
-                        confirmedParents.add(rank); // Caches to save doing this loop again
-                        return true;
-                    } else {
-                        parent = rankModule.getRank(parent.getParentRankId()); // Move on to next parent
+    private static long incrementRankVersion(Connection connection, int playerId) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO " + VERSIONS_TABLE.getTableName()
+                + " (player_id,version) VALUES (?,LAST_INSERT_ID(1)) ON DUPLICATE KEY UPDATE version=LAST_INSERT_ID(version+1)");
+             PreparedStatement selectStatement = connection.prepareStatement("SELECT LAST_INSERT_ID()")) {
+            statement.setInt(1, playerId);
+            statement.executeUpdate();
+
+            ResultSet result = selectStatement.executeQuery();
+            return result.next() ? result.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Removes every expired rank from the database in batches, using the index on the expiry so that only expired
+     * ranks are read, and notifies all servers of each player whose ranks have changed. This is run by
+     * {@link RankExpiryScheduler#startOfflineSweep(long)} to cover players who aren't loaded on any server.
+     * <p>
+     * Each batch is removed and the rank version of each player in it incremented together in one transaction. A rank
+     * is only removed while it is still expired, so a rank which is removed or given again by another server is left
+     * alone, and the sweep stops as soon as a batch removes nothing so the same ranks are never selected twice.
+     *
+     * @return the amount of ranks which were removed
+     */
+    static int sweepExpiredRanks() {
+        int removed = 0;
+        try (Connection connection = FurDB.getConnection();
+             PreparedStatement selectStatement = connection.prepareStatement("SELECT player_id,rank_id FROM "
+                     + PLAYER_RANKS_TABLE.getTableName()
+                     + " WHERE expires_at<=CURRENT_TIMESTAMP(3) ORDER BY expires_at LIMIT " + SWEEP_BATCH_SIZE);
+             PreparedStatement deleteStatement = connection.prepareStatement("DELETE FROM "
+                     + PLAYER_RANKS_TABLE.getTableName()
+                     + " WHERE player_id=? AND rank_id=? AND expires_at<=CURRENT_TIMESTAMP(3)");
+             PreparedStatement versionStatement = connection.prepareStatement("INSERT INTO "
+                     + VERSIONS_TABLE.getTableName()
+                     + " (player_id,version) VALUES (?,1) ON DUPLICATE KEY UPDATE version=version+1")) {
+            connection.setAutoCommit(false);
+            while (true) {
+                Map<Integer, List<Integer>> removedRanks = new LinkedHashMap<>(); // Rank ids by player id
+                Map<Integer, Long> rankVersions;
+                int selected;
+                try {
+                    List<int[]> expired = new ArrayList<>(SWEEP_BATCH_SIZE);
+                    ResultSet result = selectStatement.executeQuery();
+                    while (result.next()) {
+                        expired.add(new int[]{result.getInt(1), result.getInt(2)});
+                    }
+                    selected = expired.size();
+
+                    for (int[] playerRank : expired) {
+                        deleteStatement.setInt(1, playerRank[0]);
+                        deleteStatement.setInt(2, playerRank[1]);
+                        deleteStatement.addBatch();
+                    }
+                    int[] deleted = selected > 0 ? deleteStatement.executeBatch() : new int[0];
+                    for (int i = 0; i < deleted.length; i++) {
+                        // Otherwise a server with the player loaded removed it or it was given again
+                        if (deleted[i] > 0 || deleted[i] == Statement.SUCCESS_NO_INFO) {
+                            int[] playerRank = expired.get(i);
+                            removedRanks.computeIfAbsent(playerRank[0], id -> new ArrayList<>()).add(playerRank[1]);
+                        }
+                    }
+
+                    rankVersions = incrementRankVersions(connection, versionStatement, removedRanks.keySet());
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                }
+
+                for (Map.Entry<Integer, List<Integer>> entry : removedRanks.entrySet()) {
+                    RankUpdateMessage message = new RankUpdateMessage(entry.getKey(),
+                            rankVersions.getOrDefault(entry.getKey(), 0L));
+                    for (int rankId : entry.getValue()) {
+                        message.removed(rankId);
+                        removed++;
                     }
+                    message.publishAsync();
+                }
+
+                if (removedRanks.isEmpty() || selected < SWEEP_BATCH_SIZE) {
+                    break; // Nothing left, or nothing could be removed and selecting again would find the same ranks
                 }
             }
-            return false;
+        } catch (SQLException e) {
+            e.printStackTrace();
         }
+        return removed;
     }
 
     /**
-     * Retrieves all permissions that this player is entitled to, including that of all parent ranks accordingly
+     * Increments the rank version of several players in one batch and reads the new versions back. This must be part
+     * of a transaction, which holds a lock on each player's version until it is committed so that the versions read
+     * are exactly the ones this update produced.
      *
-     * @return a map of all string permission nodes and whether the permission is allowed (true) or denied (false)
+     * @param connection which the transaction is on
+     * @param versionStatement which increments the version of a player
+     * @param playerIds of the players
+     * @return the new rank version of each player by player id, missing any which could not be read
+     * @throws SQLException if an error occurs in the update
      */
-    public Map<String, PermissionNode> getAllPermissions() {
-        verifyInjection();
+    private static Map<Integer, Long> incrementRankVersions(Connection connection, PreparedStatement versionStatement,
+            Collection<Integer> playerIds) throws SQLException {
+        if (playerIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
 
-        Map<String, PermissionNode> permissions = new HashMap<>();
-        for (PermissionNode forcedNode : forcedPermissions) {
-            permissions.put(forcedNode.getPermission(), forcedNode);
+        StringJoiner placeholders = new StringJoiner(",", "(", ")");
+        for (int playerId : playerIds) {
+            versionStatement.setInt(1, playerId);
+            versionStatement.addBatch();
+            placeholders.add("?");
         }
+        versionStatement.executeBatch();
+
+        Map<Integer, Long> versions = new HashMap<>();
+        try (PreparedStatement selectStatement = connection.prepareStatement("SELECT player_id,version FROM "
+                + VERSIONS_TABLE.getTableName() + " WHERE player_id IN " + placeholders)) {
+            int index = 1;
+            for (int playerId : playerIds) {
+                selectStatement.setInt(index++, playerId);
+            }
 
-        for (Rank rank : ranks) {
-            // Developer note: The RankModule adds the standard permission when it is loaded so don't do it here
-            Map<String, PermissionNode> permissionsMap = rankModule.getAllPermissions(rank);
-            for (String permission : permissionsMap.keySet()) {
-                permissions.putIfAbsent(permission, permissionsMap.get(permission));
+            ResultSet result = selectStatement.executeQuery();
+            while (result.next()) {
+                versions.put(result.getInt(1), result.getLong(2));
             }
         }
-        return permissions;
+        return versions;
     }
 
     /**
-     * Retrieves the rank with the highest weight from the list of owned ranks
+     * Gets the time at which one of this player's ranks expires
      *
-     * @return the heaviest rank by highest weight
+     * @param rank owned by this player
+     * @return the time in milliseconds at which the rank expires or {@link #PERMANENT} if it doesn't expire or isn't
+     * owned
      */
-    public Rank getHeaviestRank() {
+    public long getExpiry(Rank rank) {
+        return state.get().expiries.getOrDefault(rank.getId(), PERMANENT);
+    }
+
+    /**
+     * @return the version of this player's ranks, which increases each time they are changed on any server
+     */
+    public long getRankVersion() {
+        return state.get().rankVersion;
+    }
+
+    /**
+     * @return an immutable list of cached ranks ordered from lightest to heaviest, only available after injecting a
+     * proper rank module
+     */
+    public List<Rank> getRanks() {
+        return getRankState().ranks;
+    }
+
+    /**
+     * @return an immutable view of the cached ranks ordered from heaviest to lightest, which is not a copy
+     */
+    public List<Rank> getRanksHeaviestFirst() {
+        return getRankState().ranks.reverse();
+    }
+
+    /**
+     * Note: This should not be used for any security, permission or rank handling function. It is purely for information
+     * only and {@link #getRanks()} should be used instead.
+     *
+     * @return an immutable set of ranks which are excluded but would be owned by this player if they weren't
+     */
+    public Set<Rank> getExcludedRanks() {
+        return getRankState().excludedRanks;
+    }
+
+    /**
+     * Checks whether this player posses the given rank, or higher
+     *
+     * @param rank to check the possession of
+     * @return whether the player posses this rank or one if its children
+     */
+    public boolean hasRank(Rank rank) {
+        RankState current = getRankState();
+        RankAncestry ancestry = current.moduleState.getRankAncestry(rank);
+        // Only loaded ranks can be owned, any other rank is either excluded or doesn't exist
+        return ancestry != null && current.ancestry.includes(ancestry);
+    }
+
+    /**
+     * Retrieves all permissions that this player is entitled to, including that of all parent ranks accordingly
+     *
+     * @return an immutable map of all string permission nodes and whether the permission is allowed (true) or denied
+     * (false)
+     */
+    public Map<String, PermissionNode> getAllPermissions() {
+        return getRankState().bits.asMap();
+    }
+
+    /**
+     * Retrieves all permissions that this player is entitled to as {@link PermissionBits}, where checking a permission
+     * id from the module's {@link PermissionDictionary} is a single bit test
+     *
+     * @return the bitsets of all this player's permissions
+     */
+    public PermissionBits getPermissionBits() {
+        return getRankState().bits;
+    }
+
+    /**
+     * Retrieves all permissions that this player is entitled to in a context as {@link PermissionBits}, in the same
+     * way as {@link #getPermissionBits()}
+     *
+     * @param context such as a server group or world, or null for only the permissions which apply everywhere
+     * @return the bitsets of all this player's permissions in the context
+     */
+    public PermissionBits getPermissionBits(String context) {
+        return getRankState().getContextPermissions(context).getBits();
+    }
+
+    /**
+     * Checks whether this player has a permission. This is a single lookup in this player's compiled permissions and
+     * is intended to be called from permission checks on the server.
+     *
+     * @param permission to check, which is expected to be lower case as all stored permissions are
+     * @return whether the permission is set and allowed
+     */
+    public boolean hasPermission(String permission) {
+        return checkPermission(permission) == PermissionState.ALLOWED;
+    }
+
+    /**
+     * Checks whether this player has a permission in a context, such as a server group or world, where the nodes of
+     * this player's ranks in the context take priority over their nodes which apply everywhere
+     *
+     * @param permission to check, which is expected to be lower case as all stored permissions are
+     * @param context to check the permission in, which must be one of {@link RankModule#getLocalContexts()} to have
+     * any effect
+     * @return whether the permission is set and allowed in the context
+     */
+    public boolean hasPermission(String permission, String context) {
+        return checkPermission(permission, context) == PermissionState.ALLOWED;
+    }
+
+    /**
+     * Checks whether this player has a permission, distinguishing a denied permission from one which is not set. If
+     * there is no exact node for the permission, wildcard nodes such as {@code essentials.*} are resolved as described
+     * in {@link PermissionTrie}.
+     *
+     * @param permission to check, which is expected to be lower case as all stored permissions are
+     * @return the state of the permission for this player
+     */
+    public PermissionState checkPermission(String permission) {
+        return checkPermission(permission, null);
+    }
+
+    /**
+     * Checks whether this player has a permission in a context in the same way as {@link #checkPermission(String)}.
+     * Each context is compiled separately, so only the nodes which apply everywhere or in this context are looked at.
+     *
+     * @param permission to check, which is expected to be lower case as all stored permissions are
+     * @param context to check the permission in or null for only the permissions which apply everywhere
+     * @return the state of the permission for this player in the context
+     */
+    public PermissionState checkPermission(String permission, String context) {
+        // Returns the same string if it is already lower case
+        return getRankState().getContextPermissions(context).check(permission.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @return this player's rank state, resolving it again if the module has changed since it was resolved
+     */
+    private RankState getRankState() {
         verifyInjection();
-        List<Rank> ranks = new ArrayList<>(this.ranks);
-        if (ranks.isEmpty()) {
-            return null; // Has no ranks
-        } else {
-            Collections.sort(ranks);
-            return ranks.get(ranks.size() - 1);
+        RankState current = state.get();
+        RankModuleState moduleState = rankModule.getState();
+        if (current.moduleState != moduleState) {
+            current = state.updateAndGet(latest -> latest.resolve(rankModule.getState()));
         }
+        return current;
+    }
+
+    /**
+     * Retrieves the rank with the highest weight from the list of owned ranks. This is worked out once each time the
+     * player's ranks or the weight of one of them changes, so it is only a lookup.
+     *
+     * @return the heaviest rank by highest weight or null if this player has no ranks
+     */
+    public Rank getHeaviestRank() {
+        return getRankState().heaviestRank;
     }
 
     /**
      * Clears all loaded data from this class. This should only be used if this class is being deleted or re-loaded.
      */
     public void clear() {
-        rawRanks.clear();
-        ranks.clear();
-        confirmedParents.clear();
+        state.set(RankState.EMPTY);
+        if (RankCache.getIfPresent(getPlayerInfo().getUniqueId()) == this) { // Otherwise they belong to another
+            RankExpiryScheduler.getInstance().cancelAll(getPlayerInfo().getUniqueId());
+        }
     }
 
     /**
@@ -289,8 +745,26 @@ public class PlayerRankInfo extends InfoCore {
 
     @Override
     public List<InfoTable> getReferencedTables() {
-        return Collections.singletonList(InfoTable
-                .get("player_ranks", "player_id int, rank_id int, FOREIGN KEY (rank_id) REFERENCES ranks(id)"));
+        return Arrays.asList(PLAYER_RANKS_TABLE, VERSIONS_TABLE);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> verifyTables() {
+        return super.verifyTables().thenApply(success -> {
+            if (!success || hasMigratedTables) {
+                return success;
+            }
+
+            try {
+                // Tables created before timed ranks need the column and its index
+                hasMigratedTables = PLAYER_RANKS_TABLE.addColumnIfAbsent("expires_at", EXPIRES_AT_DEFINITION).get()
+                        && PLAYER_RANKS_TABLE.addIndexIfAbsent("player_ranks_expiry", "expires_at").get();
+                return hasMigratedTables;
+            } catch (InterruptedException | ExecutionException e) {
+                e.printStackTrace();
+                return false;
+            }
+        });
     }
 
     public RankModule getRankModule(){
@@ -298,4 +772,186 @@ public class PlayerRankInfo extends InfoCore {
         return rankModule;
     }
 
+    /**
+     * An immutable snapshot of a player's ranks. The raw rank ids are resolved against a specific state of the module,
+     * at which point everything derived from the ranks is calculated once for as long as the snapshot is in use.
+     */
+    private static class RankState {
+
+        private static final RankState EMPTY = new RankState(Collections.emptyList(), Collections.emptyMap(), 0);
+
+        private final List<Integer> rawRanks; // Rank ids that haven't been compared to a rank module
+        private final Map<Integer, Long> expiries; // Expiry times of the timed ranks by rank id
+        private final long rankVersion; // Incremented in the database each time this player's ranks are changed
+
+        private final RankModuleState moduleState; // Null until resolved against a module
+        private final ImmutableList<Rank> ranks; // Ranks that have been pulled from a rank module, by weight
+        private final List<Rank> ownedRanks; // The same ranks in the order their permissions are merged
+        private final Set<Rank> excludedRanks; // Ranks which are excluded but would be owned by this player
+        private final Rank heaviestRank;
+        private final PermissionBits bits;
+        private final RankAncestry ancestry; // Every rank this player owns directly or through a parent
+        private final CompiledPermissions globalPermissions; // The same bits, as used when there is no context
+        // Permissions in each context which has been checked, worked out on the first check in that context
+        private final Map<String, CompiledPermissions> contextPermissions = new ConcurrentHashMap<>();
+
+        private RankState(List<Integer> rawRanks, Map<Integer, Long> expiries, long rankVersion) {
+            this.rawRanks = ImmutableList.copyOf(rawRanks);
+            this.expiries = ImmutableMap.copyOf(expiries);
+            this.rankVersion = rankVersion;
+            this.moduleState = null;
+            this.ranks = ImmutableList.of();
+            this.ownedRanks = ImmutableList.of();
+            this.excludedRanks = ImmutableSet.of();
+            this.heaviestRank = null;
+            this.bits = null;
+            this.globalPermissions = null;
+            this.ancestry = null;
+        }
+
+        /**
+         * Resolves the raw rank ids against a state of the module, merging the permissions of all the ranks with
+         * forced permissions from excluded ranks taking priority followed by the ranks in the order they are owned, and
+         * the hierarchies of all the ranks
+         *
+         * @param source the rank ids and version to resolve
+         * @param moduleState to resolve the ranks against
+         */
+        private RankState(RankState source, RankModuleState moduleState) {
+            this.rawRanks = source.rawRanks;
+            this.expiries = source.expiries;
+            this.rankVersion = source.rankVersion;
+            this.moduleState = moduleState;
+
+            Map<Integer, Rank> ranks = new LinkedHashMap<>();
+            for (int rankId : rawRanks) {
+                Rank rank = moduleState.getRank(rankId);
+                if (rank != null) { // Possible if a rank is deleted without proper attention or it is excluded
+                    ranks.putIfAbsent(rankId, rank);
+                }
+            }
+
+            for (Rank rank : moduleState.getLoadedRanks().values()) {
+                if (rank.isDefault()) { // Adds default ranks as all players are entitled to them
+                    ranks.putIfAbsent(rank.getId(), rank);
+                }
+            }
+
+            if (hasSameRanks(source.ranks, ranks)) {
+                this.ranks = source.ranks; // No rank has been replaced so no weight can have changed
+            } else {
+                List<Rank> byWeight = new ArrayList<>(ranks.values());
+                Collections.sort(byWeight); // Stable, so ranks of equal weight stay in the order they are owned
+                this.ranks = ImmutableList.copyOf(byWeight);
+            }
+            this.heaviestRank = this.ranks.isEmpty() ? null : this.ranks.get(this.ranks.size() - 1);
+            this.ownedRanks = ImmutableList.copyOf(ranks.values());
+
+            PermissionDictionary dictionary = moduleState.getPermissionDictionary();
+            ImmutableSet.Builder<Rank> excludedRanks = ImmutableSet.builder();
+            Map<String, PermissionNode> forced = new HashMap<>();
+            for (Rank rank : moduleState.getExcludedRanks()) {
+                if (rawRanks.contains(rank.getId())) {
+                    excludedRanks.add(rank);
+                    for (PermissionNode node : rank.getPermissions().values()) {
+                        if (node.isForced()) {
+                            forced.putIfAbsent(node.getPermission(), node);
+                        }
+                    }
+                }
+            }
+            this.excludedRanks = excludedRanks.build();
+
+            List<PermissionBits> sets = new ArrayList<>(ranks.size() + 1);
+            List<RankAncestry> closures = new ArrayList<>(ranks.size());
+            sets.add(PermissionBits.of(dictionary, PermissionSet.of(dictionary, forced)));
+            for (Rank rank : ranks.values()) {
+                // Developer note: The RankModule adds the standard permission when it is loaded so don't do it here
+                sets.add(moduleState.getPermissionBits(rank));
+
+                RankAncestry ancestry = moduleState.getRankAncestry(rank);
+                if (ancestry != null) {
+                    closures.add(ancestry);
+                }
+            }
+
+            this.bits = PermissionBits.merge(dictionary, sets);
+            this.globalPermissions = new CompiledPermissions(dictionary, bits);
+            this.ancestry = RankAncestry.union(closures);
+        }
+
+        /**
+         * Gets this player's permissions in a context, merging them in the same way as the permissions which apply
+         * everywhere the first time the context is checked
+         *
+         * @param requestedContext to get the permissions in, which may be in any case, or null for only the permissions
+         * which apply everywhere
+         * @return the permissions in the context
+         */
+        private CompiledPermissions getContextPermissions(String requestedContext) {
+            if (requestedContext == null || !RankModule.isLocalContext(requestedContext)) {
+                return globalPermissions; // No nodes in other contexts are loaded
+            }
+
+            String context = RankModule.normalizeContext(requestedContext); // The same string if already lower case
+
+            return contextPermissions.computeIfAbsent(context, key -> {
+                PermissionDictionary dictionary = moduleState.getPermissionDictionary();
+                Map<String, PermissionNode> forced = new HashMap<>();
+                for (Rank rank : excludedRanks) {
+                    for (PermissionNode node : rank.getPermissions(context).values()) {
+                        if (node.isForced()) {
+                            forced.putIfAbsent(node.getPermission(), node);
+                        }
+                    }
+                    for (PermissionNode node : rank.getPermissions().values()) {
+                        if (node.isForced()) {
+                            forced.putIfAbsent(node.getPermission(), node);
+                        }
+                    }
+                }
+
+                List<PermissionBits> sets = new ArrayList<>(ownedRanks.size() + 1);
+                sets.add(PermissionBits.of(dictionary, PermissionSet.of(dictionary, forced)));
+                for (Rank rank : ownedRanks) {
+                    sets.add(moduleState.getPermissionBits(rank, context));
+                }
+
+                return new CompiledPermissions(dictionary, PermissionBits.merge(dictionary, sets));
+            });
+        }
+
+        /**
+         * Checks whether a previously resolved list contains exactly the same rank objects as a newly resolved one.
+         * The module replaces a rank whenever it changes, so if every rank is the same object then none of their
+         * weights have changed.
+         *
+         * @param previous ranks from the previous state
+         * @param resolved ranks by id from the module
+         * @return whether the previous list can be used unchanged
+         */
+        private static boolean hasSameRanks(List<Rank> previous, Map<Integer, Rank> resolved) {
+            if (previous.size() != resolved.size()) {
+                return false;
+            }
+
+            for (Rank rank : previous) {
+                if (resolved.get(rank.getId()) != rank) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * @param moduleState to resolve against
+         * @return this state if it is already resolved against the module state or a newly resolved state otherwise
+         */
+        private RankState resolve(RankModuleState moduleState) {
+            return this.moduleState == moduleState ? this : new RankState(this, moduleState);
+        }
+
+    }
+
 }
@@ -1,9 +1,13 @@
 package uk.co.harieo.FurBridge.ranks;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import net.md_5.bungee.api.ChatColor;
+import net.md_5.bungee.api.chat.BaseComponent;
+import net.md_5.bungee.api.chat.TextComponent;
 import uk.co.harieo.FurBridge.ranks.modules.PermissionNode;
+import uk.co.harieo.FurBridge.ranks.modules.RankModule;
 
 public class Rank implements Comparable<Rank> {
 
@@ -11,11 +15,18 @@ public class Rank implements Comparable<Rank> {
 	private final String rankName; // Unique user-friendly id for front end handling
 	private String longPrefix; // Longer prefix to be used with a player
 	private String shortPrefix; // Optional shortened prefix to be used with a player
+	// Both prefixes with colour codes translated, worked out once when the prefix is set as they are used constantly
+	private String translatedLongPrefix;
+	private BaseComponent[] longPrefixComponents;
+	private String translatedShortPrefix;
+	private BaseComponent[] shortPrefixComponents;
 	private int weight = 0; // The amount of weight this rank holds (more weight means more important)
 	private int parentRank = -1; // The id of this rank's parent, if it has any
 	private boolean isDefault = false; // Whether this rank is inherited by default
+	private boolean isFrozen = false; // Whether this rank is held by the rank module, so can't be changed
 
-	private final Map<String, PermissionNode> permissions = new HashMap<>();
+	private final Map<String, PermissionNode> permissions;
+	private final Map<String, Map<String, PermissionNode>> contextPermissions; // Nodes by permission, by context
 
 	/**
 	 * Creates a rank with assigned id and name to be used to handle user permissions
@@ -26,6 +37,8 @@ public class Rank implements Comparable<Rank> {
 	public Rank(int id, String name) {
 		this.id = id;
 		this.rankName = name;
+		this.permissions = new HashMap<>();
+		this.contextPermissions = new HashMap<>();
 	}
 
 	/**
@@ -38,7 +51,53 @@ public class Rank implements Comparable<Rank> {
 		this(-1, name);
 	}
 
+	/**
+	 * Creates a copy of a rank with different permissions which cannot be modified. This is how a
+	 * {@link uk.co.harieo.FurBridge.ranks.modules.RankModule} changes a rank, so that a rank which has been handed out
+	 * by the module never changes underneath whoever is using it. The copy can be changed until it is frozen.
+	 *
+	 * @param rank to be copied
+	 * @param permissions which the copy owns
+	 */
+	public Rank(Rank rank, Map<String, PermissionNode> permissions) {
+		this(rank, permissions, rank.contextPermissions);
+	}
+
+	/**
+	 * Creates a copy of a rank with different permissions in the same way as {@link #Rank(Rank, Map)}, including those
+	 * which only apply in a context
+	 *
+	 * @param rank to be copied
+	 * @param permissions which the copy owns everywhere
+	 * @param contextPermissions which the copy owns in each context, by context
+	 */
+	public Rank(Rank rank, Map<String, PermissionNode> permissions,
+			Map<String, ? extends Map<String, PermissionNode>> contextPermissions) {
+		this.id = rank.id;
+		this.rankName = rank.rankName;
+		this.longPrefix = rank.longPrefix;
+		this.shortPrefix = rank.shortPrefix;
+		this.translatedLongPrefix = rank.translatedLongPrefix;
+		this.longPrefixComponents = rank.longPrefixComponents;
+		this.translatedShortPrefix = rank.translatedShortPrefix;
+		this.shortPrefixComponents = rank.shortPrefixComponents;
+		this.weight = rank.weight;
+		this.parentRank = rank.parentRank;
+		this.isDefault = rank.isDefault;
+		this.permissions = Collections.unmodifiableMap(new HashMap<>(permissions));
+
+		Map<String, Map<String, PermissionNode>> copiedContextPermissions = new HashMap<>();
+		for (Map.Entry<String, ? extends Map<String, PermissionNode>> entry : contextPermissions.entrySet()) {
+			if (!entry.getValue().isEmpty()) {
+				copiedContextPermissions
+						.put(entry.getKey(), Collections.unmodifiableMap(new HashMap<>(entry.getValue())));
+			}
+		}
+		this.contextPermissions = Collections.unmodifiableMap(copiedContextPermissions);
+	}
+
 	public void setId(int id) {
+		checkNotFrozen();
 		this.id = id;
 	}
 
@@ -51,30 +110,70 @@ public class Rank implements Comparable<Rank> {
 	}
 
 	public void setLongPrefix(String longPrefix) {
+		checkNotFrozen();
 		this.longPrefix = longPrefix;
+		this.translatedLongPrefix = translate(longPrefix);
+		this.longPrefixComponents = toComponents(translatedLongPrefix);
 	}
 
 	public String getLongPrefix() {
-		return ChatColor.translateAlternateColorCodes('&', longPrefix);
+		return translatedLongPrefix;
+	}
+
+	/**
+	 * @return the long prefix as chat components, which are shared and must not be modified
+	 */
+	public BaseComponent[] getLongPrefixComponents() {
+		return longPrefixComponents;
+	}
+
+	/**
+	 * @return the long prefix as it is stored in the database, without colour codes translated
+	 */
+	public String getRawLongPrefix() {
+		return longPrefix;
 	}
 
 	public void setShortPrefix(String shortPrefix) {
+		checkNotFrozen();
 		this.shortPrefix = shortPrefix;
+		this.translatedShortPrefix = translate(shortPrefix);
+		this.shortPrefixComponents = toComponents(translatedShortPrefix);
 	}
 
 	public String getShortPrefix() {
 		if (shortPrefix == null) {
 			return getLongPrefix(); // Long prefix can't be null and is assumed as fallback
 		} else {
-			return ChatColor.translateAlternateColorCodes('&', shortPrefix);
+			return translatedShortPrefix;
 		}
 	}
 
+	/**
+	 * @return the short prefix as chat components, falling back to the long prefix in the same way as
+	 * {@link #getShortPrefix()}, which are shared and must not be modified
+	 */
+	public BaseComponent[] getShortPrefixComponents() {
+		if (shortPrefix == null) {
+			return getLongPrefixComponents();
+		} else {
+			return shortPrefixComponents;
+		}
+	}
+
+	/**
+	 * @return the short prefix as it is stored in the database, or null if this rank has no short prefix
+	 */
+	public String getRawShortPrefix() {
+		return shortPrefix;
+	}
+
 	public boolean hasShortPrefix() {
 		return shortPrefix != null;
 	}
 
 	public void setWeight(int weight) {
+		checkNotFrozen();
 		this.weight = weight;
 	}
 
@@ -83,6 +182,7 @@ public class Rank implements Comparable<Rank> {
 	}
 
 	public void setParentRank(int parentRank) {
+		checkNotFrozen();
 		this.parentRank = parentRank;
 	}
 
@@ -95,13 +195,76 @@ public class Rank implements Comparable<Rank> {
 	}
 
 	public void setDefault(boolean aDefault) {
+		checkNotFrozen();
 		isDefault = aDefault;
 	}
 
+	/**
+	 * Stops this rank from being changed. A {@link uk.co.harieo.FurBridge.ranks.modules.RankModule} freezes every
+	 * rank it holds, as they are shared with everyone who retrieves them, so those ranks are changed through the
+	 * module which replaces them with changed copies instead.
+	 */
+	public void freeze() {
+		isFrozen = true;
+	}
+
+	/**
+	 * @return whether this rank has been frozen, in which case its setters throw an exception
+	 */
+	public boolean isFrozen() {
+		return isFrozen;
+	}
+
+	/**
+	 * @throws UnsupportedOperationException if this rank has been frozen
+	 */
+	private void checkNotFrozen() {
+		if (isFrozen) {
+			throw new UnsupportedOperationException(
+					"Rank " + rankName + " is held by the rank module, change it through the rank module");
+		}
+	}
+
 	public Map<String, PermissionNode> getPermissions() {
 		return permissions;
 	}
 
+	/**
+	 * @return the permissions which only apply in a context, by context and then by permission
+	 */
+	public Map<String, Map<String, PermissionNode>> getContextPermissions() {
+		return contextPermissions;
+	}
+
+	/**
+	 * @param context to get the permissions of or null for the permissions which apply everywhere
+	 * @return the permissions which only apply in the context, not including those which apply everywhere
+	 */
+	public Map<String, PermissionNode> getPermissions(String context) {
+		if (context == null) {
+			return permissions;
+		}
+
+		Map<String, PermissionNode> nodes = contextPermissions.get(RankModule.normalizeContext(context));
+		return nodes != null ? nodes : Collections.emptyMap();
+	}
+
+	/**
+	 * @param prefix to translate, which may be null
+	 * @return the prefix with colour codes translated or null if there is no prefix
+	 */
+	private static String translate(String prefix) {
+		return prefix == null ? null : ChatColor.translateAlternateColorCodes('&', prefix);
+	}
+
+	/**
+	 * @param translatedPrefix to convert, which may be null
+	 * @return the prefix as chat components or null if there is no prefix
+	 */
+	private static BaseComponent[] toComponents(String translatedPrefix) {
+		return translatedPrefix == null ? null : TextComponent.fromLegacyText(translatedPrefix);
+	}
+
 	@Override
 	public int compareTo(Rank o) {
 		return Integer.compare(getWeight(), o.getWeight());
@@ -2,15 +2,27 @@ package uk.co.harieo.FurBridge.ranks;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import uk.co.harieo.FurBridge.sql.InfoCore;
 
 public class RankCache {
 
-	private static final Cache<UUID, PlayerRankInfo> cachedInfo =
-			CacheBuilder.newBuilder().expireAfterWrite(10, TimeUnit.MINUTES).build();
+	private static final Map<Integer, UUID> playerIds = new ConcurrentHashMap<>(); // Player ids of cached information
+	private static final Cache<UUID, PlayerRankInfo> cachedInfo = CacheBuilder.newBuilder()
+			.expireAfterWrite(10, TimeUnit.MINUTES)
+			.<UUID, PlayerRankInfo>removalListener(notification -> {
+				if (notification.getCause() != RemovalCause.REPLACED) { // Replacements keep the same player id
+					playerIds.remove(notification.getValue().getPlayerInfo().getPlayerId(), notification.getKey());
+					// Nothing is left to expire ranks from, the offline sweep handles them from now on
+					RankExpiryScheduler.getInstance().cancelAll(notification.getKey());
+				}
+			})
+			.build();
 
 	public static boolean isPresent(UUID uuid) {
 		return cachedInfo.getIfPresent(uuid) != null;
@@ -27,6 +39,16 @@ public class RankCache {
 		return cachedInfo.getIfPresent(uuid);
 	}
 
+	/**
+	 * Gets the {@link UUID} of a player whose rank information is cached by their database player id
+	 *
+	 * @param playerId of the player
+	 * @return the uuid or null if this player's information is not cached
+	 */
+	public static UUID getUniqueId(int playerId) {
+		return playerIds.get(playerId);
+	}
+
 	/**
 	 * Gets rank information from the cache or loads it into the cache if not present
 	 *
@@ -49,6 +71,7 @@ public class RankCache {
 	 */
 	static void cache(UUID uuid, PlayerRankInfo info) {
 		if (!info.hasErrorOccurred()) {
+			playerIds.put(info.getPlayerInfo().getPlayerId(), uuid);
 			cachedInfo.put(uuid, info);
 		}
 	}
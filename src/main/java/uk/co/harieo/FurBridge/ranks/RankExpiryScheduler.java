@@ -0,0 +1,366 @@
+package uk.co.harieo.FurBridge.ranks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.params.SetParams;
+import uk.co.harieo.FurBridge.redis.RedisClient;
+
+/**
+ * Schedules the removal of timed ranks from players who are loaded on this server, using a hashed timing wheel so that
+ * scheduling and cancelling a removal are both constant time no matter how many are pending. Each tick of the wheel
+ * only visits the removals in one bucket, and removals due more than one rotation away wait in their bucket until
+ * their round comes up.
+ * <p>
+ * Removals are scheduled by the player's {@link UUID} and the rank, so scheduling the same rank again replaces the
+ * earlier removal and every removal of a player can be cancelled once they are no longer cached.
+ * <p>
+ * Players who aren't loaded anywhere are handled by {@link #startOfflineSweep(long)}, which only one server in the
+ * network runs at a time.
+ */
+public class RankExpiryScheduler {
+
+	public static final String SWEEP_LOCK_KEY = "furbridge:rank-expiry-sweep";
+
+	static final long TICK_MILLIS = 1000;
+	static final int WHEEL_SIZE = 512; // Must be a power of 2
+	private static final RankExpiryScheduler instance = new RankExpiryScheduler();
+
+	private final Bucket[] wheel = new Bucket[WHEEL_SIZE];
+	private final long startTime = System.currentTimeMillis();
+	private final Map<UUID, Map<Integer, Timeout>> timeoutsByOwner = new HashMap<>(); // Keyed timeouts by owner
+	private final String nodeId = UUID.randomUUID().toString(); // Identifies this server as the holder of the sweep lock
+	private long currentTick; // The next tick to be processed
+	private Thread tickerThread;
+	private ExecutorService executorService; // Removals use the database
+	private ScheduledExecutorService sweepService;
+
+	private RankExpiryScheduler() {
+		for (int i = 0; i < WHEEL_SIZE; i++) {
+			wheel[i] = new Bucket();
+		}
+	}
+
+	/**
+	 * @return the scheduler for this server
+	 */
+	public static RankExpiryScheduler getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Schedules a task to be run once the given time has passed, to the nearest tick of the wheel. A time which has
+	 * already passed is run on the next tick.
+	 *
+	 * @param expiresAt the time in milliseconds at which to run the task
+	 * @param task to be run, which may block
+	 * @return the scheduled timeout, which can be cancelled
+	 */
+	public synchronized Timeout schedule(long expiresAt, Runnable task) {
+		return schedule(null, 0, expiresAt, task);
+	}
+
+	/**
+	 * Schedules a task in the same way as {@link #schedule(long, Runnable)}, cancelling any task which is already
+	 * scheduled for the same owner and key
+	 *
+	 * @param owner of the task, such as the player whose rank expires
+	 * @param key which is unique to the task for its owner, such as the id of the rank which expires
+	 * @param expiresAt the time in milliseconds at which to run the task
+	 * @param task to be run, which may block and shouldn't hold on to anything which may be unloaded before it runs
+	 * @return the scheduled timeout, which can be cancelled
+	 */
+	public synchronized Timeout schedule(UUID owner, int key, long expiresAt, Runnable task) {
+		if (tickerThread == null) {
+			executorService = Executors.newCachedThreadPool(runnable -> {
+				Thread thread = new Thread(runnable, "FurBridge-RankExpiryTask");
+				thread.setDaemon(true);
+				return thread;
+			});
+			tickerThread = new Thread(this::runTicker, "FurBridge-RankExpiry");
+			tickerThread.setDaemon(true);
+			tickerThread.start();
+		}
+
+		long deadlineTick = getDeadlineTick(startTime, currentTick, expiresAt);
+		Timeout timeout = new Timeout(task, getRemainingRounds(currentTick, deadlineTick), owner, key);
+		wheel[getBucketIndex(deadlineTick)].add(timeout);
+
+		if (owner != null) {
+			Timeout replaced = timeoutsByOwner.computeIfAbsent(owner, uuid -> new HashMap<>()).put(key, timeout);
+			if (replaced != null && replaced.bucket != null) {
+				replaced.bucket.remove(replaced);
+			}
+		}
+		return timeout;
+	}
+
+	/**
+	 * Cancels the task scheduled for an owner and key, if there is one
+	 *
+	 * @param owner of the task
+	 * @param key of the task
+	 * @return whether a task was cancelled
+	 */
+	public synchronized boolean cancel(UUID owner, int key) {
+		Map<Integer, Timeout> timeouts = timeoutsByOwner.get(owner);
+		Timeout timeout = timeouts == null ? null : timeouts.get(key);
+		return timeout != null && timeout.cancel();
+	}
+
+	/**
+	 * Cancels every task scheduled for an owner, such as when a player's information is removed from the cache
+	 *
+	 * @param owner of the tasks
+	 */
+	public synchronized void cancelAll(UUID owner) {
+		Map<Integer, Timeout> timeouts = timeoutsByOwner.remove(owner);
+		if (timeouts != null) {
+			for (Timeout timeout : timeouts.values()) {
+				if (timeout.bucket != null) {
+					timeout.bucket.remove(timeout);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forgets a keyed task which has been run or cancelled, unless it has already been replaced
+	 *
+	 * @param timeout which is no longer scheduled
+	 */
+	private void forget(Timeout timeout) {
+		if (timeout.owner != null) {
+			Map<Integer, Timeout> timeouts = timeoutsByOwner.get(timeout.owner);
+			if (timeouts != null && timeouts.remove(timeout.key, timeout) && timeouts.isEmpty()) {
+				timeoutsByOwner.remove(timeout.owner);
+			}
+		}
+	}
+
+	/**
+	 * Works out the tick in which a task is run, rounding up so that a task is never run before the time it is due
+	 *
+	 * @param startTime of the wheel in milliseconds, which is when tick 0 began
+	 * @param currentTick the next tick to be processed
+	 * @param expiresAt the time in milliseconds at which the task is due
+	 * @return the tick in which the task is run, which is the current tick if the time has already passed
+	 */
+	static long getDeadlineTick(long startTime, long currentTick, long expiresAt) {
+		return Math.max(currentTick, Math.floorDiv(expiresAt - startTime + TICK_MILLIS - 1, TICK_MILLIS));
+	}
+
+	/**
+	 * @param tick which a task is run in
+	 * @return the index of the bucket which holds tasks run in the tick
+	 */
+	static int getBucketIndex(long tick) {
+		return (int) (tick & (WHEEL_SIZE - 1));
+	}
+
+	/**
+	 * @param currentTick the next tick to be processed
+	 * @param deadlineTick the tick which a task is run in
+	 * @return how many times the wheel passes the task's bucket before the task is run
+	 */
+	static long getRemainingRounds(long currentTick, long deadlineTick) {
+		return (deadlineTick - currentTick) / WHEEL_SIZE;
+	}
+
+	/**
+	 * Advances the wheel once per tick until the thread is interrupted, running every task which has become due
+	 */
+	private void runTicker() {
+		while (!Thread.currentThread().isInterrupted()) {
+			List<Timeout> due;
+			ExecutorService executor;
+			synchronized (this) {
+				long sleepMillis = startTime + currentTick * TICK_MILLIS - System.currentTimeMillis();
+				if (sleepMillis > 0) {
+					try {
+						wait(sleepMillis); // Not notified, so this is only a sleep which releases the lock
+					} catch (InterruptedException e) {
+						return;
+					}
+					continue;
+				}
+
+				due = wheel[getBucketIndex(currentTick)].expire();
+				for (Timeout timeout : due) {
+					forget(timeout);
+				}
+				currentTick++;
+				executor = executorService;
+			}
+
+			for (Timeout timeout : due) {
+				executor.execute(timeout.task);
+			}
+		}
+	}
+
+	/**
+	 * Starts sweeping expired ranks from the database at a fixed interval, which covers players who aren't loaded on
+	 * any server. Every server may call this but each sweep is only run by the first server to take a lock in Redis,
+	 * which is held for the whole interval so that no other server sweeps until the next one.
+	 *
+	 * @param intervalMillis between sweeps
+	 */
+	public synchronized void startOfflineSweep(long intervalMillis) {
+		if (sweepService != null) {
+			return; // Already sweeping
+		}
+
+		sweepService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "FurBridge-RankExpirySweep");
+			thread.setDaemon(true);
+			return thread;
+		});
+		sweepService.scheduleAtFixedRate(() -> {
+			try {
+				if (acquireSweepLock(intervalMillis)) {
+					int expired = PlayerRankInfo.sweepExpiredRanks();
+					if (expired > 0) {
+						System.out.println("Removed " + expired + " expired ranks from offline players");
+					}
+				}
+			} catch (RuntimeException e) {
+				e.printStackTrace(); // Don't let one failure stop future sweeps
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Takes the sweep lock for this server if no other server holds it
+	 *
+	 * @param intervalMillis to hold the lock for
+	 * @return whether this server holds the lock
+	 */
+	private boolean acquireSweepLock(long intervalMillis) {
+		try (Jedis jedis = RedisClient.getPublishResource()) {
+			return "OK".equals(jedis.set(SWEEP_LOCK_KEY, nodeId, SetParams.setParams().nx().px(intervalMillis)));
+		}
+	}
+
+	/**
+	 * Stops the wheel and the offline sweep, waiting for nothing which is already running. Any removal which hasn't been
+	 * run will be handled by the offline sweep of another server.
+	 */
+	public synchronized void shutdown() {
+		if (tickerThread != null) {
+			tickerThread.interrupt();
+			tickerThread = null;
+			executorService.shutdown();
+			executorService = null;
+		}
+		if (sweepService != null) {
+			sweepService.shutdownNow();
+			sweepService = null;
+		}
+	}
+
+	/**
+	 * A task scheduled in the wheel, which is linked into its bucket so that it can be removed without a search
+	 */
+	public final class Timeout {
+
+		private final Runnable task;
+		private final UUID owner; // Null unless the task was scheduled with a key
+		private final int key;
+		private long remainingRounds;
+		private Bucket bucket; // Null once run or cancelled
+		private Timeout previous;
+		private Timeout next;
+
+		private Timeout(Runnable task, long remainingRounds, UUID owner, int key) {
+			this.task = task;
+			this.remainingRounds = remainingRounds;
+			this.owner = owner;
+			this.key = key;
+		}
+
+		/**
+		 * Cancels this task if it hasn't already been run
+		 *
+		 * @return whether the task was cancelled
+		 */
+		public boolean cancel() {
+			synchronized (RankExpiryScheduler.this) {
+				if (bucket == null) {
+					return false;
+				}
+
+				bucket.remove(this);
+				forget(this);
+				return true;
+			}
+		}
+
+	}
+
+	/**
+	 * A doubly linked list of the tasks which share a position in the wheel
+	 */
+	private static class Bucket {
+
+		private Timeout head;
+		private Timeout tail;
+
+		private void add(Timeout timeout) {
+			timeout.bucket = this;
+			timeout.previous = tail;
+			if (tail == null) {
+				head = timeout;
+			} else {
+				tail.next = timeout;
+			}
+			tail = timeout;
+		}
+
+		private void remove(Timeout timeout) {
+			if (timeout.previous == null) {
+				head = timeout.next;
+			} else {
+				timeout.previous.next = timeout.next;
+			}
+			if (timeout.next == null) {
+				tail = timeout.previous;
+			} else {
+				timeout.next.previous = timeout.previous;
+			}
+			timeout.bucket = null;
+			timeout.previous = null;
+			timeout.next = null;
+		}
+
+		/**
+		 * Removes every task which is due in this rotation and counts down the rounds of the rest
+		 *
+		 * @return the tasks which are due
+		 */
+		private List<Timeout> expire() {
+			List<Timeout> due = new ArrayList<>();
+			Timeout timeout = head;
+			while (timeout != null) {
+				Timeout next = timeout.next;
+				if (timeout.remainingRounds <= 0) {
+					remove(timeout);
+					due.add(timeout);
+				} else {
+					timeout.remainingRounds--;
+				}
+				timeout = next;
+			}
+			return due;
+		}
+
+	}
+
+}
@@ -0,0 +1,69 @@
+package uk.co.harieo.FurBridge.ranks.modules;
+
+/**
+ * Merged permissions as they apply to a player in one context, where exact permissions are looked up in the bits and
+ * only the wildcard permissions are compiled into a {@link PermissionTrie}, the first time a check needs them. This is
+ * what every permission check of a player goes through.
+ */
+public class CompiledPermissions {
+
+	private final PermissionDictionary dictionary;
+	private final PermissionBits bits;
+	private volatile PermissionTrie wildcards; // Null until first needed
+
+	/**
+	 * @param dictionary the permission ids of the bits are from
+	 * @param bits the merged permissions, highest priority first
+	 */
+	public CompiledPermissions(PermissionDictionary dictionary, PermissionBits bits) {
+		this.dictionary = dictionary;
+		this.bits = bits;
+	}
+
+	/**
+	 * Checks the state of a permission, distinguishing a denied permission from one which is not set. If there is no
+	 * exact node for the permission, wildcard nodes such as {@code essentials.*} are resolved as described in
+	 * {@link PermissionTrie}, and a forced wildcard also beats an exact node which isn't forced.
+	 *
+	 * @param permission to check, which must be lower case as all stored permissions are
+	 * @return the state of the permission
+	 */
+	public PermissionState check(String permission) {
+		int id = dictionary.getId(permission);
+		PermissionState state = bits.getState(id);
+		if (state == PermissionState.UNSET) {
+			PermissionNode wildcard = getWildcards().resolve(permission);
+			if (wildcard != null) {
+				state = wildcard.isAllowed() ? PermissionState.ALLOWED : PermissionState.DENIED;
+			}
+		} else if (!bits.isForced(id) && getWildcards().hasForcedNodes()) {
+			PermissionNode wildcard = getWildcards().resolve(permission);
+			if (wildcard != null && wildcard.isForced()) { // A forced wildcard beats an unforced exact node
+				state = wildcard.isAllowed() ? PermissionState.ALLOWED : PermissionState.DENIED;
+			}
+		}
+
+		return state;
+	}
+
+	/**
+	 * @return the merged permissions
+	 */
+	public PermissionBits getBits() {
+		return bits;
+	}
+
+	/**
+	 * @return a trie of only the wildcard permissions, which may be compiled more than once if first needed on several
+	 * threads at the same time
+	 */
+	private PermissionTrie getWildcards() {
+		PermissionTrie trie = wildcards;
+		if (trie == null) {
+			trie = new PermissionTrie(bits.getWildcardNodes());
+			wildcards = trie;
+		}
+		return trie;
+	}
+
+}
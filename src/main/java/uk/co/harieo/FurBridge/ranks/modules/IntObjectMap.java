@@ -0,0 +1,198 @@
+package uk.co.harieo.FurBridge.ranks.modules;
+
+import java.util.Arrays;
+
+/**
+ * A map of primitive int keys to non-null values using open addressing with linear probing, which avoids boxing the
+ * keys and allocating an entry per mapping. This is used where ranks are looked up by their numerical id on hot paths.
+ * This class is not thread safe.
+ *
+ * @param <V> type of the values
+ */
+public class IntObjectMap<V> {
+
+	private static final int MINIMUM_CAPACITY = 16;
+
+	private int[] keys;
+	private Object[] values; // A null value marks an empty slot
+	private int size;
+
+	public IntObjectMap() {
+		this(MINIMUM_CAPACITY);
+	}
+
+	/**
+	 * @param expectedSize the number of mappings this map is expected to hold without resizing
+	 */
+	public IntObjectMap(int expectedSize) {
+		int capacity = MINIMUM_CAPACITY;
+		while (capacity < expectedSize * 2) { // Keep the load factor at or below 0.5 for short probe sequences
+			capacity <<= 1;
+		}
+
+		keys = new int[capacity];
+		values = new Object[capacity];
+	}
+
+	/**
+	 * Gets the value mapped to a key
+	 *
+	 * @param key to look up
+	 * @return the value or null if the key isn't mapped
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		int mask = keys.length - 1;
+		int index = mix(key) & mask;
+		Object value;
+		while ((value = values[index]) != null) {
+			if (keys[index] == key) {
+				return (V) value;
+			}
+			index = (index + 1) & mask;
+		}
+
+		return null;
+	}
+
+	/**
+	 * @param key to check for
+	 * @return whether the key is mapped to a value
+	 */
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Maps a key to a value, replacing any existing value
+	 *
+	 * @param key to be mapped
+	 * @param value to map the key to, which must not be null
+	 * @return the previous value or null if there wasn't one
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if (value == null) {
+			throw new NullPointerException("Null values can't be stored in an IntObjectMap");
+		}
+
+		int mask = keys.length - 1;
+		int index = mix(key) & mask;
+		Object existing;
+		while ((existing = values[index]) != null) {
+			if (keys[index] == key) {
+				values[index] = value;
+				return (V) existing;
+			}
+			index = (index + 1) & mask;
+		}
+
+		keys[index] = key;
+		values[index] = value;
+		if (++size * 2 > keys.length) {
+			resize(keys.length << 1);
+		}
+		return null;
+	}
+
+	/**
+	 * Removes a key and its value from the map
+	 *
+	 * @param key to be removed
+	 * @return the removed value or null if the key wasn't mapped
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		int mask = keys.length - 1;
+		int index = mix(key) & mask;
+		Object value;
+		while ((value = values[index]) != null) {
+			if (keys[index] == key) {
+				values[index] = null;
+				size--;
+				shiftBack(index);
+				return (V) value;
+			}
+			index = (index + 1) & mask;
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return the amount of mappings in this map
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all mappings from this map
+	 */
+	public void clear() {
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	/**
+	 * Moves the entries following a removed slot back into it where their probe sequence allows, so that lookups never
+	 * stop early at the gap left by the removal
+	 *
+	 * @param gap the index which has just been emptied
+	 */
+	private void shiftBack(int gap) {
+		int mask = keys.length - 1;
+		int index = gap;
+		while (true) {
+			index = (index + 1) & mask;
+			if (values[index] == null) {
+				return;
+			}
+
+			int home = mix(keys[index]) & mask;
+			// Only move the entry if its home slot is not between the gap and its current position
+			if (((index - home) & mask) >= ((index - gap) & mask)) {
+				keys[gap] = keys[index];
+				values[gap] = values[index];
+				values[index] = null;
+				gap = index;
+			}
+		}
+	}
+
+	/**
+	 * Rehashes all entries into arrays of a new capacity
+	 *
+	 * @param capacity to resize to, which must be a power of two
+	 */
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new int[capacity];
+		values = new Object[capacity];
+
+		int mask = capacity - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != null) {
+				int index = mix(oldKeys[i]) & mask;
+				while (values[index] != null) {
+					index = (index + 1) & mask;
+				}
+				keys[index] = oldKeys[i];
+				values[index] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Spreads sequential ids, such as auto incremented database ids, across the table
+	 *
+	 * @param key to be hashed
+	 * @return the mixed hash
+	 */
+	private static int mix(int key) {
+		int hash = key * 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+}
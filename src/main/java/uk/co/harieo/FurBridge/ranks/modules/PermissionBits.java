@@ -0,0 +1,264 @@
+package uk.co.harieo.FurBridge.ranks.modules;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable set of permissions held as bitsets indexed by {@link PermissionDictionary} id, with one bitset for
+ * allowed permissions, one for denied permissions and one for forced permissions. Checking a permission is a single bit
+ * test and several sets can be merged in priority order with a few word-wise operations, which makes this the
+ * representation used for a player's effective permissions.
+ */
+public class PermissionBits {
+
+	private static final long[] EMPTY = new long[0];
+
+	private final PermissionDictionary dictionary;
+	private final long[] allowed;
+	private final long[] denied;
+	private final long[] forced;
+	private final Map<String, PermissionNode> view = new MapView();
+
+	private PermissionBits(PermissionDictionary dictionary, long[] allowed, long[] denied, long[] forced) {
+		this.dictionary = dictionary;
+		this.allowed = allowed;
+		this.denied = denied;
+		this.forced = forced;
+	}
+
+	/**
+	 * @param dictionary the permission ids are from
+	 * @return a set containing no permissions
+	 */
+	public static PermissionBits empty(PermissionDictionary dictionary) {
+		return new PermissionBits(dictionary, EMPTY, EMPTY, EMPTY);
+	}
+
+	/**
+	 * Creates bitsets from a {@link PermissionSet}
+	 *
+	 * @param dictionary the permission ids of the set are from
+	 * @param permissions to be converted
+	 * @return the created bitsets
+	 */
+	public static PermissionBits of(PermissionDictionary dictionary, PermissionSet permissions) {
+		int words = permissions.size() == 0 ? 0 : wordIndex(permissions.getId(permissions.size() - 1)) + 1;
+		long[] allowed = new long[words];
+		long[] denied = new long[words];
+		long[] forced = new long[words];
+
+		for (int i = 0; i < permissions.size(); i++) {
+			int id = permissions.getId(i);
+			long bit = 1L << id;
+			if (permissions.isAllowed(i)) {
+				allowed[wordIndex(id)] |= bit;
+			} else {
+				denied[wordIndex(id)] |= bit;
+			}
+			if (permissions.isForced(i)) {
+				forced[wordIndex(id)] |= bit;
+			}
+		}
+
+		return new PermissionBits(dictionary, allowed, denied, forced);
+	}
+
+	/**
+	 * Merges several sets in priority order, so that a permission is taken from the first set which contains it and
+	 * ignored in any later sets
+	 *
+	 * @param dictionary the permission ids of every set are from
+	 * @param sets to be merged, highest priority first
+	 * @return the merged set
+	 */
+	public static PermissionBits merge(PermissionDictionary dictionary, List<PermissionBits> sets) {
+		int words = 0;
+		for (PermissionBits set : sets) {
+			words = Math.max(words, set.allowed.length);
+		}
+
+		long[] allowed = new long[words];
+		long[] denied = new long[words];
+		long[] forced = new long[words];
+		for (PermissionBits set : sets) {
+			for (int word = 0; word < set.allowed.length; word++) {
+				long undefined = ~(allowed[word] | denied[word]); // Permissions not taken from a higher priority set
+				allowed[word] |= set.allowed[word] & undefined;
+				denied[word] |= set.denied[word] & undefined;
+				forced[word] |= set.forced[word] & undefined;
+			}
+		}
+
+		return new PermissionBits(dictionary, allowed, denied, forced);
+	}
+
+	/**
+	 * @param id of the permission
+	 * @return the state of the permission in this set
+	 */
+	public PermissionState getState(int id) {
+		if (id < 0) {
+			return PermissionState.UNSET;
+		}
+
+		int word = wordIndex(id);
+		if (word >= allowed.length) {
+			return PermissionState.UNSET;
+		}
+
+		long bit = 1L << id;
+		if ((allowed[word] & bit) != 0) {
+			return PermissionState.ALLOWED;
+		} else if ((denied[word] & bit) != 0) {
+			return PermissionState.DENIED;
+		} else {
+			return PermissionState.UNSET;
+		}
+	}
+
+	/**
+	 * @param id of the permission
+	 * @return whether the permission is in this set and allowed
+	 */
+	public boolean isAllowed(int id) {
+		int word = wordIndex(id);
+		return id >= 0 && word < allowed.length && (allowed[word] & (1L << id)) != 0;
+	}
+
+	/**
+	 * @param id of the permission
+	 * @return whether the permission is in this set and forced
+	 */
+	public boolean isForced(int id) {
+		int word = wordIndex(id);
+		return id >= 0 && word < forced.length && (forced[word] & (1L << id)) != 0;
+	}
+
+	/**
+	 * @return an immutable map view of this set, keyed by permission
+	 */
+	public Map<String, PermissionNode> asMap() {
+		return view;
+	}
+
+	/**
+	 * Gets the nodes of the wildcard permissions in this set, such as {@code essentials.*}, which are found through the
+	 * dictionary's bitset of wildcard ids rather than by looking at every permission
+	 *
+	 * @return the wildcard nodes in this set
+	 */
+	public List<PermissionNode> getWildcardNodes() {
+		List<PermissionNode> nodes = new ArrayList<>();
+		for (int word = 0; word < allowed.length; word++) {
+			long bits = (allowed[word] | denied[word]) & dictionary.getWildcardWord(word);
+			while (bits != 0) {
+				nodes.add(getNode(word * Long.SIZE + Long.numberOfTrailingZeros(bits)));
+				bits &= bits - 1; // Clears the lowest set bit
+			}
+		}
+		return nodes;
+	}
+
+	/**
+	 * Gets the shared node of a permission in this set
+	 *
+	 * @param id of the permission
+	 * @return the node or null if the permission is not set
+	 */
+	private PermissionNode getNode(int id) {
+		PermissionState state = getState(id);
+		if (state == PermissionState.UNSET) {
+			return null;
+		} else {
+			return dictionary.getNode(id, state == PermissionState.ALLOWED, isForced(id));
+		}
+	}
+
+	/**
+	 * Finds the next permission set in this set
+	 *
+	 * @param fromId the id to start searching from, inclusive
+	 * @return the id of the next set permission or -1 if there are none
+	 */
+	private int nextSetId(int fromId) {
+		int word = wordIndex(fromId);
+		if (word >= allowed.length) {
+			return -1;
+		}
+
+		long bits = (allowed[word] | denied[word]) & (-1L << fromId);
+		while (true) {
+			if (bits != 0) {
+				return word * Long.SIZE + Long.numberOfTrailingZeros(bits);
+			} else if (++word >= allowed.length) {
+				return -1;
+			}
+			bits = allowed[word] | denied[word];
+		}
+	}
+
+	private static int wordIndex(int id) {
+		return id >> 6;
+	}
+
+	/**
+	 * A read-only map over the permissions of this set, which looks up keys without allocating
+	 */
+	private class MapView extends AbstractMap<String, PermissionNode> {
+
+		@Override
+		public PermissionNode get(Object key) {
+			return key instanceof String ? getNode(dictionary.getId((String) key)) : null;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return get(key) != null;
+		}
+
+		@Override
+		public Set<Entry<String, PermissionNode>> entrySet() {
+			return new AbstractSet<Entry<String, PermissionNode>>() {
+				@Override
+				public Iterator<Entry<String, PermissionNode>> iterator() {
+					return new Iterator<Entry<String, PermissionNode>>() {
+						private int next = nextSetId(0);
+
+						@Override
+						public boolean hasNext() {
+							return next >= 0;
+						}
+
+						@Override
+						public Entry<String, PermissionNode> next() {
+							if (!hasNext()) {
+								throw new NoSuchElementException();
+							}
+
+							PermissionNode node = getNode(next);
+							next = nextSetId(next + 1);
+							return new SimpleImmutableEntry<>(node.getPermission(), node);
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					int size = 0;
+					for (int word = 0; word < allowed.length; word++) {
+						size += Long.bitCount(allowed[word] | denied[word]);
+					}
+					return size;
+				}
+			};
+		}
+
+	}
+
+}
@@ -0,0 +1,291 @@
+package uk.co.harieo.FurBridge.ranks.modules;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A set of permission nodes to be set on or removed from any number of ranks, which is applied to a {@link RankModule}
+ * as a single change. In JSON, a change set is an array with one object per rank:
+ * <pre>
+ * [{"rank-id": 1, "set": [{"permission": "a.b", "is-allowed": true, "forced": false}], "remove": ["c.d"]}]
+ * </pre>
+ * which is the same format used to export and import the permissions of every rank, where each rank only has nodes to
+ * set. A node which only applies in a context has a {@code "context"} key, and a permission removed from a context is
+ * an object such as {@code {"permission": "c.d", "context": "survival"}} rather than a string.
+ */
+public class PermissionChangeSet {
+
+	public static final String RANK_ID_KEY = "rank-id";
+	public static final String RANK_NAME_KEY = "rank-name";
+	public static final String SET_KEY = "set";
+	public static final String REMOVE_KEY = "remove";
+	public static final String PERMISSION_KEY = "permission";
+	public static final String ALLOWED_KEY = "is-allowed";
+	public static final String FORCED_KEY = "forced";
+	public static final String CONTEXT_KEY = "context";
+
+	// Changes by rank id, then by context where null is everywhere, then by permission
+	private final Map<Integer, Map<String, Map<String, PermissionNode>>> setNodes = new LinkedHashMap<>();
+	private final Map<Integer, Map<String, Set<String>>> removedPermissions = new LinkedHashMap<>();
+	private int size;
+
+	/**
+	 * Adds a node to be set on a rank, replacing any earlier change to the same permission in the same context
+	 *
+	 * @param rankId of the rank to set the node on
+	 * @param node to be set
+	 * @return this change set
+	 */
+	public PermissionChangeSet set(int rankId, PermissionNode node) {
+		removeChange(rankId, node.getPermission(), node.getContext());
+		setNodes.computeIfAbsent(rankId, id -> new LinkedHashMap<>())
+				.computeIfAbsent(node.getContext(), context -> new LinkedHashMap<>()).put(node.getPermission(), node);
+		size++;
+		return this;
+	}
+
+	/**
+	 * Adds a permission to be removed from a rank, replacing any earlier change to the same permission
+	 *
+	 * @param rankId of the rank to remove the permission from
+	 * @param permission to be removed
+	 * @return this change set
+	 */
+	public PermissionChangeSet remove(int rankId, String permission) {
+		return remove(rankId, permission, null);
+	}
+
+	/**
+	 * Adds a permission to be removed from a rank in a context, replacing any earlier change to the same permission in
+	 * the same context
+	 *
+	 * @param rankId of the rank to remove the permission from
+	 * @param permission to be removed
+	 * @param context which the permission applies in or null if it applies everywhere
+	 * @return this change set
+	 */
+	public PermissionChangeSet remove(int rankId, String permission, String context) {
+		context = RankModule.normalizeContext(context);
+		removeChange(rankId, permission, context);
+		removedPermissions.computeIfAbsent(rankId, id -> new LinkedHashMap<>())
+				.computeIfAbsent(context, key -> new LinkedHashSet<>()).add(permission);
+		size++;
+		return this;
+	}
+
+	/**
+	 * Removes any existing change to a permission
+	 *
+	 * @param rankId of the rank which owns the permission
+	 * @param permission which is being changed
+	 * @param context which the permission applies in or null if it applies everywhere
+	 */
+	private void removeChange(int rankId, String permission, String context) {
+		Map<String, Map<String, PermissionNode>> nodesByContext = setNodes.get(rankId);
+		Map<String, PermissionNode> nodes = nodesByContext == null ? null : nodesByContext.get(context);
+		if (nodes != null && nodes.remove(permission) != null) {
+			size--;
+		}
+
+		Map<String, Set<String>> permissionsByContext = removedPermissions.get(rankId);
+		Set<String> permissions = permissionsByContext == null ? null : permissionsByContext.get(context);
+		if (permissions != null && permissions.remove(permission)) {
+			size--;
+		}
+	}
+
+	/**
+	 * @return the ids of every rank which this change set changes, in the order they were first changed
+	 */
+	public Set<Integer> getRankIds() {
+		Set<Integer> rankIds = new LinkedHashSet<>(setNodes.keySet());
+		rankIds.addAll(removedPermissions.keySet());
+		return rankIds;
+	}
+
+	/**
+	 * @param rankId of the rank
+	 * @return the nodes to be set on the rank, in every context
+	 */
+	public Collection<PermissionNode> getSetNodes(int rankId) {
+		Map<String, Map<String, PermissionNode>> nodesByContext = setNodes.get(rankId);
+		if (nodesByContext == null) {
+			return Collections.emptyList();
+		}
+
+		List<PermissionNode> nodes = new ArrayList<>();
+		for (Map<String, PermissionNode> contextNodes : nodesByContext.values()) {
+			nodes.addAll(contextNodes.values());
+		}
+		return nodes;
+	}
+
+	/**
+	 * @param rankId of the rank
+	 * @return the permissions to be removed from the rank which apply everywhere
+	 */
+	public Set<String> getRemovedPermissions(int rankId) {
+		return getRemovedPermissions(rankId, null);
+	}
+
+	/**
+	 * @param rankId of the rank
+	 * @param context which the permissions apply in or null for those which apply everywhere
+	 * @return the permissions to be removed from the rank in the context
+	 */
+	public Set<String> getRemovedPermissions(int rankId, String context) {
+		Map<String, Set<String>> permissionsByContext = removedPermissions.get(rankId);
+		Set<String> permissions =
+				permissionsByContext == null ? null : permissionsByContext.get(RankModule.normalizeContext(context));
+		return permissions == null ? Collections.emptySet() : Collections.unmodifiableSet(permissions);
+	}
+
+	/**
+	 * @param rankId of the rank
+	 * @return every context which permissions are removed from the rank in, where null is everywhere
+	 */
+	public Set<String> getRemovedContexts(int rankId) {
+		Map<String, Set<String>> permissionsByContext = removedPermissions.get(rankId);
+		return permissionsByContext == null ? Collections.emptySet()
+				: Collections.unmodifiableSet(permissionsByContext.keySet());
+	}
+
+	/**
+	 * @return the amount of nodes which this change set sets or removes
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return whether this change set changes nothing
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return this change set in its JSON format
+	 */
+	public JsonArray toJson() {
+		JsonArray json = new JsonArray();
+		for (int rankId : getRankIds()) {
+			JsonObject rankJson = toJson(rankId, getSetNodes(rankId), getRemovedPermissions(rankId));
+			for (String context : getRemovedContexts(rankId)) {
+				if (context == null) {
+					continue; // Already added
+				}
+
+				if (!rankJson.has(REMOVE_KEY)) {
+					rankJson.add(REMOVE_KEY, new JsonArray());
+				}
+				for (String permission : getRemovedPermissions(rankId, context)) {
+					JsonObject removedJson = new JsonObject();
+					removedJson.addProperty(PERMISSION_KEY, permission);
+					removedJson.addProperty(CONTEXT_KEY, context);
+					rankJson.getAsJsonArray(REMOVE_KEY).add(removedJson);
+				}
+			}
+			json.add(rankJson);
+		}
+		return json;
+	}
+
+	/**
+	 * Encodes the changes to a single rank
+	 *
+	 * @param rankId of the rank
+	 * @param nodes to be set on the rank
+	 * @param removed permissions which apply everywhere to be removed from the rank
+	 * @return the JSON object for the rank
+	 */
+	public static JsonObject toJson(int rankId, Collection<PermissionNode> nodes, Collection<String> removed) {
+		JsonObject json = new JsonObject();
+		json.addProperty(RANK_ID_KEY, rankId);
+
+		JsonArray set = new JsonArray();
+		for (PermissionNode node : nodes) {
+			JsonObject nodeJson = new JsonObject();
+			nodeJson.addProperty(PERMISSION_KEY, node.getPermission());
+			nodeJson.addProperty(ALLOWED_KEY, node.isAllowed());
+			nodeJson.addProperty(FORCED_KEY, node.isForced());
+			if (node.getContext() != null) {
+				nodeJson.addProperty(CONTEXT_KEY, node.getContext());
+			}
+			set.add(nodeJson);
+		}
+		json.add(SET_KEY, set);
+
+		if (!removed.isEmpty()) {
+			JsonArray remove = new JsonArray();
+			for (String permission : removed) {
+				remove.add(permission);
+			}
+			json.add(REMOVE_KEY, remove);
+		}
+
+		return json;
+	}
+
+	/**
+	 * Decodes a change set from its JSON format
+	 *
+	 * @param json array of changes by rank
+	 * @return the decoded change set
+	 */
+	public static PermissionChangeSet fromJson(JsonArray json) {
+		PermissionChangeSet changes = new PermissionChangeSet();
+		for (JsonElement element : json) {
+			JsonObject rankJson = element.getAsJsonObject();
+			changes.add(rankJson.get(RANK_ID_KEY).getAsInt(), rankJson);
+		}
+		return changes;
+	}
+
+	/**
+	 * Adds the changes to a single rank from its JSON object to this change set
+	 *
+	 * @param rankId of the rank, which may differ from the id in the JSON if the rank was found by name
+	 * @param rankJson the JSON object for the rank
+	 */
+	void add(int rankId, JsonObject rankJson) {
+		if (rankJson.has(SET_KEY)) {
+			for (JsonElement nodeElement : rankJson.getAsJsonArray(SET_KEY)) {
+				JsonObject nodeJson = nodeElement.getAsJsonObject();
+				boolean isAllowed = !nodeJson.has(ALLOWED_KEY) || nodeJson.get(ALLOWED_KEY).getAsBoolean();
+				boolean forced = nodeJson.has(FORCED_KEY) && nodeJson.get(FORCED_KEY).getAsBoolean();
+				set(rankId, new PermissionNode(nodeJson.get(PERMISSION_KEY).getAsString(), isAllowed, forced,
+						getContext(nodeJson)));
+			}
+		}
+
+		if (rankJson.has(REMOVE_KEY)) {
+			for (JsonElement permission : rankJson.getAsJsonArray(REMOVE_KEY)) {
+				if (permission.isJsonObject()) { // Only applies in a context
+					JsonObject permissionJson = permission.getAsJsonObject();
+					remove(rankId, permissionJson.get(PERMISSION_KEY).getAsString(), getContext(permissionJson));
+				} else {
+					remove(rankId, permission.getAsString());
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param json object of a node or a removed permission
+	 * @return the context in the object or null if it applies everywhere
+	 */
+	private static String getContext(JsonObject json) {
+		return json.has(CONTEXT_KEY) && !json.get(CONTEXT_KEY).isJsonNull() ? json.get(CONTEXT_KEY).getAsString() : null;
+	}
+
+}
@@ -0,0 +1,164 @@
+package uk.co.harieo.FurBridge.ranks.modules;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A module-wide dictionary which gives every permission string a dense numerical id, so that structures holding many
+ * permissions can store ids in primitive arrays rather than holding their own strings and map entries. Every
+ * combination of a permission and its flags also has one shared {@link PermissionNode}, which should be used in place
+ * of creating new nodes and must never be modified. Ids are never removed, so they remain valid for the lifetime of the
+ * module.
+ */
+public class PermissionDictionary {
+
+	static final int ALLOWED_FLAG = 1;
+	static final int FORCED_FLAG = 1 << 1;
+	static final int FLAG_BITS = 2;
+
+	private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+	private volatile String[] permissions = new String[64];
+	private volatile PermissionNode[] nodes = new PermissionNode[64 << FLAG_BITS];
+	private volatile int size;
+	private volatile long[] wildcardIds = new long[1]; // Ids of wildcard permissions as a bitset, replaced when changed
+
+	/**
+	 * Gets the id of a permission without assigning one
+	 *
+	 * @param permission to get the id of
+	 * @return the id or -1 if the permission has no id
+	 */
+	public int getId(String permission) {
+		Integer id = ids.get(permission);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Gets the id of a permission, assigning the next free id if it doesn't have one
+	 *
+	 * @param permission to get the id of
+	 * @return the id of the permission
+	 */
+	public int assignId(String permission) {
+		Integer id = ids.get(permission);
+		if (id != null) {
+			return id;
+		}
+
+		synchronized (this) {
+			id = ids.get(permission);
+			if (id != null) {
+				return id; // Assigned by another thread while waiting
+			}
+
+			int newId = size;
+			if (newId == permissions.length) {
+				permissions = Arrays.copyOf(permissions, newId * 2);
+				nodes = Arrays.copyOf(nodes, (newId * 2) << FLAG_BITS);
+			}
+
+			PermissionNode[] nodes = this.nodes;
+			for (int flags = 0; flags < 1 << FLAG_BITS; flags++) {
+				nodes[(newId << FLAG_BITS) | flags] = new PermissionNode(permission, (flags & ALLOWED_FLAG) != 0,
+						(flags & FORCED_FLAG) != 0);
+			}
+			permissions[newId] = permission;
+			if (PermissionTrie.isWildcard(permission)) {
+				long[] wildcards = Arrays.copyOf(wildcardIds, Math.max(wildcardIds.length, (newId >> 6) + 1));
+				wildcards[newId >> 6] |= 1L << newId;
+				wildcardIds = wildcards;
+			}
+			size = newId + 1;
+			ids.put(permission, newId); // Published last so that readers of the id can see everything above
+			return newId;
+		}
+	}
+
+	/**
+	 * @param id of the permission
+	 * @return the permission with this id
+	 */
+	public String getPermission(int id) {
+		return permissions[id];
+	}
+
+	/**
+	 * Gets the shared node for a permission with the given flags
+	 *
+	 * @param id of the permission
+	 * @param allowed whether the node is allowed
+	 * @param forced whether the node is forced
+	 * @return the shared node
+	 */
+	public PermissionNode getNode(int id, boolean allowed, boolean forced) {
+		return getNode(id, flags(allowed, forced));
+	}
+
+	/**
+	 * Gets the shared node for a permission with the given flags, assigning the permission an id if needed
+	 *
+	 * @param permission of the node
+	 * @param allowed whether the node is allowed
+	 * @param forced whether the node is forced
+	 * @return the shared node
+	 */
+	public PermissionNode getNode(String permission, boolean allowed, boolean forced) {
+		return getNode(assignId(permission), allowed, forced);
+	}
+
+	/**
+	 * Gets the node for a permission in a context, which shares its permission string with the shared node of the same
+	 * permission. Nodes which apply everywhere are the shared nodes themselves.
+	 *
+	 * @param permission of the node
+	 * @param allowed whether the node is allowed
+	 * @param forced whether the node is forced
+	 * @param context which the node applies in or null if it applies everywhere
+	 * @return the node
+	 */
+	public PermissionNode getNode(String permission, boolean allowed, boolean forced, String context) {
+		PermissionNode shared = getNode(permission, allowed, forced);
+		return context == null ? shared : new PermissionNode(shared.getPermission(), allowed, forced, context);
+	}
+
+	/**
+	 * @param id of the permission
+	 * @param flags packed by {@link #flags(boolean, boolean)}
+	 * @return the shared node
+	 */
+	PermissionNode getNode(int id, int flags) {
+		return nodes[(id << FLAG_BITS) | flags];
+	}
+
+	/**
+	 * Gets a word of the bitset of wildcard permission ids, so that the wildcards in a set of permissions can be found
+	 * without looking at their strings
+	 *
+	 * @param word index of the word, which is the id divided by 64
+	 * @return the word of the bitset, where each set bit is the id of a wildcard permission
+	 */
+	long getWildcardWord(int word) {
+		long[] wildcards = wildcardIds;
+		return word < wildcards.length ? wildcards[word] : 0;
+	}
+
+	/**
+	 * @return the amount of permissions which have an id
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Packs the flags of a node into the low bits of an int
+	 *
+	 * @param allowed whether the node is allowed
+	 * @param forced whether the node is forced
+	 * @return the packed flags
+	 */
+	static int flags(boolean allowed, boolean forced) {
+		return (allowed ? ALLOWED_FLAG : 0) | (forced ? FORCED_FLAG : 0);
+	}
+
+}
@@ -1,10 +1,16 @@
 package uk.co.harieo.FurBridge.ranks.modules;
 
+/**
+ * An immutable permission node. Nodes are shared between every rank with the same permission and values through
+ * {@link PermissionDictionary}, so a node can't be changed in place and a new node should be set through
+ * {@link RankModule#setPermission(Rank, PermissionNode)} instead.
+ */
 public class PermissionNode {
 
 	private final String node;
-	private boolean allow;
-	private boolean force;
+	private final boolean allow;
+	private final boolean force;
+	private final String context; // Null if the node applies everywhere
 
 	/**
 	 * Represents a permission node with the standard permissible and boolean used in both Spigot and BungeeCord, as well
@@ -15,9 +21,23 @@ public class PermissionNode {
 	 * @param force whether the permission should ignore exclusions
 	 */
 	public PermissionNode(String permission, boolean allow, boolean force) {
+		this(permission, allow, force, null);
+	}
+
+	/**
+	 * Represents a permission node which only applies in a context, such as a server group or a world, in the same way
+	 * as {@link #PermissionNode(String, boolean, boolean)}
+	 *
+	 * @param permission the node
+	 * @param allow whether the permission is allowed
+	 * @param force whether the permission should ignore exclusions
+	 * @param context which the node applies in or null if it applies everywhere, which is held in lower case
+	 */
+	public PermissionNode(String permission, boolean allow, boolean force, String context) {
 		this.node = permission;
 		this.allow = allow;
 		this.force = force;
+		this.context = RankModule.normalizeContext(context);
 	}
 
 	/**
@@ -34,15 +54,6 @@ public class PermissionNode {
 		return allow;
 	}
 
-	/**
-	 * Sets the value
-	 *
-	 * @param allow sets {@link #isAllowed()}
-	 */
-	public void setAllowed(boolean allow) {
-		this.allow = allow;
-	}
-
 	/**
 	 * @return whether this permission bypasses exclusions
 	 */
@@ -51,12 +62,10 @@ public class PermissionNode {
 	}
 
 	/**
-	 * Sets the value
-	 *
-	 * @param force sets {@link #isForced()}
+	 * @return the context which this node applies in or null if it applies everywhere
 	 */
-	public void setForce(boolean force) {
-		this.force = force;
+	public String getContext() {
+		return context;
 	}
 
 }
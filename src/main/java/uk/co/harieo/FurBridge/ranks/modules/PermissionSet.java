@@ -0,0 +1,189 @@
+package uk.co.harieo.FurBridge.ranks.modules;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable set of permission nodes stored as a sorted array of {@link PermissionDictionary} ids, with each node's
+ * allowed and forced flags packed into the low bits of its entry. This holds the same information as a map of
+ * permission strings to nodes in a fraction of the memory, and can be viewed as such a map through {@link #asMap()}.
+ */
+public class PermissionSet {
+
+	private final PermissionDictionary dictionary;
+	private final int[] entries; // Sorted by id, each entry being the id shifted above the flags
+	private final Map<String, PermissionNode> view = new MapView();
+
+	private PermissionSet(PermissionDictionary dictionary, int[] entries) {
+		this.dictionary = dictionary;
+		this.entries = entries;
+	}
+
+	/**
+	 * Creates a set from a map of permission nodes, assigning any permissions which don't yet have an id
+	 *
+	 * @param dictionary to get permission ids from
+	 * @param permissions to be stored in the set
+	 * @return the created set
+	 */
+	public static PermissionSet of(PermissionDictionary dictionary, Map<String, PermissionNode> permissions) {
+		int[] entries = new int[permissions.size()];
+		int index = 0;
+		for (PermissionNode node : permissions.values()) {
+			int id = dictionary.assignId(node.getPermission());
+			entries[index++] = (id << PermissionDictionary.FLAG_BITS)
+					| PermissionDictionary.flags(node.isAllowed(), node.isForced());
+		}
+
+		Arrays.sort(entries); // The flags sit below the id so this sorts by id
+		return new PermissionSet(dictionary, entries);
+	}
+
+	/**
+	 * @return the amount of permissions in this set
+	 */
+	public int size() {
+		return entries.length;
+	}
+
+	/**
+	 * @param index of the entry, from 0 to {@link #size()}
+	 * @return the permission id of the entry
+	 */
+	public int getId(int index) {
+		return entries[index] >>> PermissionDictionary.FLAG_BITS;
+	}
+
+	/**
+	 * @param index of the entry, from 0 to {@link #size()}
+	 * @return whether the entry is allowed
+	 */
+	public boolean isAllowed(int index) {
+		return (entries[index] & PermissionDictionary.ALLOWED_FLAG) != 0;
+	}
+
+	/**
+	 * @param index of the entry, from 0 to {@link #size()}
+	 * @return whether the entry is forced
+	 */
+	public boolean isForced(int index) {
+		return (entries[index] & PermissionDictionary.FORCED_FLAG) != 0;
+	}
+
+	/**
+	 * Finds the entry for a permission id
+	 *
+	 * @param id of the permission
+	 * @return the index of the entry or -1 if the permission isn't in this set
+	 */
+	public int indexOf(int id) {
+		int low = 0;
+		int high = entries.length - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int middleId = entries[middle] >>> PermissionDictionary.FLAG_BITS;
+			if (middleId < id) {
+				low = middle + 1;
+			} else if (middleId > id) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Gets the node for a permission
+	 *
+	 * @param permission to find
+	 * @return the shared node from the {@link PermissionDictionary} or null if the permission isn't in this set
+	 */
+	public PermissionNode get(String permission) {
+		int id = dictionary.getId(permission);
+		if (id < 0) {
+			return null;
+		}
+
+		int index = indexOf(id);
+		return index < 0 ? null : getNode(index);
+	}
+
+	/**
+	 * @param index of the entry, from 0 to {@link #size()}
+	 * @return the shared node for the entry
+	 */
+	public PermissionNode getNode(int index) {
+		int entry = entries[index];
+		return dictionary.getNode(entry >>> PermissionDictionary.FLAG_BITS,
+				entry & ((1 << PermissionDictionary.FLAG_BITS) - 1));
+	}
+
+	/**
+	 * @return an immutable map view of this set, keyed by permission
+	 */
+	public Map<String, PermissionNode> asMap() {
+		return view;
+	}
+
+	/**
+	 * A read-only map over the entries of this set, which looks up keys without allocating
+	 */
+	private class MapView extends AbstractMap<String, PermissionNode> {
+
+		@Override
+		public PermissionNode get(Object key) {
+			return key instanceof String ? PermissionSet.this.get((String) key) : null;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return get(key) != null;
+		}
+
+		@Override
+		public int size() {
+			return entries.length;
+		}
+
+		@Override
+		public Set<Entry<String, PermissionNode>> entrySet() {
+			return new AbstractSet<Entry<String, PermissionNode>>() {
+				@Override
+				public Iterator<Entry<String, PermissionNode>> iterator() {
+					return new Iterator<Entry<String, PermissionNode>>() {
+						private int index = 0;
+
+						@Override
+						public boolean hasNext() {
+							return index < entries.length;
+						}
+
+						@Override
+						public Entry<String, PermissionNode> next() {
+							if (!hasNext()) {
+								throw new NoSuchElementException();
+							}
+
+							PermissionNode node = getNode(index++);
+							return new SimpleImmutableEntry<>(node.getPermission(), node);
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return entries.length;
+				}
+			};
+		}
+
+	}
+
+}
@@ -0,0 +1,11 @@
+package uk.co.harieo.FurBridge.ranks.modules;
+
+/**
+ * The outcome of checking whether a player has a permission, which separates a denied permission from one which has
+ * not been set at all so that the server's own default can be applied to the latter
+ */
+public enum PermissionState {
+
+	ALLOWED, DENIED, UNSET
+
+}
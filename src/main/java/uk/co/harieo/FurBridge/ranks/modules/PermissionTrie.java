@@ -0,0 +1,256 @@
+package uk.co.harieo.FurBridge.ranks.modules;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * An immutable tree of permission nodes keyed on their '.' separated segments, which allows wildcard nodes such as
+ * {@code essentials.*} to be resolved without scanning every node. A wildcard applies to every permission below the
+ * segment it is attached to, and {@code *} on its own applies to every permission.
+ * <p>
+ * When more than one node matches a permission, a forced node is preferred over one which isn't forced. Between nodes
+ * which are both forced or both unforced, the most specific match wins, so an exact node beats any wildcard and a
+ * deeper wildcard beats a shallower one. Lookups are proportional to the depth of the permission and do not allocate.
+ */
+public class PermissionTrie {
+
+	private static final String WILDCARD = "*";
+	private static final String WILDCARD_SUFFIX = "." + WILDCARD;
+
+	private final Node root = new Node();
+	private int forcedWildcards;
+
+	/**
+	 * Compiles a map of permission nodes into a trie
+	 *
+	 * @param permissions to be compiled, keyed by their permission
+	 */
+	public PermissionTrie(Map<String, PermissionNode> permissions) {
+		this(permissions.values());
+	}
+
+	/**
+	 * Compiles permission nodes into a trie. A trie of only wildcard nodes, such as one from
+	 * {@link PermissionBits#getWildcardNodes()}, resolves the best wildcard for a permission and can be paired with an
+	 * exact lookup elsewhere.
+	 *
+	 * @param nodes to be compiled
+	 */
+	public PermissionTrie(Collection<PermissionNode> nodes) {
+		for (PermissionNode node : nodes) {
+			insert(node);
+		}
+	}
+
+	/**
+	 * @param permission to check
+	 * @return whether the permission is a wildcard, which is either {@code *} or ends in {@code .*}
+	 */
+	public static boolean isWildcard(String permission) {
+		return permission.equals(WILDCARD) || permission.endsWith(WILDCARD_SUFFIX);
+	}
+
+	/**
+	 * Finds the node which decides whether the given permission is allowed, which is either an exact node for the
+	 * permission or a wildcard node above it
+	 *
+	 * @param permission to resolve
+	 * @return the deciding node or null if no node matches
+	 */
+	public PermissionNode resolve(String permission) {
+		PermissionNode bestForced = null;
+		PermissionNode bestUnforced = null;
+
+		Node current = root;
+		int start = 0;
+		int length = permission.length();
+		while (true) {
+			// A wildcard applies to everything below the node it is attached to, deeper wildcards replacing shallower
+			PermissionNode wildcard = current.wildcard;
+			if (wildcard != null) {
+				if (wildcard.isForced()) {
+					bestForced = wildcard;
+				} else {
+					bestUnforced = wildcard;
+				}
+			}
+
+			int end = permission.indexOf('.', start);
+			if (end < 0) {
+				end = length;
+			}
+
+			current = current.child(permission, start, end);
+			if (current == null) {
+				break;
+			} else if (end == length) {
+				PermissionNode exact = current.exact;
+				if (exact != null) {
+					if (exact.isForced()) {
+						return exact; // Nothing can be more specific than a forced exact node
+					} else {
+						bestUnforced = exact;
+					}
+				}
+				break;
+			}
+
+			start = end + 1;
+		}
+
+		return bestForced != null ? bestForced : bestUnforced;
+	}
+
+	/**
+	 * @return whether any wildcard node in this trie is forced, in which case an exact unforced node may be overruled
+	 * by a forced wildcard. Forced exact nodes are not counted as they can only decide their own permission.
+	 */
+	public boolean hasForcedNodes() {
+		return forcedWildcards > 0;
+	}
+
+	/**
+	 * Adds a node to the trie, attaching it as a wildcard if it ends in {@code .*}
+	 *
+	 * @param node to be added
+	 */
+	private void insert(PermissionNode node) {
+		String permission = node.getPermission();
+		boolean isWildcard = isWildcard(permission);
+		if (isWildcard && node.isForced()) {
+			forcedWildcards++;
+		}
+
+		if (permission.equals(WILDCARD)) {
+			root.wildcard = node;
+			return;
+		}
+		int length = isWildcard ? permission.length() - WILDCARD_SUFFIX.length() : permission.length();
+
+		Node current = root;
+		int start = 0;
+		while (start <= length) {
+			int end = permission.indexOf('.', start);
+			if (end < 0 || end > length) {
+				end = length;
+			}
+
+			current = current.getOrCreateChild(permission.substring(start, end));
+			start = end + 1;
+		}
+
+		if (isWildcard) {
+			current.wildcard = node;
+		} else {
+			current.exact = node;
+		}
+	}
+
+	/**
+	 * A single segment of a permission, with its children held in an open addressing table keyed on the segment so
+	 * that they can be looked up by a region of the permission without creating a substring
+	 */
+	private static class Node {
+
+		private String[] keys;
+		private Node[] children;
+		private int size;
+
+		private PermissionNode exact; // The node for the permission ending at this segment
+		private PermissionNode wildcard; // The node for every permission below this segment
+
+		/**
+		 * Finds the child for a segment of a permission
+		 *
+		 * @param permission containing the segment
+		 * @param start index of the segment, inclusive
+		 * @param end index of the segment, exclusive
+		 * @return the child or null if there is none
+		 */
+		private Node child(String permission, int start, int end) {
+			if (keys == null) {
+				return null;
+			}
+
+			int segmentLength = end - start;
+			int mask = keys.length - 1;
+			int index = hash(permission, start, end) & mask;
+			String key;
+			while ((key = keys[index]) != null) {
+				if (key.length() == segmentLength && permission.regionMatches(start, key, 0, segmentLength)) {
+					return children[index];
+				}
+				index = (index + 1) & mask;
+			}
+
+			return null;
+		}
+
+		/**
+		 * Finds the child for a segment, creating it if it doesn't exist
+		 *
+		 * @param segment to find the child for
+		 * @return the existing or created child
+		 */
+		private Node getOrCreateChild(String segment) {
+			Node child = child(segment, 0, segment.length());
+			if (child == null) {
+				if (keys == null) {
+					keys = new String[4];
+					children = new Node[4];
+				} else if ((size + 1) * 2 > keys.length) {
+					resize();
+				}
+
+				child = new Node();
+				place(keys, children, segment, child);
+				size++;
+			}
+
+			return child;
+		}
+
+		/**
+		 * Doubles the size of the child table
+		 */
+		private void resize() {
+			String[] newKeys = new String[keys.length * 2];
+			Node[] newChildren = new Node[children.length * 2];
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i] != null) {
+					place(newKeys, newChildren, keys[i], children[i]);
+				}
+			}
+
+			keys = newKeys;
+			children = newChildren;
+		}
+
+		/**
+		 * Puts a child into the first free slot of its probe sequence
+		 */
+		private static void place(String[] keys, Node[] children, String segment, Node child) {
+			int mask = keys.length - 1;
+			int index = hash(segment, 0, segment.length()) & mask;
+			while (keys[index] != null) {
+				index = (index + 1) & mask;
+			}
+
+			keys[index] = segment;
+			children[index] = child;
+		}
+
+		/**
+		 * Hashes a region of a string in the same way as {@link String#hashCode()}, spreading the high bits down
+		 */
+		private static int hash(String string, int start, int end) {
+			int hash = 0;
+			for (int i = start; i < end; i++) {
+				hash = 31 * hash + string.charAt(i);
+			}
+			return hash ^ (hash >>> 16);
+		}
+
+	}
+
+}
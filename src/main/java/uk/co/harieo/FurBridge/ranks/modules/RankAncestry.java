@@ -0,0 +1,102 @@
+package uk.co.harieo.FurBridge.ranks.modules;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The closure of a rank's position in the hierarchy, being a bitset over the rank indices of a {@link RankModule} with
+ * a bit set for the rank itself and for each of its parents, however far removed. Checking whether a rank inherits from
+ * another is then a single bit test. Rank indices are only meaningful within the module version which assigned them.
+ */
+public class RankAncestry {
+
+	private final int index; // The index of the rank this is for, or -1 if this is a union of several ranks
+	private final long[] ancestors;
+
+	RankAncestry(int index, long[] ancestors) {
+		this.index = index;
+		this.ancestors = ancestors;
+	}
+
+	/**
+	 * @return the index of the rank this closure is for, or -1 if it is a union of several ranks
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * Checks whether a rank is included in this closure, meaning it is the rank this closure is for or one of its
+	 * parents
+	 *
+	 * @param other the closure of the rank to check for
+	 * @return whether the rank is included
+	 */
+	public boolean includes(RankAncestry other) {
+		int otherIndex = other.index;
+		int word = otherIndex >> 6;
+		return otherIndex >= 0 && word < ancestors.length && (ancestors[word] & (1L << otherIndex)) != 0;
+	}
+
+	/**
+	 * Checks whether any of the ranks in a set is included in this closure, such as whether a rank inherits from any
+	 * rank which has changed
+	 *
+	 * @param ranks a set made by {@link #of(Collection)}
+	 * @return whether any of the ranks is included
+	 */
+	public boolean includesAny(RankAncestry ranks) {
+		int words = Math.min(ancestors.length, ranks.ancestors.length);
+		for (int word = 0; word < words; word++) {
+			if ((ancestors[word] & ranks.ancestors[word]) != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Creates a set of only the ranks which the given closures are for, without any of their parents
+	 *
+	 * @param closures of the ranks in the set, which must all be from the same module version
+	 * @return a set with a bit for the rank of each closure
+	 */
+	public static RankAncestry of(Collection<RankAncestry> closures) {
+		int words = 0;
+		for (RankAncestry closure : closures) {
+			words = Math.max(words, (closure.index >> 6) + 1);
+		}
+
+		long[] ranks = new long[words];
+		for (RankAncestry closure : closures) {
+			if (closure.index >= 0) {
+				ranks[closure.index >> 6] |= 1L << closure.index;
+			}
+		}
+
+		return new RankAncestry(-1, ranks);
+	}
+
+	/**
+	 * Combines several closures, such as those of each rank a player owns, into one
+	 *
+	 * @param closures to be combined
+	 * @return a closure including every rank included in any of the given closures
+	 */
+	public static RankAncestry union(List<RankAncestry> closures) {
+		int words = 0;
+		for (RankAncestry closure : closures) {
+			words = Math.max(words, closure.ancestors.length);
+		}
+
+		long[] ancestors = new long[words];
+		for (RankAncestry closure : closures) {
+			for (int word = 0; word < closure.ancestors.length; word++) {
+				ancestors[word] |= closure.ancestors[word];
+			}
+		}
+
+		return new RankAncestry(-1, ancestors);
+	}
+
+}
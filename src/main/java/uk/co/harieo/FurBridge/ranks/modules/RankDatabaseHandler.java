@@ -1,17 +1,34 @@
 package uk.co.harieo.FurBridge.ranks.modules;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 import uk.co.harieo.FurBridge.ranks.Rank;
+import uk.co.harieo.FurBridge.ranks.redis.PermissionMessage;
+import uk.co.harieo.FurBridge.redis.messages.ReloadRankModuleMessage;
 import uk.co.harieo.FurBridge.sql.FurDB;
 
 public class RankDatabaseHandler {
 
+	public static final int IMPORT_BATCH_SIZE = 500; // Statements per transaction when importing permissions
+
 	private static final ExecutorService executorService = Executors.newCachedThreadPool();
 
 	private final RankModule module;
@@ -44,8 +61,8 @@ public class RankDatabaseHandler {
 				statement.setString(1, toBeCreated.getRankName());
 
 				// Short prefixes can be null if the rank will only be using the long prefix
-				String longPrefix = toBeCreated.getLongPrefix();
-				String shortPrefix = toBeCreated.getShortPrefix();
+				String longPrefix = toBeCreated.getRawLongPrefix(); // Stored untranslated, as the loader expects
+				String shortPrefix = toBeCreated.getRawShortPrefix();
 
 				if (longPrefix.length() > 32 || (shortPrefix != null && shortPrefix.length() > 32)) {
 					return false; // This would violate max char constraints
@@ -55,7 +72,7 @@ public class RankDatabaseHandler {
 				if (shortPrefix == null) {
 					statement.setNull(3, Types.VARCHAR);
 				} else {
-					statement.setString(3, toBeCreated.getShortPrefix());
+					statement.setString(3, shortPrefix);
 				}
 
 				statement.setInt(4, toBeCreated.getWeight());
@@ -135,18 +152,36 @@ public class RankDatabaseHandler {
 	 * @return whether the update was successful
 	 */
 	public CompletableFuture<Boolean> setPermissionNode(Rank toBeEdited, String permission, boolean isAllowed, boolean forced) {
+		return setPermissionNode(toBeEdited, permission, isAllowed, forced, null);
+	}
+
+	/**
+	 * Sets a permission node which only applies in a context in the same way as
+	 * {@link #setPermissionNode(Rank, String, boolean, boolean)}. The context must be one of
+	 * {@link RankModule#getLocalContexts()}, as the nodes of any other context aren't known to this server.
+	 *
+	 * @param toBeEdited rank to be edited
+	 * @param permission to add or change the value of
+	 * @param isAllowed whether the permission is allowed or denied
+	 * @param forced whether the permission should ignore exclusions
+	 * @param context which the permission applies in or null if it applies everywhere
+	 * @return whether the update was successful
+	 */
+	public CompletableFuture<Boolean> setPermissionNode(Rank toBeEdited, String permission, boolean isAllowed,
+			boolean forced, String context) {
 		if (!module.wasLoadedSuccessfully()) {
 			throw new IllegalStateException("Attempted to handle a malfunctioning RankModule");
-		} else if (toBeEdited == null) {
+		} else if (toBeEdited == null || !RankModule.isLocalContext(context)) {
 			return CompletableFuture.completedFuture(false); // Likely user error
 		}
 
 		permission = permission.toLowerCase(); // For safety to prevent logic error
 		String finalPermission = permission;
+		String finalContext = RankModule.normalizeContext(context);
 
 		return CompletableFuture.supplyAsync(() -> {
 			try (Connection connection = FurDB.getConnection()) {
-				Map<String, PermissionNode> permissions = toBeEdited.getPermissions();
+				Map<String, PermissionNode> permissions = module.getCurrent(toBeEdited).getPermissions(finalContext);
 				String statementString;
 				Map<Integer, Object> parameters = new HashMap<>();
 
@@ -155,26 +190,30 @@ public class RankDatabaseHandler {
 						return false; // Everything is already as it should be, why is this call being made?
 					} else {
 						statementString = "UPDATE " + RankModule.PERMISSIONS_TABLE.getTableName()
-								+ " SET allowed=?, forced=? WHERE rank_id=? AND permission=?";
+								+ " SET allowed=?, forced=? WHERE rank_id=? AND permission=? AND context<=>?";
 						parameters.put(1, isAllowed);
 						parameters.put(2, forced);
 						parameters.put(3, toBeEdited.getId());
 						parameters.put(4, finalPermission);
+						parameters.put(5, finalContext);
 					}
 				} else {
 					statementString = "INSERT INTO " + RankModule.PERMISSIONS_TABLE.getTableName()
-							+ " (rank_id,permission,allowed,forced) VALUES (?,?,?,?)";
+							+ " (rank_id,permission,allowed,forced,context) VALUES (?,?,?,?,?)";
 					parameters.put(1, toBeEdited.getId());
 					parameters.put(2, finalPermission);
 					parameters.put(3, isAllowed);
 					parameters.put(4, forced);
+					parameters.put(5, finalContext);
 				}
 
 				try (PreparedStatement statement = connection.prepareStatement(statementString)) {
 					// Put all the values where they are expected
 					for (int parameterOrdinal : parameters.keySet()) {
 						Object rawValue = parameters.get(parameterOrdinal);
-						if (rawValue instanceof String) {
+						if (rawValue == null) { // A context which applies everywhere
+							statement.setNull(parameterOrdinal, Types.VARCHAR);
+						} else if (rawValue instanceof String) {
 							statement.setString(parameterOrdinal, (String) rawValue);
 						} else if (rawValue instanceof Integer) {
 							statement.setInt(parameterOrdinal, (int) rawValue);
@@ -186,8 +225,9 @@ public class RankDatabaseHandler {
 					}
 
 					// Make sure the cached value is absolutely correct
-					permissions.put(finalPermission, new PermissionNode(finalPermission, isAllowed, forced));
+					module.setPermission(toBeEdited, new PermissionNode(finalPermission, isAllowed, forced, finalContext));
 					statement.executeUpdate();
+					touchRanks(connection, Collections.singleton(toBeEdited.getId()));
 					return true;
 				}
 			} catch (SQLException e) {
@@ -206,24 +246,40 @@ public class RankDatabaseHandler {
 	 * @return whether the update was successful
 	 */
 	public CompletableFuture<Boolean> removePermissionNode(Rank toBeEdited, String permission) {
+		return removePermissionNode(toBeEdited, permission, null);
+	}
+
+	/**
+	 * Removes a permission node which only applies in a context in the same way as
+	 * {@link #removePermissionNode(Rank, String)}. The context must be one of {@link RankModule#getLocalContexts()}.
+	 *
+	 * @param toBeEdited the rank which owns the permission node
+	 * @param permission node to remove
+	 * @param context which the permission applies in or null if it applies everywhere
+	 * @return whether the update was successful
+	 */
+	public CompletableFuture<Boolean> removePermissionNode(Rank toBeEdited, String permission, String context) {
 		if (!module.wasLoadedSuccessfully()) {
 			throw new IllegalStateException("Attempted to handle a malfunctioning RankModule");
-		} else if (toBeEdited == null) {
+		} else if (toBeEdited == null || !RankModule.isLocalContext(context)) {
 			return CompletableFuture.completedFuture(false); // Likely user error
 		}
 
 		permission = permission.toLowerCase(); // For safety to prevent logic error
 		String finalPermission = permission;
+		String finalContext = RankModule.normalizeContext(context);
 
 		return CompletableFuture.supplyAsync(() -> {
 			try (Connection connection = FurDB.getConnection();
 					PreparedStatement statement = connection.prepareStatement(
 							"DELETE FROM " + RankModule.PERMISSIONS_TABLE.getTableName()
-									+ " WHERE rank_id=? AND permission=?")) {
+									+ " WHERE rank_id=? AND permission=? AND context<=>?")) {
 				statement.setInt(1, toBeEdited.getId());
 				statement.setString(2, finalPermission);
-				toBeEdited.getPermissions().remove(finalPermission); // Update cache
+				statement.setString(3, finalContext);
+				module.removePermission(toBeEdited, finalPermission, finalContext); // Update cache
 				statement.executeUpdate();
+				touchRanks(connection, Collections.singleton(toBeEdited.getId()));
 				return true;
 			} catch (SQLException e) {
 				e.printStackTrace();
@@ -233,7 +289,8 @@ public class RankDatabaseHandler {
 	}
 
 	/**
-	 * Edits the record for a rank where the database value is a generic integer, such as weight or parent rank id.
+	 * Edits the record for a rank where the database value is a generic integer, such as weight or parent rank id. A
+	 * parent which would create a cycle in the hierarchy is rejected.
 	 *
 	 * @param toBeEdited which rank should be edited in the database
 	 * @param valueToEdit which value are we editing
@@ -245,6 +302,8 @@ public class RankDatabaseHandler {
 			throw new IllegalStateException("Attempted to handle a malfunctioning RankModule");
 		} else if (toBeEdited == null) {
 			return CompletableFuture.completedFuture(false); // Likely user error
+		} else if (valueToEdit == GenericIntegerValue.PARENT && module.createsParentCycle(toBeEdited, value)) {
+			return CompletableFuture.completedFuture(false); // The rank would end up as its own parent
 		}
 
 		String valueName;
@@ -253,11 +312,11 @@ public class RankDatabaseHandler {
 		switch (valueToEdit) {
 			case PARENT:
 				valueName = "parent_rank";
-				cacheUpdate = toBeEdited::setParentRank;
+				cacheUpdate = parentRankId -> module.setParentRank(toBeEdited, parentRankId);
 				break;
 			case WEIGHT:
 				valueName = "weight";
-				cacheUpdate = toBeEdited::setWeight;
+				cacheUpdate = weight -> module.setWeight(toBeEdited, weight);
 				break;
 			default:
 				throw new IllegalStateException(
@@ -297,7 +356,7 @@ public class RankDatabaseHandler {
 			throw new IllegalStateException("Attempted to handle a malfunctioning RankModule");
 		} else if (toBeEdited == null) {
 			return CompletableFuture.completedFuture(false); // Likely user error
-		} else if (toBeEdited.isDefault() == isDefault) {
+		} else if (module.getCurrent(toBeEdited).isDefault() == isDefault) {
 			return CompletableFuture.completedFuture(true); // Already completed
 		}
 
@@ -308,7 +367,7 @@ public class RankDatabaseHandler {
 				statement.setBoolean(1, isDefault);
 				statement.setInt(2, toBeEdited.getId());
 				statement.executeUpdate();
-				toBeEdited.setDefault(isDefault);
+				module.setDefault(toBeEdited, isDefault);
 				return true;
 			} catch (SQLException e) {
 				e.printStackTrace();
@@ -364,11 +423,7 @@ public class RankDatabaseHandler {
 				statement.setString(1, newPrefix);
 				statement.setInt(2, toBeEdited.getId());
 				statement.executeUpdate();
-				if (isLongPrefix) {
-					toBeEdited.setLongPrefix(newPrefix);
-				} else {
-					toBeEdited.setShortPrefix(newPrefix);
-				}
+				module.setPrefix(toBeEdited, newPrefix, isLongPrefix);
 				return true;
 			} catch (SQLException e) {
 				e.printStackTrace();
@@ -377,6 +432,298 @@ public class RankDatabaseHandler {
 		}, executorService);
 	}
 
+	/**
+	 * Replaces the permissions of many ranks at once, such as when migrating from another permissions plugin. The
+	 * provided nodes are compared against the loaded permissions of each rank, so only the nodes which have been added,
+	 * changed or left out are written to the database, in batches of {@link #IMPORT_BATCH_SIZE} per transaction. Once
+	 * written, the changes are applied to the cache in one step and published to all other servers as a single
+	 * {@link PermissionMessage}.
+	 * <p>
+	 * If a batch fails after others have been committed, the database only holds part of the import so every server is
+	 * asked to reload the module to stay consistent with it.
+	 * <p>
+	 * Nodes may only apply everywhere or in one of {@link RankModule#getLocalContexts()}, as the nodes of any other
+	 * context aren't known to this server, and nodes in other contexts are left alone.
+	 *
+	 * @param permissions the complete set of nodes each rank should own, ranks not in the map are left alone
+	 * @return whether the import was successful
+	 */
+	public CompletableFuture<Boolean> importPermissions(Map<Rank, ? extends Collection<PermissionNode>> permissions) {
+		if (!module.wasLoadedSuccessfully()) {
+			throw new IllegalStateException("Attempted to handle a malfunctioning RankModule");
+		} else if (permissions.containsKey(null)) {
+			return CompletableFuture.completedFuture(false); // Likely user error
+		}
+
+		for (Collection<PermissionNode> nodes : permissions.values()) {
+			for (PermissionNode node : nodes) {
+				if (!RankModule.isLocalContext(node.getContext())) {
+					System.out.println("Cannot import permissions for context " + node.getContext()
+							+ " as it isn't a context of this server");
+					return CompletableFuture.completedFuture(false);
+				}
+			}
+		}
+
+		return CompletableFuture.supplyAsync(() -> {
+			PermissionChangeSet changes = new PermissionChangeSet();
+			Map<Integer, Rank> existingByRank = new HashMap<>();
+			for (Map.Entry<Rank, ? extends Collection<PermissionNode>> entry : permissions.entrySet()) {
+				Rank rank = module.getCurrent(entry.getKey());
+				String rankNode = "ranks." + rank.getRankName(); // Added by the loader rather than stored
+				existingByRank.put(rank.getId(), rank);
+
+				Map<String, Map<String, PermissionNode>> desiredByContext = new HashMap<>(); // Null is everywhere
+				desiredByContext.put(null, new HashMap<>());
+				for (String context : rank.getContextPermissions().keySet()) {
+					desiredByContext.put(context, new HashMap<>());
+				}
+				for (PermissionNode node : entry.getValue()) {
+					String permission = node.getPermission().toLowerCase(); // For safety to prevent logic error
+					String context = RankModule.normalizeContext(node.getContext());
+					desiredByContext.computeIfAbsent(context, key -> new HashMap<>()).put(permission,
+							new PermissionNode(permission, node.isAllowed(), node.isForced(), context));
+				}
+
+				for (Map.Entry<String, Map<String, PermissionNode>> contextEntry : desiredByContext.entrySet()) {
+					Map<String, PermissionNode> existing = rank.getPermissions(contextEntry.getKey());
+					Map<String, PermissionNode> desired = contextEntry.getValue();
+					for (PermissionNode node : desired.values()) {
+						PermissionNode current = existing.get(node.getPermission());
+						if (current == null || current.isAllowed() != node.isAllowed() || current.isForced() != node.isForced()) {
+							changes.set(rank.getId(), node);
+						}
+					}
+
+					for (String permission : existing.keySet()) {
+						if (!desired.containsKey(permission) && !permission.equals(rankNode)) {
+							changes.remove(rank.getId(), permission, contextEntry.getKey());
+						}
+					}
+				}
+			}
+
+			if (changes.isEmpty()) {
+				return true; // Everything is already as it should be
+			}
+
+			boolean hasCommitted = false;
+			try (Connection connection = FurDB.getConnection();
+					PreparedStatement insertStatement = connection.prepareStatement("INSERT INTO "
+							+ RankModule.PERMISSIONS_TABLE.getTableName()
+							+ " (rank_id,permission,allowed,forced,context) VALUES (?,?,?,?,?)");
+					PreparedStatement updateStatement = connection.prepareStatement("UPDATE "
+							+ RankModule.PERMISSIONS_TABLE.getTableName()
+							+ " SET allowed=?, forced=? WHERE rank_id=? AND permission=? AND context<=>?");
+					PreparedStatement deleteStatement = connection.prepareStatement("DELETE FROM "
+							+ RankModule.PERMISSIONS_TABLE.getTableName()
+							+ " WHERE rank_id=? AND permission=? AND context<=>?")) {
+				connection.setAutoCommit(false);
+				try {
+					int batched = 0;
+					for (int rankId : changes.getRankIds()) {
+						Rank existing = existingByRank.get(rankId);
+						for (PermissionNode node : changes.getSetNodes(rankId)) {
+							if (existing.getPermissions(node.getContext()).containsKey(node.getPermission())) {
+								updateStatement.setBoolean(1, node.isAllowed());
+								updateStatement.setBoolean(2, node.isForced());
+								updateStatement.setInt(3, rankId);
+								updateStatement.setString(4, node.getPermission());
+								updateStatement.setString(5, node.getContext());
+								updateStatement.addBatch();
+							} else {
+								insertStatement.setInt(1, rankId);
+								insertStatement.setString(2, node.getPermission());
+								insertStatement.setBoolean(3, node.isAllowed());
+								insertStatement.setBoolean(4, node.isForced());
+								insertStatement.setString(5, node.getContext());
+								insertStatement.addBatch();
+							}
+
+							if (++batched % IMPORT_BATCH_SIZE == 0) {
+								executeBatches(connection, insertStatement, updateStatement, deleteStatement);
+								hasCommitted = true;
+							}
+						}
+
+						for (String context : changes.getRemovedContexts(rankId)) {
+							for (String permission : changes.getRemovedPermissions(rankId, context)) {
+								deleteStatement.setInt(1, rankId);
+								deleteStatement.setString(2, permission);
+								deleteStatement.setString(3, context);
+								deleteStatement.addBatch();
+								if (++batched % IMPORT_BATCH_SIZE == 0) {
+									executeBatches(connection, insertStatement, updateStatement, deleteStatement);
+									hasCommitted = true;
+								}
+							}
+						}
+					}
+
+					touchRanks(connection, changes.getRankIds());
+					executeBatches(connection, insertStatement, updateStatement, deleteStatement);
+				} catch (SQLException e) {
+					connection.rollback();
+					throw e;
+				}
+			} catch (SQLException e) {
+				e.printStackTrace();
+				if (hasCommitted) {
+					System.out.println("Permission import failed part way through, requesting a reload of the imported ranks");
+					module.reloadRanks(changes.getRankIds());
+					ReloadRankModuleMessage.forRanks(changes.getRankIds()).publish();
+				}
+				return false;
+			}
+
+			module.applyChanges(changes);
+			new PermissionMessage(changes).publish();
+			return true;
+		}, executorService);
+	}
+
+	/**
+	 * Imports permissions in the same format as {@link #exportPermissions(Writer)}, where each rank is found by its id
+	 * or by its name if no rank has that id. See {@link #importPermissions(Map)} for how the import is applied.
+	 *
+	 * @param reader to read the permissions from, which is not closed
+	 * @return whether the import was successful, which is false if the format is invalid or a rank does not exist
+	 */
+	public CompletableFuture<Boolean> importPermissions(Reader reader) {
+		Map<Rank, Collection<PermissionNode>> permissions = new HashMap<>();
+		try {
+			JsonReader jsonReader = new JsonReader(reader);
+			JsonParser parser = new JsonParser();
+			jsonReader.beginArray();
+			while (jsonReader.hasNext()) { // One rank at a time so the whole document is never held as JSON
+				JsonObject rankJson = parser.parse(jsonReader).getAsJsonObject();
+				Rank rank = module.getRank(rankJson.get(PermissionChangeSet.RANK_ID_KEY).getAsInt());
+				if (rank == null && rankJson.has(PermissionChangeSet.RANK_NAME_KEY)) {
+					rank = module.getRank(rankJson.get(PermissionChangeSet.RANK_NAME_KEY).getAsString());
+				}
+				if (rank == null) {
+					System.out.println("Cannot import permissions for unrecognised rank: " + rankJson
+							.get(PermissionChangeSet.RANK_ID_KEY));
+					return CompletableFuture.completedFuture(false);
+				}
+
+				PermissionChangeSet rankChanges = new PermissionChangeSet();
+				rankChanges.add(rank.getId(), rankJson);
+				permissions.computeIfAbsent(rank, key -> new ArrayList<>()).addAll(rankChanges.getSetNodes(rank.getId()));
+			}
+			jsonReader.endArray();
+		} catch (IOException | RuntimeException e) { // Gson reports malformed JSON with unchecked exceptions
+			e.printStackTrace();
+			return CompletableFuture.completedFuture(false);
+		}
+
+		return importPermissions(permissions);
+	}
+
+	/**
+	 * Writes the stored permissions of every rank in the format described in {@link PermissionChangeSet}, reading them
+	 * from the database a row at a time so that no more than one rank's permissions are held at once. Only nodes which
+	 * apply everywhere or in one of {@link RankModule#getLocalContexts()} are written, so that the export can always
+	 * be imported again by this server.
+	 *
+	 * @param writer to write the permissions to, which is flushed but not closed
+	 * @return whether the export was successful
+	 */
+	public CompletableFuture<Boolean> exportPermissions(Writer writer) {
+		Set<String> contexts = RankModule.getLocalContexts();
+		return CompletableFuture.supplyAsync(() -> {
+			try (Connection connection = FurDB.getConnection();
+					PreparedStatement statement = connection.prepareStatement(
+							"SELECT rank_id,permission,allowed,forced,context FROM "
+									+ RankModule.PERMISSIONS_TABLE.getTableName() + " WHERE "
+									+ RankModule.getContextCondition(contexts) + " ORDER BY rank_id",
+							ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+				RankModule.setContextParameters(statement, 1, contexts);
+				statement.setFetchSize(Integer.MIN_VALUE); // Tells MySQL to stream rows rather than fetch them all
+				ResultSet result = statement.executeQuery();
+
+				JsonWriter jsonWriter = new JsonWriter(writer);
+				Gson gson = new Gson();
+				jsonWriter.beginArray();
+
+				int rankId = -1;
+				List<PermissionNode> nodes = new ArrayList<>();
+				while (result.next()) {
+					if (result.getInt(1) != rankId) {
+						writeExportedRank(gson, jsonWriter, rankId, nodes);
+						rankId = result.getInt(1);
+						nodes.clear();
+					}
+					nodes.add(new PermissionNode(result.getString(2), result.getBoolean(3), result.getBoolean(4),
+							result.getString(5)));
+				}
+				writeExportedRank(gson, jsonWriter, rankId, nodes);
+
+				jsonWriter.endArray();
+				jsonWriter.flush();
+				return true;
+			} catch (SQLException | IOException e) {
+				e.printStackTrace();
+				return false;
+			}
+		}, executorService);
+	}
+
+	/**
+	 * Writes the exported permissions of a single rank, if there are any
+	 *
+	 * @param gson to write the JSON with
+	 * @param writer to write to
+	 * @param rankId of the rank
+	 * @param nodes which the rank owns
+	 */
+	private void writeExportedRank(Gson gson, JsonWriter writer, int rankId, List<PermissionNode> nodes) {
+		if (!nodes.isEmpty()) {
+			JsonObject rankJson = PermissionChangeSet.toJson(rankId, nodes, Collections.emptyList());
+			Rank rank = module.getRank(rankId);
+			if (rank == null) {
+				rank = module.getExcludedRank(rankId);
+			}
+			if (rank != null) {
+				rankJson.addProperty(PermissionChangeSet.RANK_NAME_KEY, rank.getRankName());
+			}
+			gson.toJson(rankJson, writer);
+		}
+	}
+
+	/**
+	 * Executes every pending batch of an import and commits them as one transaction
+	 *
+	 * @param connection which the statements belong to
+	 * @param statements which may have batches pending
+	 * @throws SQLException if an error occurs in the update
+	 */
+	private void executeBatches(Connection connection, PreparedStatement... statements) throws SQLException {
+		for (PreparedStatement statement : statements) {
+			statement.executeBatch();
+		}
+		connection.commit();
+	}
+
+	/**
+	 * Marks ranks as changed so that {@link RankModule#reloadChangedSince(long)} picks them up, as a change to the
+	 * permissions of a rank doesn't update its row by itself
+	 *
+	 * @param connection to update the ranks with
+	 * @param rankIds of the ranks which have changed
+	 * @throws SQLException if an error occurs in the update
+	 */
+	private void touchRanks(Connection connection, Collection<Integer> rankIds) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement("UPDATE " + RankModule.RANKS_TABLE.getTableName()
+				+ " SET updated_at=CURRENT_TIMESTAMP(3) WHERE id=?")) {
+			for (int rankId : rankIds) {
+				statement.setInt(1, rankId);
+				statement.addBatch();
+			}
+			statement.executeBatch();
+		}
+	}
+
 	/**
 	 * Used with {@link #setIntegerValue(Rank, GenericIntegerValue, int)} to identify which value is actually being
 	 * edited in the database.
@@ -1,16 +1,26 @@
 package uk.co.harieo.FurBridge.ranks.modules;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 import uk.co.harieo.FurBridge.ranks.Rank;
+import uk.co.harieo.FurBridge.redis.messages.ReloadRankModuleMessage;
 import uk.co.harieo.FurBridge.sql.FurDB;
 import uk.co.harieo.FurBridge.sql.InfoTable;
 
@@ -21,15 +31,30 @@ import uk.co.harieo.FurBridge.sql.InfoTable;
  */
 public class RankModule {
 
+	// Set by the database whenever a rank changes and by RankDatabaseHandler whenever one of its permissions changes
+	public static final String UPDATED_AT_DEFINITION =
+			"timestamp(3) not null DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3)";
 	public static final InfoTable RANKS_TABLE = InfoTable.get("ranks", "id int primary key auto_increment, "
 			+ "rank_name varchar(64) unique key, long_prefix varchar(32) not null, short_prefix varchar(32), weight int not null, "
-			+ "parent_rank int, is_default tinyint(1) not null DEFAULT 0");
+			+ "parent_rank int, is_default tinyint(1) not null DEFAULT 0, updated_at " + RankModule.UPDATED_AT_DEFINITION);
+	// Null if the node applies everywhere, indexed with the rank so that only the local contexts of a rank are read
+	public static final String CONTEXT_DEFINITION = "varchar(64) NULL DEFAULT NULL";
 	public static final InfoTable PERMISSIONS_TABLE = InfoTable
 			.get("permission_nodes",
-					"rank_id int, permission varchar(128), allowed tinyint(1), forced tinyint(1), FOREIGN KEY (rank_id) REFERENCES ranks(id)");
-
-	private final Map<String, Rank> loadedRanks = new HashMap<>();
-	private final List<Rank> excludedRanks = new ArrayList<>();
+					"rank_id int, permission varchar(128), allowed tinyint(1), forced tinyint(1), context "
+							+ CONTEXT_DEFINITION + ", INDEX permission_nodes_context (rank_id, context), "
+							+ "FOREIGN KEY (rank_id) REFERENCES ranks(id)");
+
+	// Contexts such as the server group and worlds of this server, nodes in any other context are never loaded
+	private static volatile Set<String> localContexts = Collections.emptySet();
+	// Whether the tables have been verified since starting, so that partial reloads don't verify them every time
+	private static volatile boolean areTablesVerified = false;
+
+	private final PermissionDictionary permissionDictionary = new PermissionDictionary();
+	// Every rank and everything compiled from them, replaced as a whole on each change so reads never need a lock
+	private volatile RankModuleState state = RankModuleState
+			.create(permissionDictionary, Collections.emptyList(), Collections.emptyList(), 0, 0, false);
+	private volatile long loadedAt; // Database time of the last full load, anything changed since has a later updated_at
 	private boolean wasLoadedSuccessfully = true;
 	private final RankDatabaseHandler databaseHandler;
 
@@ -43,8 +68,13 @@ public class RankModule {
 	 * @param rankName of the rank
 	 * @param rank to be added
 	 */
-	void addRank(String rankName, Rank rank) {
-		loadedRanks.putIfAbsent(rankName, rank);
+	synchronized void addRank(String rankName, Rank rank) {
+		RankModuleState current = state;
+		if (current.getRank(rankName) == null) {
+			List<Rank> loadedRanks = new ArrayList<>(current.getLoadedRanks().values());
+			loadedRanks.add(new Rank(rank, rank.getPermissions()));
+			state = current.next(loadedRanks, current.getExcludedRanks(), Collections.singleton(rank.getId()), true);
+		}
 	}
 
 	/**
@@ -52,18 +82,286 @@ public class RankModule {
 	 *
 	 * @param rankId of the rank to be deleted
 	 */
-	void deleteRank(int rankId) {
-		String key = null;
-		for (Rank rank : loadedRanks.values()) {
-			if (rank.getId() == rankId) {
-				key = rank.getRankName();
-				break; // Cannot be a duplicate key, no point continuing
+	synchronized void deleteRank(int rankId) {
+		RankModuleState current = state;
+		Rank rank = current.getRank(rankId);
+		if (rank != null) {
+			List<Rank> loadedRanks = new ArrayList<>(current.getLoadedRanks().values());
+			loadedRanks.remove(rank);
+			// Any children of this rank have lost it as a parent, along with its permissions
+			state = current.next(loadedRanks, current.getExcludedRanks(), Collections.singleton(rankId), true);
+		}
+	}
+
+	/**
+	 * Sets a permission node on a rank in the cache but not in the database, recalculating the permissions of any rank
+	 * which inherits it
+	 *
+	 * @param rank which owns the permission
+	 * @param node to be set
+	 */
+	public synchronized void setPermission(Rank rank, PermissionNode node) {
+		if (!isLocalContext(node.getContext())) {
+			return; // Not loaded on this server
+		}
+
+		node = permissionDictionary.getNode(node.getPermission(), node.isAllowed(), node.isForced(), node.getContext());
+		Rank current = getCurrent(rank);
+		Map<String, Map<String, PermissionNode>> contextPermissions = new HashMap<>(current.getContextPermissions());
+		Map<String, PermissionNode> permissions = new HashMap<>(current.getPermissions(node.getContext()));
+		permissions.put(node.getPermission(), node); // Shared string from the dictionary
+		replace(withPermissions(current, node.getContext(), permissions, contextPermissions), true, false);
+	}
+
+	/**
+	 * Removes a permission node from a rank in the cache but not in the database, recalculating the permissions of any
+	 * rank which inherits it
+	 *
+	 * @param rank which owns the permission
+	 * @param permission to be removed
+	 */
+	public void removePermission(Rank rank, String permission) {
+		removePermission(rank, permission, null);
+	}
+
+	/**
+	 * Removes a permission node which only applies in a context from a rank in the same way as
+	 * {@link #removePermission(Rank, String)}
+	 *
+	 * @param rank which owns the permission
+	 * @param permission to be removed
+	 * @param context which the permission applies in or null if it applies everywhere
+	 */
+	public synchronized void removePermission(Rank rank, String permission, String context) {
+		context = normalizeContext(context);
+		Rank current = getCurrent(rank);
+		if (current.getPermissions(context).containsKey(permission)) {
+			Map<String, Map<String, PermissionNode>> contextPermissions = new HashMap<>(current.getContextPermissions());
+			Map<String, PermissionNode> permissions = new HashMap<>(current.getPermissions(context));
+			permissions.remove(permission);
+			replace(withPermissions(current, context, permissions, contextPermissions), true, false);
+		}
+	}
+
+	/**
+	 * @param rank to be copied
+	 * @param context of the changed permissions or null if they apply everywhere
+	 * @param permissions which the copy owns in the context
+	 * @param contextPermissions a modifiable copy of the permissions the rank owns in each context
+	 * @return a copy of the rank with the changed permissions
+	 */
+	private static Rank withPermissions(Rank rank, String context, Map<String, PermissionNode> permissions,
+			Map<String, Map<String, PermissionNode>> contextPermissions) {
+		if (context == null) {
+			return new Rank(rank, permissions, contextPermissions);
+		}
+
+		contextPermissions.put(context, permissions);
+		return new Rank(rank, rank.getPermissions(), contextPermissions);
+	}
+
+	/**
+	 * Applies a set of permission changes to any number of ranks in the cache but not in the database, as a single
+	 * change which is seen all at once. Changes to ranks which are neither loaded nor excluded are ignored.
+	 *
+	 * @param changes to be applied
+	 */
+	public synchronized void applyChanges(PermissionChangeSet changes) {
+		RankModuleState current = state;
+		List<Rank> updated = new ArrayList<>();
+		for (int rankId : changes.getRankIds()) {
+			Rank rank = current.getRank(rankId);
+			if (rank == null) {
+				rank = current.getExcludedRank(rankId);
+				if (rank == null) {
+					continue; // Not a rank which this module knows of
+				}
+			}
+
+			Map<String, PermissionNode> permissions = new HashMap<>(rank.getPermissions());
+			Map<String, Map<String, PermissionNode>> contextPermissions = new HashMap<>();
+			for (Map.Entry<String, Map<String, PermissionNode>> entry : rank.getContextPermissions().entrySet()) {
+				contextPermissions.put(entry.getKey(), new HashMap<>(entry.getValue()));
+			}
+
+			for (String context : changes.getRemovedContexts(rankId)) {
+				Map<String, PermissionNode> removedFrom = context == null ? permissions : contextPermissions.get(context);
+				if (removedFrom != null) {
+					removedFrom.keySet().removeAll(changes.getRemovedPermissions(rankId, context));
+				}
 			}
+			for (PermissionNode node : changes.getSetNodes(rankId)) {
+				if (!isLocalContext(node.getContext())) {
+					continue; // Not loaded on this server
+				}
+
+				node = permissionDictionary
+						.getNode(node.getPermission(), node.isAllowed(), node.isForced(), node.getContext());
+				Map<String, PermissionNode> setOn = node.getContext() == null ? permissions
+						: contextPermissions.computeIfAbsent(node.getContext(), context -> new HashMap<>());
+				setOn.put(node.getPermission(), node); // Shared string from the dictionary
+			}
+			updated.add(new Rank(rank, permissions, contextPermissions));
+		}
+
+		if (!updated.isEmpty()) {
+			state = current.withRanks(updated, true, false);
 		}
+	}
 
-		if (key != null) {
-			loadedRanks.remove(key);
+	/**
+	 * Sets the parent of a rank in the cache but not in the database, recalculating the permissions of the rank and its
+	 * children
+	 *
+	 * @param rank to set the parent of
+	 * @param parentRankId the id of the new parent
+	 */
+	synchronized void setParentRank(Rank rank, int parentRankId) {
+		Rank updated = copy(rank);
+		updated.setParentRank(parentRankId);
+		replace(updated, true, true);
+	}
+
+	/**
+	 * Sets the weight of a rank in the cache but not in the database
+	 *
+	 * @param rank to set the weight of
+	 * @param weight the new weight
+	 */
+	synchronized void setWeight(Rank rank, int weight) {
+		Rank updated = copy(rank);
+		updated.setWeight(weight);
+		replace(updated, false, false);
+	}
+
+	/**
+	 * Sets either prefix of a rank in the cache but not in the database
+	 *
+	 * @param rank to set the prefix of
+	 * @param prefix the new prefix
+	 * @param isLongPrefix whether this is the long prefix (false means short prefix)
+	 */
+	synchronized void setPrefix(Rank rank, String prefix, boolean isLongPrefix) {
+		Rank updated = copy(rank);
+		if (isLongPrefix) {
+			updated.setLongPrefix(prefix);
+		} else {
+			updated.setShortPrefix(prefix);
+		}
+		replace(updated, false, false);
+	}
+
+	/**
+	 * Checks whether giving a rank a new parent would make the rank its own parent somewhere in the hierarchy, which
+	 * would make the hierarchy endless
+	 *
+	 * @param rank which would be given the parent
+	 * @param parentRankId of the new parent
+	 * @return whether the new parent would create a cycle
+	 */
+	public boolean createsParentCycle(Rank rank, int parentRankId) {
+		RankModuleState current = state;
+		int rankCount = current.getLoadedRanks().size();
+		Rank parent = current.getRank(parentRankId);
+		int depth = 0;
+		while (parent != null && depth++ <= rankCount) {
+			if (parent.getId() == rank.getId()) {
+				return true;
+			}
+			parent = current.getRank(parent.getParentRankId());
 		}
+
+		return depth > rankCount; // The existing hierarchy above the new parent is already endless
+	}
+
+	/**
+	 * Sets whether a rank is a default rank in the cache but not in the database, recalculating the permissions of all
+	 * ranks as every rank inherits the defaults
+	 *
+	 * @param rank to be edited
+	 * @param isDefault whether the rank is a default rank
+	 */
+	synchronized void setDefault(Rank rank, boolean isDefault) {
+		Rank updated = copy(rank);
+		updated.setDefault(isDefault);
+		replace(updated, true, false);
+	}
+
+	/**
+	 * Publishes a new state in which a rank is replaced by a changed copy of it
+	 *
+	 * @param updated copy of the rank
+	 * @param affectsPermissions whether the change affects the permissions of the rank
+	 * @param hierarchyChanged whether the rank's parent has changed
+	 */
+	private void replace(Rank updated, boolean affectsPermissions, boolean hierarchyChanged) {
+		state = state.withRanks(Collections.singleton(updated), affectsPermissions, hierarchyChanged);
+	}
+
+	/**
+	 * @param rank to be copied
+	 * @return a copy of the current version of the rank which can be changed before it is published
+	 */
+	private Rank copy(Rank rank) {
+		Rank current = getCurrent(rank);
+		return new Rank(current, current.getPermissions());
+	}
+
+	/**
+	 * Ranks are replaced rather than changed, so a rank which was retrieved from this module before a change will not
+	 * reflect that change. This finds the version of a rank which is currently in use.
+	 *
+	 * @param rank to find the current version of
+	 * @return the current loaded or excluded rank with the same id, or the provided rank if it isn't in this module
+	 */
+	public Rank getCurrent(Rank rank) {
+		RankModuleState current = state;
+		Rank found = current.getRank(rank.getId());
+		if (found == null) {
+			found = current.getExcludedRank(rank.getId());
+		}
+		return found != null ? found : rank;
+	}
+
+	/**
+	 * Sets the contexts of this server, such as its server group and worlds, which must be done before any module is
+	 * loaded. Only permission nodes which apply everywhere or in one of these contexts are loaded, so a server never
+	 * holds the permissions of any other server.
+	 *
+	 * @param contexts of this server
+	 */
+	public static void setLocalContexts(Collection<String> contexts) {
+		Set<String> lowerCaseContexts = new HashSet<>();
+		for (String context : contexts) {
+			lowerCaseContexts.add(normalizeContext(context));
+		}
+		localContexts = Collections.unmodifiableSet(lowerCaseContexts);
+	}
+
+	/**
+	 * @return the contexts of this server
+	 */
+	public static Set<String> getLocalContexts() {
+		return localContexts;
+	}
+
+	/**
+	 * @param context to check or null for everywhere
+	 * @return whether nodes in the context are loaded on this server
+	 */
+	public static boolean isLocalContext(String context) {
+		return context == null || localContexts.contains(normalizeContext(context));
+	}
+
+	/**
+	 * Contexts are matched without regard to case, as the database matches them, so every context is held in lower
+	 * case and any context is converted before it is looked up
+	 *
+	 * @param context which may be null
+	 * @return the context in lower case or null if it was null
+	 */
+	public static String normalizeContext(String context) {
+		return context == null ? null : context.toLowerCase(Locale.ROOT); // The same string if already lower case
 	}
 
 	/**
@@ -73,6 +371,16 @@ public class RankModule {
 		return databaseHandler;
 	}
 
+	/**
+	 * Gets the current state of this module, which will never change. Anything which reads several values from this
+	 * module should read them from a single state so that they are consistent with each other.
+	 *
+	 * @return the current state
+	 */
+	public RankModuleState getState() {
+		return state;
+	}
+
 	/**
 	 * Gets a rank by its numerical id
 	 *
@@ -80,13 +388,7 @@ public class RankModule {
 	 * @return the rank or null of none are found
 	 */
 	public Rank getRank(int rankId) {
-		for (Rank rank : loadedRanks.values()) {
-			if (rank.getId() == rankId) {
-				return rank;
-			}
-		}
-
-		return null;
+		return state.getRank(rankId);
 	}
 
 	/**
@@ -96,14 +398,14 @@ public class RankModule {
 	 * @return the rank or null of none are found
 	 */
 	public Rank getRank(String rankName) {
-		return loadedRanks.get(rankName);
+		return state.getRank(rankName);
 	}
 
 	/**
-	 * @return all ranks which this module has retrieved
+	 * @return an immutable map of all ranks which this module has retrieved
 	 */
 	public Map<String, Rank> getLoadedRanks() {
-		return loadedRanks;
+		return state.getLoadedRanks();
 	}
 
 	/**
@@ -114,35 +416,98 @@ public class RankModule {
 	}
 
 	/**
-	 * Returns all permission this rank owns, including those of its parents
+	 * @return whether this module was read from the local snapshot rather than the database
+	 */
+	public boolean isFromSnapshot() {
+		return state.isFromSnapshot();
+	}
+
+	/**
+	 * @return a hash of all the ranks and permissions in this module, which changes whenever the module's content does
+	 */
+	public long getContentVersion() {
+		return state.getContentVersion();
+	}
+
+	/**
+	 * Returns all permission this rank owns, including those of its parents. For loaded ranks this is calculated when
+	 * the rank or one of its parents changes, so this is only a lookup.
 	 *
 	 * @param rank to retrieve permissions for
-	 * @return a list of all applicable permissions
+	 * @return an immutable map of all applicable permissions
 	 */
 	public Map<String, PermissionNode> getAllPermissions(Rank rank) {
-		if (rank.getParentRankId() < 0) {
-			return rank.getPermissions();
-		} else {
-			Map<String, PermissionNode> permissions = new HashMap<>(rank.getPermissions()); // Adds the base rank's permissions
-
-			Rank parent = getRank(rank.getParentRankId());
-			while (parent != null && parent.getId() >= 0) { // While the next parent exists
-				Map<String, PermissionNode> parentPermissions = parent.getPermissions();
-				for (String permission : parentPermissions.keySet()) {
-					permissions.putIfAbsent(permission,
-							parentPermissions.get(permission)); // Add permission from current parent to list
-				}
-				parent = getRank(parent.getParentRankId()); // Move to the next rank
-			}
+		return getPermissionSet(rank).asMap();
+	}
 
-			for (Rank loadedRank : getLoadedRanks().values()) { // Adds default rank permissions
-				if (loadedRank.isDefault()) {
-					permissions.putAll(loadedRank.getPermissions());
-				}
-			}
+	/**
+	 * Returns all permissions this rank owns, including those of its parents, as a compact {@link PermissionSet} of
+	 * ids from this module's {@link PermissionDictionary}
+	 *
+	 * @param rank to retrieve permissions for
+	 * @return the set of all applicable permissions
+	 */
+	public PermissionSet getPermissionSet(Rank rank) {
+		return state.getPermissionSet(rank);
+	}
 
-			return permissions;
-		}
+	/**
+	 * @return the dictionary of permission ids shared by every rank in this module
+	 */
+	public PermissionDictionary getPermissionDictionary() {
+		return permissionDictionary;
+	}
+
+	/**
+	 * @return a number which changes each time the permissions of any rank in this module change, so that anything
+	 * compiled from those permissions knows when to compile them again
+	 */
+	public long getPermissionsVersion() {
+		return state.getVersion();
+	}
+
+	/**
+	 * Gets the effective permissions of a rank as {@link PermissionBits}, which can be merged with those of other ranks
+	 * to form a player's permissions
+	 *
+	 * @param rank to get the permissions of
+	 * @return the permissions as bitsets
+	 */
+	public PermissionBits getPermissionBits(Rank rank) {
+		return state.getPermissionBits(rank);
+	}
+
+	/**
+	 * Gets the effective permissions of a rank compiled into a {@link PermissionTrie}, which can resolve wildcard
+	 * permissions
+	 *
+	 * @param rank to get the trie for
+	 * @return the compiled trie
+	 */
+	public PermissionTrie getPermissionTrie(Rank rank) {
+		return state.getPermissionTrie(rank);
+	}
+
+	/**
+	 * Finds the node which decides whether a rank has a permission, including wildcard nodes such as
+	 * {@code essentials.*}
+	 *
+	 * @param rank to check the permission for
+	 * @param permission to be resolved
+	 * @return the deciding node or null if the permission isn't set for this rank
+	 */
+	public PermissionNode resolvePermission(Rank rank, String permission) {
+		return getPermissionTrie(rank).resolve(permission);
+	}
+
+	/**
+	 * Gets the closure of a rank's position in the hierarchy, which includes the rank and all of its parents
+	 *
+	 * @param rank to get the closure of
+	 * @return the closure or null if the rank isn't loaded
+	 */
+	public RankAncestry getRankAncestry(Rank rank) {
+		return state.getRankAncestry(rank);
 	}
 
 	/**
@@ -150,20 +515,227 @@ public class RankModule {
 	 *
 	 * @param rank to be excluded
 	 */
-	public void exclude(Rank rank) {
+	public synchronized void exclude(Rank rank) {
 		if (wasLoadedSuccessfully()) {
-			loadedRanks.remove(rank.getRankName());
-			excludedRanks.add(rank);
+			RankModuleState current = state;
+			if (current.getExcludedRank(rank.getId()) == null) {
+				Rank excluded = getCurrent(rank);
+				List<Rank> loadedRanks = new ArrayList<>(current.getLoadedRanks().values());
+				loadedRanks.removeIf(loadedRank -> loadedRank.getId() == rank.getId());
+				List<Rank> excludedRanks = new ArrayList<>(current.getExcludedRanks());
+				excludedRanks.add(excluded);
+				state = current.next(loadedRanks, excludedRanks, Collections.singleton(rank.getId()), true);
+			}
 		} else {
 			throw new IllegalStateException("Cannot exclude until module is loaded");
 		}
 	}
 
 	/**
-	 * @return a list of all ranks which have been excluded
+	 * Gets an excluded rank by its numerical id
+	 *
+	 * @param rankId of the excluded rank to find
+	 * @return the rank or null if no excluded rank has this id
+	 */
+	public Rank getExcludedRank(int rankId) {
+		return state.getExcludedRank(rankId);
+	}
+
+	/**
+	 * @return an immutable list of all ranks which have been excluded
 	 */
 	public List<Rank> getExcludedRanks() {
-		return excludedRanks;
+		return state.getExcludedRanks();
+	}
+
+	/**
+	 * Loads every rank from the database again and swaps them into this module in one step, so that anything holding
+	 * this module sees either all of the old ranks or all of the new ones. Ranks which have been excluded stay excluded.
+	 *
+	 * @return whether the reload was successful, in which case the module is no longer from the snapshot
+	 */
+	public CompletableFuture<Boolean> reload() {
+		if (!wasLoadedSuccessfully()) {
+			throw new IllegalStateException("Attempted to handle a malfunctioning RankModule");
+		}
+
+		return CompletableFuture.supplyAsync(() -> {
+			LoadedRanks loaded = loadRanks(permissionDictionary, null);
+			if (loaded == null) {
+				return false;
+			}
+
+			publishLoaded(loaded, writeSnapshot(loaded.ranks), false);
+			return true;
+		});
+	}
+
+	/**
+	 * Loads only the specified ranks from the database again and patches them into this module in one step, so that
+	 * only the changed ranks and those which inherit from them are recalculated. A rank which no longer exists in the
+	 * database is removed and a rank which isn't yet in this module is added.
+	 *
+	 * @param rankIds of the ranks which have changed
+	 * @return whether the reload was successful
+	 */
+	public CompletableFuture<Boolean> reloadRanks(Collection<Integer> rankIds) {
+		if (!wasLoadedSuccessfully()) {
+			throw new IllegalStateException("Attempted to handle a malfunctioning RankModule");
+		}
+
+		Set<Integer> requestedIds = new HashSet<>(rankIds);
+		return CompletableFuture.supplyAsync(() -> {
+			LoadedRanks loaded = loadRanks(permissionDictionary, requestedIds);
+			if (loaded == null) {
+				return false;
+			}
+
+			patchLoaded(loaded.ranks, requestedIds);
+			return true;
+		});
+	}
+
+	/**
+	 * Reloads every rank which has changed in the database since the given time, as well as removing any rank which
+	 * has been deleted, in the same way as {@link #reloadRanks(Collection)}
+	 *
+	 * @param since database time in milliseconds, such as {@link #getLoadedAt()} of the module which made the changes
+	 * @return whether the reload was successful
+	 */
+	public CompletableFuture<Boolean> reloadChangedSince(long since) {
+		if (!wasLoadedSuccessfully()) {
+			throw new IllegalStateException("Attempted to handle a malfunctioning RankModule");
+		}
+
+		return CompletableFuture.supplyAsync(() -> {
+			Set<Integer> changedIds = new HashSet<>();
+			Set<Integer> existingIds = new HashSet<>();
+			long checkedAt;
+			try (Connection connection = FurDB.getConnection();
+					PreparedStatement statement = connection.prepareStatement(
+							"SELECT id, updated_at>=? FROM " + RANKS_TABLE.getTableName())) {
+				checkedAt = getDatabaseTime(connection);
+				statement.setTimestamp(1, new Timestamp(since));
+				ResultSet result = statement.executeQuery();
+				while (result.next()) {
+					existingIds.add(result.getInt(1));
+					if (result.getBoolean(2)) {
+						changedIds.add(result.getInt(1));
+					}
+				}
+			} catch (SQLException e) {
+				e.printStackTrace();
+				return false;
+			}
+
+			RankModuleState current = state;
+			for (Rank rank : current.getLoadedRanks().values()) {
+				if (!existingIds.contains(rank.getId())) {
+					changedIds.add(rank.getId()); // Deleted
+				}
+			}
+			for (Rank rank : current.getExcludedRanks()) {
+				if (!existingIds.contains(rank.getId())) {
+					changedIds.add(rank.getId());
+				}
+			}
+
+			LoadedRanks loaded = loadRanks(permissionDictionary, changedIds);
+			if (loaded == null) {
+				return false;
+			}
+
+			patchLoaded(loaded.ranks, changedIds);
+			if (since <= loadedAt) { // Nothing since the last full load can have been missed
+				loadedAt = Math.max(loadedAt, checkedAt);
+			}
+			return true;
+		});
+	}
+
+	/**
+	 * Patches freshly loaded ranks into the next state of this module, keeping any existing exclusions
+	 *
+	 * @param ranks which have been loaded
+	 * @param requestedIds of every rank which was requested, where those which weren't loaded have been deleted
+	 */
+	private synchronized void patchLoaded(List<Rank> ranks, Set<Integer> requestedIds) {
+		if (requestedIds.isEmpty()) {
+			return;
+		}
+
+		Map<Integer, Rank> freshRanks = new LinkedHashMap<>();
+		for (Rank rank : ranks) {
+			freshRanks.put(rank.getId(), new Rank(rank, rank.getPermissions()));
+		}
+
+		RankModuleState current = state;
+		List<Rank> loadedRanks = new ArrayList<>();
+		for (Rank rank : current.getLoadedRanks().values()) {
+			if (!requestedIds.contains(rank.getId())) {
+				loadedRanks.add(rank);
+			} else if (freshRanks.containsKey(rank.getId())) {
+				loadedRanks.add(freshRanks.remove(rank.getId()));
+			} // Otherwise it has been deleted
+		}
+
+		List<Rank> excludedRanks = new ArrayList<>();
+		for (Rank rank : current.getExcludedRanks()) {
+			if (!requestedIds.contains(rank.getId())) {
+				excludedRanks.add(rank);
+			} else if (freshRanks.containsKey(rank.getId())) {
+				excludedRanks.add(freshRanks.remove(rank.getId())); // Stays excluded
+			}
+		}
+
+		loadedRanks.addAll(freshRanks.values()); // Ranks which are new to this module
+		List<Rank> allRanks = new ArrayList<>(loadedRanks); // The snapshot holds every rank, as a full load does
+		allRanks.addAll(excludedRanks);
+		state = current.next(loadedRanks, excludedRanks, requestedIds, true, writeSnapshot(allRanks));
+	}
+
+	/**
+	 * @return the database time in milliseconds at which this module was last fully loaded, which can be passed to
+	 * {@link #reloadChangedSince(long)} or sent in a {@link ReloadRankModuleMessage} after making changes
+	 */
+	public long getLoadedAt() {
+		return loadedAt;
+	}
+
+	/**
+	 * Publishes a fully loaded set of ranks as the next state of this module, keeping any existing exclusions
+	 *
+	 * @param loaded ranks which have been loaded from the database
+	 * @param contentVersion of the ranks
+	 * @param isFromSnapshot whether the ranks were read from the local snapshot
+	 */
+	synchronized void publishLoaded(LoadedRanks loaded, long contentVersion, boolean isFromSnapshot) {
+		publishLoaded(loaded.ranks, contentVersion, isFromSnapshot);
+		loadedAt = loaded.loadedAt;
+	}
+
+	/**
+	 * Publishes a fully loaded set of ranks as the next state of this module, keeping any existing exclusions
+	 *
+	 * @param ranks which have been loaded
+	 * @param contentVersion of the ranks
+	 * @param isFromSnapshot whether the ranks were read from the local snapshot
+	 */
+	synchronized void publishLoaded(List<Rank> ranks, long contentVersion, boolean isFromSnapshot) {
+		RankModuleState current = state;
+		List<Rank> loadedRanks = new ArrayList<>();
+		List<Rank> excludedRanks = new ArrayList<>();
+		for (Rank rank : ranks) {
+			Rank copy = new Rank(rank, rank.getPermissions());
+			if (current.getExcludedRank(rank.getId()) != null) {
+				excludedRanks.add(copy);
+			} else {
+				loadedRanks.add(copy);
+			}
+		}
+
+		state = RankModuleState.create(permissionDictionary, loadedRanks, excludedRanks, current.getVersion() + 1,
+				contentVersion, isFromSnapshot);
 	}
 
 	/**
@@ -176,79 +748,260 @@ public class RankModule {
 	}
 
 	/**
-	 * Loads all ranks from the database, including metadata and the permissions they own
+	 * @return an empty module to be filled from a local snapshot by {@link RankModuleSnapshot}
+	 */
+	static RankModule createSnapshotModule() {
+		return new RankModule();
+	}
+
+	/**
+	 * Loads the module from the local snapshot which was written the last time this server loaded the module from the
+	 * database. The snapshot may be out of date, so {@link #loadModule(Consumer)} should be preferred.
+	 *
+	 * @return the module from the snapshot or null if no valid snapshot exists
+	 */
+	public static RankModule loadSnapshot() {
+		return RankModuleSnapshot.read();
+	}
+
+	/**
+	 * Loads the module from the local snapshot if one exists, so that it can be used immediately, then confirms it
+	 * against the database in the background. If the database has changed since the snapshot was written, the fresh
+	 * ranks are swapped into the returned module and it is passed to the provided consumer. If there is no snapshot,
+	 * this is the same as {@link #loadModule()} and the consumer will not be called.
+	 *
+	 * @param onRefresh to be called with the module once it has been refreshed from the database
+	 * @return the module containing all ranks in existence, as of the last snapshot
+	 */
+	public static CompletableFuture<RankModule> loadModule(Consumer<RankModule> onRefresh) {
+		RankModule snapshot = loadSnapshot();
+		if (snapshot == null) {
+			return loadModule();
+		}
+
+		CompletableFuture.supplyAsync(() -> loadRanks(snapshot.permissionDictionary, null)).whenComplete((loaded, error) -> {
+			if (error != null) {
+				error.printStackTrace();
+			} else if (loaded == null) {
+				System.out.println("Failed to confirm the rank module snapshot, continuing to use the snapshot");
+			} else {
+				long contentVersion = writeSnapshot(loaded.ranks);
+				if (contentVersion != snapshot.getContentVersion()) {
+					snapshot.publishLoaded(loaded, contentVersion, false);
+					onRefresh.accept(snapshot);
+				} else {
+					snapshot.loadedAt = loaded.loadedAt; // The snapshot is confirmed as of this load
+				}
+			}
+		});
+		return CompletableFuture.completedFuture(snapshot);
+	}
+
+	/**
+	 * Loads all ranks from the database, including metadata and the permissions they own. On success, the module is
+	 * also written to the local snapshot for use by {@link #loadModule(Consumer)}.
 	 *
 	 * @return the module containing all ranks in existence
 	 */
 	public static CompletableFuture<RankModule> loadModule() {
 		return CompletableFuture.supplyAsync(() -> {
-			// Make sure both the required tables exist in the context, with blocking to prevent thread issues
-			try {
-				if (!RANKS_TABLE.createTable().get() || !PERMISSIONS_TABLE.createTable().get()) {
-					throw new RuntimeException("Couldn't verify the required tables for the rank module");
-				}
-			} catch (InterruptedException | ExecutionException e) {
-				e.printStackTrace();
+			RankModule module = new RankModule();
+			LoadedRanks loaded = loadRanks(module.permissionDictionary, null);
+			if (loaded == null) {
 				return createErroneousModule();
 			}
 
-			try (Connection connection = FurDB.getConnection();
-					PreparedStatement statement = connection
-							.prepareStatement("SELECT * FROM " + RANKS_TABLE.getTableName())) {
-				ResultSet result = statement.executeQuery();
-				RankModule module = new RankModule();
+			module.publishLoaded(loaded, writeSnapshot(loaded.ranks), false);
+			return module;
+		});
+	}
 
-				while (result.next()) {
-					Rank rank = new Rank(result.getInt(1), result.getString(2));
+	/**
+	 * Writes a set of ranks to the local snapshot
+	 *
+	 * @param ranks to be written
+	 * @return the content version of the ranks
+	 */
+	private static long writeSnapshot(Collection<Rank> ranks) {
+		byte[] snapshotBody = RankModuleSnapshot.encode(ranks);
+		long contentVersion = RankModuleSnapshot.computeVersion(snapshotBody);
+		try {
+			RankModuleSnapshot.write(snapshotBody, contentVersion);
+		} catch (IOException e) {
+			e.printStackTrace(); // Not fatal, the next start will just have to wait for the database
+		}
+		return contentVersion;
+	}
 
-					// Set all rank data
-					rank.setLongPrefix(result.getString(3));
+	/**
+	 * Makes sure both the required tables exist with every column this module reads, blocking to prevent thread issues
+	 *
+	 * @return whether the tables have been verified
+	 */
+	private static boolean verifyTables() {
+		try {
+			if (!RANKS_TABLE.createTable().get() || !PERMISSIONS_TABLE.createTable().get()
+					|| !RANKS_TABLE.addColumnIfAbsent("updated_at", UPDATED_AT_DEFINITION).get()
+					// Tables created before contexts need the column and its index
+					|| !PERMISSIONS_TABLE.addColumnIfAbsent("context", CONTEXT_DEFINITION).get()
+					|| !PERMISSIONS_TABLE.addIndexIfAbsent("permission_nodes_context", "rank_id, context").get()) {
+				throw new RuntimeException("Couldn't verify the required tables for the rank module");
+			}
+			return true;
+		} catch (InterruptedException | ExecutionException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
 
-					String shortPrefix = result.getString(4);
-					if (shortPrefix != null) {
-						rank.setShortPrefix(shortPrefix);
-					}
+	/**
+	 * Loads ranks from the database, including metadata and the permissions they own
+	 *
+	 * @param permissionDictionary to take shared permission nodes from
+	 * @param rankIds of the ranks to load or null to load every rank
+	 * @return the loaded ranks or null if they could not be loaded
+	 */
+	private static LoadedRanks loadRanks(PermissionDictionary permissionDictionary, Set<Integer> rankIds) {
+		if (rankIds == null || !areTablesVerified) { // A full load verifies them again in case they have been dropped
+			if (!verifyTables()) {
+				return null;
+			}
+			areTablesVerified = true;
+		}
 
-					int weight = result.getInt(5);
-					if (weight > -1) {
-						rank.setWeight(weight);
-					}
+		String query = "SELECT * FROM " + RANKS_TABLE.getTableName();
+		if (rankIds != null) {
+			if (rankIds.isEmpty()) {
+				return new LoadedRanks(new ArrayList<>(), 0);
+			}
+			query += " WHERE id IN (" + String.join(",", Collections.nCopies(rankIds.size(), "?")) + ")";
+		}
 
-					int parentId = result.getInt(6);
-					if (parentId >= 0) {
-						rank.setParentRank(parentId);
-					}
+		Set<String> contexts = localContexts;
+		String permissionQuery = "SELECT permission,allowed,forced,context FROM " + PERMISSIONS_TABLE.getTableName()
+				+ " WHERE rank_id=? AND " + getContextCondition(contexts);
 
-					// Add ranks to the list
-					module.loadedRanks.putIfAbsent(rank.getRankName(), rank);
-					// Adds the rank name as a permission so that it can be simply referenced via Spigot/BungeeCord
-					String rankNode = "ranks." + rank.getRankName();
-					rank.getPermissions().put(rankNode, new PermissionNode(rankNode, true, false));
-
-					// Load all the permission nodes that this rank owns
-					try (PreparedStatement permissionStatement = connection.prepareStatement(
-							"SELECT permission,allowed,forced FROM " + PERMISSIONS_TABLE.getTableName() + " WHERE rank_id=?")) {
-						permissionStatement.setInt(1, rank.getId());
-						ResultSet permissionResult = permissionStatement.executeQuery();
-
-						while (permissionResult.next()) {
-							String node = permissionResult.getString(1);
-							boolean allow = permissionResult.getBoolean(2);
-							boolean force = permissionResult.getBoolean(3);
-							rank.getPermissions()
-									.putIfAbsent(node, new PermissionNode(node, allow, force));
-						}
-					}
+		try (Connection connection = FurDB.getConnection();
+				PreparedStatement statement = connection.prepareStatement(query)) {
+			int parameter = 1;
+			if (rankIds != null) {
+				for (int rankId : rankIds) {
+					statement.setInt(parameter++, rankId);
+				}
+			}
+
+			long loadedAt = getDatabaseTime(connection); // Before reading so that nothing changed during it is missed
+			ResultSet result = statement.executeQuery();
+			List<Rank> ranks = new ArrayList<>();
+
+			while (result.next()) {
+				Rank rank = new Rank(result.getInt(1), result.getString(2));
 
-					rank.setDefault(result.getBoolean(7));
+				// Set all rank data
+				rank.setLongPrefix(result.getString(3));
+
+				String shortPrefix = result.getString(4);
+				if (shortPrefix != null) {
+					rank.setShortPrefix(shortPrefix);
 				}
 
-				return module;
-			} catch (SQLException e) {
-				e.printStackTrace();
-				return createErroneousModule();
+				int weight = result.getInt(5);
+				if (weight > -1) {
+					rank.setWeight(weight);
+				}
+
+				int parentId = result.getInt(6);
+				if (parentId >= 0) {
+					rank.setParentRank(parentId);
+				}
+
+				// Add ranks to the list
+				ranks.add(rank);
+				// Adds the rank name as a permission so that it can be simply referenced via Spigot/BungeeCord
+				PermissionNode rankNode = permissionDictionary.getNode("ranks." + rank.getRankName(), true, false);
+				rank.getPermissions().put(rankNode.getPermission(), rankNode);
+
+				// Load all the permission nodes that this rank owns
+				try (PreparedStatement permissionStatement = connection.prepareStatement(permissionQuery)) {
+					permissionStatement.setInt(1, rank.getId());
+					setContextParameters(permissionStatement, 2, contexts);
+					ResultSet permissionResult = permissionStatement.executeQuery();
+
+					while (permissionResult.next()) {
+						String node = permissionResult.getString(1);
+						boolean allow = permissionResult.getBoolean(2);
+						boolean force = permissionResult.getBoolean(3);
+						String context = normalizeContext(permissionResult.getString(4)); // Matched without case
+						// Shared strings from the dictionary so that each permission string is only held once
+						PermissionNode permissionNode = permissionDictionary.getNode(node, allow, force, context);
+						Map<String, PermissionNode> permissions = context == null ? rank.getPermissions()
+								: rank.getContextPermissions().computeIfAbsent(context, key -> new HashMap<>());
+						permissions.putIfAbsent(permissionNode.getPermission(), permissionNode);
+					}
+				}
+
+				rank.setDefault(result.getBoolean(7));
 			}
-		});
+
+			return new LoadedRanks(ranks, loadedAt);
+		} catch (SQLException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * @param contexts to be matched
+	 * @return an SQL condition which matches permission nodes which apply everywhere or in any of the contexts, whose
+	 * parameters are set by {@link #setContextParameters(PreparedStatement, int, Collection)}
+	 */
+	static String getContextCondition(Collection<String> contexts) {
+		if (contexts.isEmpty()) {
+			return "context IS NULL";
+		} else {
+			return "(context IS NULL OR context IN (" + String.join(",", Collections.nCopies(contexts.size(), "?")) + "))";
+		}
+	}
+
+	/**
+	 * @param statement containing a condition from {@link #getContextCondition(Collection)}
+	 * @param firstParameter the index of the first parameter in the condition
+	 * @param contexts which the condition was created for
+	 * @throws SQLException if a parameter can't be set
+	 */
+	static void setContextParameters(PreparedStatement statement, int firstParameter, Collection<String> contexts)
+			throws SQLException {
+		int parameter = firstParameter;
+		for (String context : contexts) {
+			statement.setString(parameter++, context);
+		}
+	}
+
+	/**
+	 * @param connection to the database
+	 * @return the current time according to the database, in milliseconds
+	 * @throws SQLException if an error occurs in the query
+	 */
+	private static long getDatabaseTime(Connection connection) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement("SELECT CURRENT_TIMESTAMP(3)")) {
+			ResultSet result = statement.executeQuery();
+			return result.next() ? result.getTimestamp(1).getTime() : 0;
+		}
+	}
+
+	/**
+	 * Ranks which have been loaded from the database along with when they were loaded
+	 */
+	private static class LoadedRanks {
+
+		private final List<Rank> ranks;
+		private final long loadedAt; // Database time in milliseconds just before the ranks were read
+
+		private LoadedRanks(List<Rank> ranks, long loadedAt) {
+			this.ranks = ranks;
+			this.loadedAt = loadedAt;
+		}
+
 	}
 
 }
@@ -0,0 +1,286 @@
+package uk.co.harieo.FurBridge.ranks.modules;
+
+import com.google.common.hash.Hashing;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import uk.co.harieo.FurBridge.ranks.Rank;
+
+/**
+ * Reads and writes a compact binary copy of a {@link RankModule} on local disk so that a server can serve rank and
+ * permission checks before the database has been reached. Each snapshot is tagged with a content version, which is a
+ * hash of the encoded ranks, so a freshly loaded module can be compared against the snapshot without comparing every
+ * rank by hand.
+ */
+public class RankModuleSnapshot {
+
+	private static final File file = new File("deployment-v2/rank-module.snapshot");
+	private static final int MAGIC = 0x46555252; // FURR
+	private static final int FORMAT_VERSION = 2; // Adds permissions which only apply in a context
+	private static final int HEADER_LENGTH = 20; // Magic, format version, content version and body length
+
+	private static final byte ALLOWED_FLAG = 1;
+	private static final byte FORCED_FLAG = 1 << 1;
+
+	/**
+	 * Encodes all loaded ranks of a module, with their permission nodes, into the snapshot body format. Ranks are
+	 * ordered by id and nodes by permission so that the same data always encodes to the same bytes.
+	 *
+	 * @param loadedRanks to be encoded
+	 * @return the encoded body
+	 */
+	static byte[] encode(Collection<Rank> loadedRanks) {
+		List<Rank> ranks = new ArrayList<>(loadedRanks);
+		ranks.sort(Comparator.comparingInt(Rank::getId));
+
+		ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+		try (DataOutputStream output = new DataOutputStream(byteStream)) {
+			output.writeInt(ranks.size());
+			for (Rank rank : ranks) {
+				output.writeInt(rank.getId());
+				writeString(output, rank.getRankName());
+				writeString(output, rank.getRawLongPrefix());
+				writeString(output, rank.getRawShortPrefix());
+				output.writeInt(rank.getWeight());
+				output.writeInt(rank.getParentRankId());
+				output.writeBoolean(rank.isDefault());
+
+				writeNodes(output, rank.getPermissions().values());
+
+				List<String> contexts = new ArrayList<>(rank.getContextPermissions().keySet());
+				Collections.sort(contexts);
+				output.writeInt(contexts.size());
+				for (String context : contexts) {
+					writeString(output, context);
+					writeNodes(output, rank.getPermissions(context).values());
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to encode rank module in memory", e); // Should never happen
+		}
+
+		return byteStream.toByteArray();
+	}
+
+	/**
+	 * Writes permission nodes ordered by permission
+	 *
+	 * @param output to write to
+	 * @param permissionNodes to be written
+	 * @throws IOException if the output can't be written to
+	 */
+	private static void writeNodes(DataOutputStream output, Collection<PermissionNode> permissionNodes)
+			throws IOException {
+		List<PermissionNode> nodes = new ArrayList<>(permissionNodes);
+		nodes.sort(Comparator.comparing(PermissionNode::getPermission));
+		output.writeInt(nodes.size());
+		for (PermissionNode node : nodes) {
+			writeString(output, node.getPermission());
+			byte flags = 0;
+			if (node.isAllowed()) {
+				flags |= ALLOWED_FLAG;
+			}
+			if (node.isForced()) {
+				flags |= FORCED_FLAG;
+			}
+			output.writeByte(flags);
+		}
+	}
+
+	/**
+	 * @param body which has been encoded by {@link #encode(Collection)}
+	 * @return the content version of the encoded body
+	 */
+	static long computeVersion(byte[] body) {
+		return Hashing.murmur3_128().hashBytes(body).asLong();
+	}
+
+	/**
+	 * Writes an encoded module to disk, replacing any existing snapshot. The file is written to a temporary location
+	 * first so that a crash mid-write never leaves a half written snapshot behind.
+	 *
+	 * @param body which has been encoded by {@link #encode(Collection)}
+	 * @param contentVersion of the encoded body
+	 * @throws IOException if the snapshot could not be written
+	 */
+	static void write(byte[] body, long contentVersion) throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.exists() && !parent.mkdirs()) {
+			throw new IOException("Failed to create snapshot directory " + parent);
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		header.putInt(MAGIC);
+		header.putInt(FORMAT_VERSION);
+		header.putLong(contentVersion);
+		header.putInt(body.length);
+		header.flip();
+
+		Path target = file.toPath();
+		Path temporary = target.resolveSibling(file.getName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			channel.write(header);
+			ByteBuffer bodyBuffer = ByteBuffer.wrap(body);
+			while (bodyBuffer.hasRemaining()) {
+				channel.write(bodyBuffer);
+			}
+			channel.force(true);
+		}
+
+		try {
+			Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING); // Filesystem may not be atomic
+		}
+	}
+
+	/**
+	 * Reads the snapshot from disk using a memory-mapped buffer and rebuilds the module it represents. The content
+	 * version is verified against the body so that a corrupted snapshot is never served.
+	 *
+	 * @return the module from the snapshot or null if there is no valid snapshot
+	 */
+	static RankModule read() {
+		if (!file.exists()) {
+			return null;
+		}
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC) {
+				System.out.println("Ignoring rank module snapshot with an unrecognised header");
+				return null;
+			} else if (buffer.getInt() != FORMAT_VERSION) {
+				System.out.println("Ignoring rank module snapshot from an incompatible version");
+				return null;
+			}
+
+			long contentVersion = buffer.getLong();
+			int bodyLength = buffer.getInt();
+			if (bodyLength != buffer.remaining()) {
+				System.out.println("Ignoring truncated rank module snapshot");
+				return null;
+			}
+
+			ByteBuffer body = buffer.slice();
+			if (Hashing.murmur3_128().newHasher().putBytes(body.duplicate()).hash().asLong() != contentVersion) {
+				System.out.println("Ignoring corrupted rank module snapshot");
+				return null;
+			}
+
+			return decode(body, contentVersion);
+		} catch (IOException | BufferUnderflowException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Rebuilds a module from an encoded body
+	 *
+	 * @param body which has been encoded by {@link #encode(Collection)}
+	 * @param contentVersion of the encoded body
+	 * @return the decoded module
+	 */
+	private static RankModule decode(ByteBuffer body, long contentVersion) {
+		RankModule module = RankModule.createSnapshotModule();
+		List<Rank> ranks = new ArrayList<>();
+
+		int rankCount = body.getInt();
+		for (int i = 0; i < rankCount; i++) {
+			Rank rank = new Rank(body.getInt(), readString(body));
+			rank.setLongPrefix(readString(body));
+
+			String shortPrefix = readString(body);
+			if (shortPrefix != null) {
+				rank.setShortPrefix(shortPrefix);
+			}
+
+			rank.setWeight(body.getInt());
+			rank.setParentRank(body.getInt());
+			rank.setDefault(body.get() != 0);
+
+			int nodeCount = body.getInt();
+			for (int j = 0; j < nodeCount; j++) {
+				String permission = readString(body);
+				byte flags = body.get();
+				PermissionNode node = module.getPermissionDictionary()
+						.getNode(permission, (flags & ALLOWED_FLAG) != 0, (flags & FORCED_FLAG) != 0);
+				rank.getPermissions().put(node.getPermission(), node);
+			}
+
+			int contextCount = body.getInt();
+			for (int j = 0; j < contextCount; j++) {
+				String context = RankModule.normalizeContext(readString(body)); // Older snapshots may hold any case
+				Map<String, PermissionNode> contextNodes = new HashMap<>();
+				int contextNodeCount = body.getInt();
+				for (int k = 0; k < contextNodeCount; k++) {
+					String permission = readString(body);
+					byte flags = body.get();
+					PermissionNode node = module.getPermissionDictionary().getNode(permission,
+							(flags & ALLOWED_FLAG) != 0, (flags & FORCED_FLAG) != 0, context);
+					contextNodes.put(node.getPermission(), node);
+				}
+				rank.getContextPermissions().put(context, contextNodes);
+			}
+
+			ranks.add(rank);
+		}
+
+		module.publishLoaded(ranks, contentVersion, true);
+		return module;
+	}
+
+	/**
+	 * Writes a nullable string as a length-prefixed UTF-8 sequence, where a length of -1 represents null
+	 *
+	 * @param output to write to
+	 * @param value to be written
+	 * @throws IOException if the output can't be written to
+	 */
+	private static void writeString(DataOutputStream output, String value) throws IOException {
+		if (value == null) {
+			output.writeInt(-1);
+		} else {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			output.writeInt(bytes.length);
+			output.write(bytes);
+		}
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(DataOutputStream, String)}
+	 *
+	 * @param buffer to read from
+	 * @return the read string, which may be null
+	 */
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,517 @@
+package uk.co.harieo.FurBridge.ranks.modules;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import uk.co.harieo.FurBridge.ranks.Rank;
+
+/**
+ * An immutable view of every rank in a {@link RankModule}, along with everything compiled from them, at one point in
+ * time. The module publishes a new state each time it changes, so anything read from one state is always consistent
+ * with everything else in that state without any locking.
+ * <p>
+ * The ranks in a state are never changed. A change to a rank is made by copying it, changing the copy and publishing
+ * a new state containing the copy, which only recompiles the ranks affected by the change.
+ */
+public final class RankModuleState {
+
+	private final PermissionDictionary dictionary;
+	private final ImmutableMap<String, Rank> ranksByName;
+	private final IntObjectMap<Rank> ranksById;
+	private final ImmutableList<Rank> excludedRanks;
+	private final IntObjectMap<Rank> excludedRanksById;
+	private final IntObjectMap<CompiledRank> compiledRanks;
+	private final long version;
+	private final long contentVersion;
+	private final boolean isFromSnapshot;
+
+	private RankModuleState(PermissionDictionary dictionary, Collection<Rank> loadedRanks,
+			Collection<Rank> excludedRanks, IntObjectMap<CompiledRank> compiledRanks, long version,
+			long contentVersion, boolean isFromSnapshot) {
+		this.dictionary = dictionary;
+
+		ImmutableMap.Builder<String, Rank> ranksByName = ImmutableMap.builder();
+		this.ranksById = new IntObjectMap<>(loadedRanks.size());
+		for (Rank rank : loadedRanks) {
+			rank.freeze(); // Shared with anyone who retrieves it, so only replaced from now on
+			ranksByName.put(rank.getRankName(), rank);
+			ranksById.put(rank.getId(), rank);
+		}
+		this.ranksByName = ranksByName.build();
+
+		this.excludedRanks = ImmutableList.copyOf(excludedRanks);
+		this.excludedRanksById = new IntObjectMap<>(excludedRanks.size());
+		for (Rank rank : excludedRanks) {
+			rank.freeze();
+			excludedRanksById.put(rank.getId(), rank);
+		}
+
+		this.compiledRanks = compiledRanks;
+		this.version = version;
+		this.contentVersion = contentVersion;
+		this.isFromSnapshot = isFromSnapshot;
+	}
+
+	/**
+	 * Creates a state containing the given ranks, compiling all of them
+	 *
+	 * @param dictionary to intern permissions into
+	 * @param loadedRanks which are in use
+	 * @param excludedRanks which have been excluded
+	 * @param version of the new state
+	 * @param contentVersion of the ranks, as calculated by {@link RankModuleSnapshot}
+	 * @param isFromSnapshot whether the ranks were read from the local snapshot
+	 * @return the created state
+	 */
+	static RankModuleState create(PermissionDictionary dictionary, Collection<Rank> loadedRanks,
+			Collection<Rank> excludedRanks, long version, long contentVersion, boolean isFromSnapshot) {
+		RankModuleState state = new RankModuleState(dictionary, loadedRanks, excludedRanks,
+				new IntObjectMap<>(loadedRanks.size()), version, contentVersion, isFromSnapshot);
+		state.compile(null, null, true);
+		return state;
+	}
+
+	/**
+	 * Creates the next state, in which the given ranks replace any existing ranks with the same id. Only the changed
+	 * ranks and the ranks which inherit from them, before or after the change, are recompiled.
+	 *
+	 * @param loadedRanks which are in use in the next state
+	 * @param excludedRanks which are excluded in the next state
+	 * @param changedRankIds of the ranks which have changed in a way which affects permissions
+	 * @param hierarchyChanged whether a rank has been added, removed or has a new parent
+	 * @return the next state
+	 */
+	RankModuleState next(Collection<Rank> loadedRanks, Collection<Rank> excludedRanks, Set<Integer> changedRankIds,
+			boolean hierarchyChanged) {
+		return next(loadedRanks, excludedRanks, changedRankIds, hierarchyChanged, contentVersion);
+	}
+
+	/**
+	 * Creates the next state in the same way as {@link #next(Collection, Collection, Set, boolean)}, for ranks which
+	 * have been freshly loaded and so have a new content version
+	 *
+	 * @param loadedRanks which are in use in the next state
+	 * @param excludedRanks which are excluded in the next state
+	 * @param changedRankIds of the ranks which have changed in a way which affects permissions
+	 * @param hierarchyChanged whether a rank has been added, removed or has a new parent
+	 * @param contentVersion of the ranks in the next state
+	 * @return the next state
+	 */
+	RankModuleState next(Collection<Rank> loadedRanks, Collection<Rank> excludedRanks, Set<Integer> changedRankIds,
+			boolean hierarchyChanged, long contentVersion) {
+		RankModuleState next = new RankModuleState(dictionary, loadedRanks, excludedRanks,
+				new IntObjectMap<>(loadedRanks.size()), version + 1, contentVersion, isFromSnapshot);
+		next.compile(this, changedRankIds, hierarchyChanged);
+		return next;
+	}
+
+	/**
+	 * Creates the next state in which some ranks have been replaced by changed copies, whether they are loaded or
+	 * excluded
+	 *
+	 * @param updated copies of the ranks
+	 * @param affectsPermissions whether the change affects the permissions of the ranks
+	 * @param hierarchyChanged whether the parent of any of the ranks has changed
+	 * @return the next state
+	 */
+	RankModuleState withRanks(Collection<Rank> updated, boolean affectsPermissions, boolean hierarchyChanged) {
+		List<Rank> loaded = new ArrayList<>(ranksByName.values());
+		List<Rank> excluded = new ArrayList<>(excludedRanks);
+		Set<Integer> changed = new HashSet<>();
+		for (Rank rank : updated) {
+			if (!replace(loaded, rank) && !replace(excluded, rank)) {
+				throw new IllegalArgumentException("Rank " + rank.getRankName() + " is not in this module");
+			}
+
+			if (affectsPermissions) {
+				changed.add(rank.getId());
+			}
+		}
+
+		return next(loaded, excluded, changed, hierarchyChanged);
+	}
+
+	/**
+	 * @return the ranks of this state which are in use, by name
+	 */
+	public Map<String, Rank> getLoadedRanks() {
+		return ranksByName;
+	}
+
+	/**
+	 * @param rankId of the rank
+	 * @return the loaded rank with this id or null if there is none
+	 */
+	public Rank getRank(int rankId) {
+		return ranksById.get(rankId);
+	}
+
+	/**
+	 * @param rankName of the rank
+	 * @return the loaded rank with this name or null if there is none
+	 */
+	public Rank getRank(String rankName) {
+		return ranksByName.get(rankName);
+	}
+
+	/**
+	 * @return the ranks of this state which have been excluded
+	 */
+	public List<Rank> getExcludedRanks() {
+		return excludedRanks;
+	}
+
+	/**
+	 * @param rankId of the rank
+	 * @return the excluded rank with this id or null if there is none
+	 */
+	public Rank getExcludedRank(int rankId) {
+		return excludedRanksById.get(rankId);
+	}
+
+	/**
+	 * @return the dictionary which all permission ids in this state are from
+	 */
+	public PermissionDictionary getPermissionDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * @return the version of this state, which increases with each change to the module
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the content version of the ranks this state was loaded with
+	 */
+	long getContentVersion() {
+		return contentVersion;
+	}
+
+	/**
+	 * @return whether the ranks of this state were read from the local snapshot
+	 */
+	boolean isFromSnapshot() {
+		return isFromSnapshot;
+	}
+
+	/**
+	 * @param rank to get the permissions of
+	 * @return all permissions of the rank, including those of its parents and the default ranks
+	 */
+	public PermissionSet getPermissionSet(Rank rank) {
+		CompiledRank compiled = compiledRanks.get(rank.getId());
+		if (compiled != null && getRank(rank.getId()) != null) {
+			return compiled.permissions;
+		} else {
+			// Not a loaded rank, such as an excluded rank or a template
+			return PermissionSet.of(dictionary, calculatePermissions(rank));
+		}
+	}
+
+	/**
+	 * @param rank to get the permissions of
+	 * @return all permissions of the rank compiled into a trie for resolving wildcards
+	 */
+	public PermissionTrie getPermissionTrie(Rank rank) {
+		CompiledRank compiled = compiledRanks.get(rank.getId());
+		if (compiled != null && getRank(rank.getId()) != null) {
+			return compiled.trie;
+		} else {
+			return new PermissionTrie(getPermissionSet(rank).asMap()); // Not a loaded rank
+		}
+	}
+
+	/**
+	 * @param rank to get the permissions of
+	 * @return all permissions of the rank as bitsets
+	 */
+	public PermissionBits getPermissionBits(Rank rank) {
+		CompiledRank compiled = compiledRanks.get(rank.getId());
+		if (compiled != null && getRank(rank.getId()) != null) {
+			return compiled.bits;
+		} else {
+			return PermissionBits.of(dictionary, getPermissionSet(rank)); // Not a loaded rank
+		}
+	}
+
+	/**
+	 * Gets all permissions of a rank as they apply in a context, where a node which a rank owns in the context takes
+	 * priority over its own node for the same permission which applies everywhere. Each context is compiled
+	 * separately, so checking a permission in one context never looks at the nodes of any other context.
+	 *
+	 * @param rank to get the permissions of
+	 * @param context to get the permissions in or null for only those which apply everywhere
+	 * @return all permissions of the rank in the context as bitsets
+	 */
+	public PermissionBits getPermissionBits(Rank rank, String context) {
+		context = RankModule.normalizeContext(context);
+		CompiledRank compiled = compiledRanks.get(rank.getId());
+		if (compiled != null && getRank(rank.getId()) != null) {
+			PermissionBits bits = context == null ? null : compiled.contextBits.get(context);
+			return bits != null ? bits : compiled.bits; // No node in its hierarchy applies in the context
+		} else if (context == null || !getContexts(rank).contains(context)) {
+			return getPermissionBits(rank);
+		} else {
+			return PermissionBits.of(dictionary, PermissionSet.of(dictionary, calculatePermissions(rank, context)));
+		}
+	}
+
+	/**
+	 * @param rank to get the closure of
+	 * @return the closure of the rank and its parents or null if the rank isn't loaded
+	 */
+	public RankAncestry getRankAncestry(Rank rank) {
+		CompiledRank compiled = compiledRanks.get(rank.getId());
+		return compiled != null && getRank(rank.getId()) != null ? compiled.ancestry : null;
+	}
+
+	/**
+	 * Compiles the ranks of this state, reusing whatever can be reused from the previous state
+	 *
+	 * @param previous state to reuse compiled ranks from, or null to compile everything
+	 * @param changedRankIds of the ranks whose permissions have changed, unused if previous is null
+	 * @param hierarchyChanged whether the hierarchy needs to be recalculated
+	 */
+	private void compile(RankModuleState previous, Set<Integer> changedRankIds, boolean hierarchyChanged) {
+		IntObjectMap<RankAncestry> ancestry = hierarchyChanged ? calculateHierarchy() : null;
+
+		boolean compileAll = previous == null || affectsDefaults(previous, changedRankIds);
+		RankAncestry changed = null; // The changed ranks as indexed by this state
+		RankAncestry previouslyChanged = null; // The same ranks as indexed by the previous state
+		if (!compileAll) {
+			List<RankAncestry> changedClosures = new ArrayList<>();
+			List<RankAncestry> previousClosures = new ArrayList<>();
+			for (int rankId : changedRankIds) {
+				CompiledRank old = previous.compiledRanks.get(rankId);
+				RankAncestry closure = ancestry != null ? ancestry.get(rankId) : old == null ? null : old.ancestry;
+				if (closure != null && getRank(rankId) != null) {
+					changedClosures.add(closure);
+				}
+				if (old != null && old.ancestry != null && previous.getRank(rankId) != null) {
+					previousClosures.add(old.ancestry);
+				}
+			}
+			changed = RankAncestry.of(changedClosures);
+			previouslyChanged = RankAncestry.of(previousClosures);
+		}
+
+		for (Rank rank : ranksByName.values()) {
+			CompiledRank old = previous == null ? null : previous.compiledRanks.get(rank.getId());
+			RankAncestry rankAncestry = ancestry != null ? ancestry.get(rank.getId()) : old.ancestry;
+
+			// A rank is recompiled if it inherits from a changed rank now or did before the change
+			if (old == null || compileAll || rankAncestry == null || rankAncestry.includesAny(changed)
+					|| (old.ancestry != null && old.ancestry.includesAny(previouslyChanged))) {
+				PermissionSet permissions = PermissionSet.of(dictionary, calculatePermissions(rank));
+				Map<String, PermissionBits> contextBits = new HashMap<>();
+				for (String context : getContexts(rank)) {
+					contextBits.put(context, PermissionBits.of(dictionary,
+							PermissionSet.of(dictionary, calculatePermissions(rank, context))));
+				}
+				compiledRanks.put(rank.getId(), new CompiledRank(permissions, new PermissionTrie(permissions.asMap()),
+						PermissionBits.of(dictionary, permissions), contextBits, rankAncestry));
+			} else if (rankAncestry != old.ancestry) {
+				compiledRanks.put(rank.getId(),
+						new CompiledRank(old.permissions, old.trie, old.bits, old.contextBits, rankAncestry));
+			} else {
+				compiledRanks.put(rank.getId(), old);
+			}
+		}
+	}
+
+	/**
+	 * @param previous state before the change
+	 * @param changedRankIds of the ranks which have changed
+	 * @return whether any changed rank is or was a default rank, which every rank inherits from
+	 */
+	private boolean affectsDefaults(RankModuleState previous, Set<Integer> changedRankIds) {
+		for (int rankId : changedRankIds) {
+			Rank before = previous.getRank(rankId);
+			Rank after = getRank(rankId);
+			if ((before != null && before.isDefault()) || (after != null && after.isDefault())) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Gives every loaded rank an index and calculates the {@link RankAncestry} of each, logging and cutting short any
+	 * parent cycle found in the hierarchy
+	 *
+	 * @return the closure of each rank by rank id
+	 */
+	private IntObjectMap<RankAncestry> calculateHierarchy() {
+		IntObjectMap<Integer> indices = new IntObjectMap<>(ranksByName.size());
+		for (Rank rank : ranksByName.values()) {
+			indices.put(rank.getId(), indices.size());
+		}
+
+		IntObjectMap<RankAncestry> closures = new IntObjectMap<>(ranksByName.size());
+		int words = (indices.size() + Long.SIZE - 1) / Long.SIZE;
+		for (Rank rank : ranksByName.values()) {
+			int index = indices.get(rank.getId());
+			long[] ancestors = new long[words];
+			ancestors[index >> 6] |= 1L << index;
+
+			Rank parent = getRank(rank.getParentRankId());
+			while (parent != null) {
+				int parentIndex = indices.get(parent.getId());
+				if ((ancestors[parentIndex >> 6] & (1L << parentIndex)) != 0) {
+					System.out.println("Rank " + rank.getRankName() + " has a parent cycle at " + parent.getRankName()
+							+ ", ignoring the rest of its hierarchy");
+					break;
+				}
+
+				ancestors[parentIndex >> 6] |= 1L << parentIndex;
+				parent = getRank(parent.getParentRankId());
+			}
+
+			closures.put(rank.getId(), new RankAncestry(index, ancestors));
+		}
+
+		return closures;
+	}
+
+	/**
+	 * Flattens the permissions of a rank with those of its parents and the default ranks
+	 *
+	 * @param rank to calculate the permissions of
+	 * @return a map of all applicable permissions, which must not be modified
+	 */
+	private Map<String, PermissionNode> calculatePermissions(Rank rank) {
+		return calculatePermissions(rank, null);
+	}
+
+	/**
+	 * Flattens the permissions of a rank with those of its parents and the default ranks as they apply in a context. A
+	 * rank without a parent only has its own permissions, in a context as well as everywhere, so that a check in a
+	 * context only differs from one everywhere by the rank's own nodes in that context.
+	 *
+	 * @param rank to calculate the permissions of
+	 * @param context to calculate the permissions in or null for only those which apply everywhere
+	 * @return a map of all applicable permissions, which must not be modified
+	 */
+	private Map<String, PermissionNode> calculatePermissions(Rank rank, String context) {
+		if (rank.getParentRankId() < 0) {
+			return getPermissions(rank, context); // Its own nodes in the context layered over its global nodes
+		} else {
+			Map<String, PermissionNode> permissions = new HashMap<>(getPermissions(rank, context)); // Adds the base rank's permissions
+
+			Rank parent = getRank(rank.getParentRankId());
+			int depth = 0;
+			while (parent != null && parent.getId() >= 0 && depth++ < ranksByName.size()) { // While the next parent exists
+				Map<String, PermissionNode> parentPermissions = getPermissions(parent, context);
+				for (String permission : parentPermissions.keySet()) {
+					permissions.putIfAbsent(permission,
+							parentPermissions.get(permission)); // Add permission from current parent to list
+				}
+				parent = getRank(parent.getParentRankId()); // Move to the next rank
+			}
+
+			for (Rank loadedRank : ranksByName.values()) { // Adds default rank permissions
+				if (loadedRank.isDefault()) {
+					permissions.putAll(getPermissions(loadedRank, context));
+				}
+			}
+
+			return permissions;
+		}
+	}
+
+	/**
+	 * @param rank to get the permissions of
+	 * @param context to get the permissions in or null for only those which apply everywhere
+	 * @return the permissions the rank owns itself in the context, where its nodes in the context take priority
+	 */
+	private static Map<String, PermissionNode> getPermissions(Rank rank, String context) {
+		Map<String, PermissionNode> contextPermissions = rank.getPermissions(context);
+		if (context == null || contextPermissions.isEmpty()) {
+			return rank.getPermissions();
+		}
+
+		Map<String, PermissionNode> permissions = new HashMap<>(rank.getPermissions());
+		permissions.putAll(contextPermissions);
+		return permissions;
+	}
+
+	/**
+	 * @param rank to find the contexts of
+	 * @return every context which the rank, its parents or the default ranks own nodes in, which is only the rank's own
+	 * contexts if it has no parent as it doesn't take the nodes of the default ranks
+	 */
+	private Set<String> getContexts(Rank rank) {
+		Set<String> contexts = new HashSet<>(rank.getContextPermissions().keySet());
+		if (rank.getParentRankId() < 0) {
+			return contexts;
+		}
+
+		Rank parent = getRank(rank.getParentRankId());
+		int depth = 0;
+		while (parent != null && depth++ < ranksByName.size()) {
+			contexts.addAll(parent.getContextPermissions().keySet());
+			parent = getRank(parent.getParentRankId());
+		}
+
+		for (Rank loadedRank : ranksByName.values()) {
+			if (loadedRank.isDefault()) {
+				contexts.addAll(loadedRank.getContextPermissions().keySet());
+			}
+		}
+
+		return contexts;
+	}
+
+	/**
+	 * Replaces the rank in a list which has the same id as the given rank
+	 *
+	 * @param ranks to replace the rank in
+	 * @param replacement for the rank
+	 * @return whether a rank was replaced
+	 */
+	private static boolean replace(List<Rank> ranks, Rank replacement) {
+		for (int i = 0; i < ranks.size(); i++) {
+			if (ranks.get(i).getId() == replacement.getId()) {
+				ranks.set(i, replacement);
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Everything compiled from a single loaded rank
+	 */
+	private static class CompiledRank {
+
+		private final PermissionSet permissions; // Including inherited and default permissions
+		private final PermissionTrie trie; // The same permissions by segment, for wildcards
+		private final PermissionBits bits; // The same permissions as bitsets, for merging into a player's
+		// The permissions as they apply in each context which any node in the hierarchy applies in
+		private final Map<String, PermissionBits> contextBits;
+		private final RankAncestry ancestry; // The rank and all its parents
+
+		private CompiledRank(PermissionSet permissions, PermissionTrie trie, PermissionBits bits,
+				Map<String, PermissionBits> contextBits, RankAncestry ancestry) {
+			this.permissions = permissions;
+			this.trie = trie;
+			this.bits = bits;
+			this.contextBits = contextBits;
+			this.ancestry = ancestry;
+		}
+
+	}
+
+}
@@ -2,8 +2,8 @@ package uk.co.harieo.FurBridge.ranks.redis;
 
 import com.google.common.collect.Sets;
 import com.google.gson.JsonObject;
-import java.util.Map;
 import uk.co.harieo.FurBridge.ranks.Rank;
+import uk.co.harieo.FurBridge.ranks.modules.PermissionChangeSet;
 import uk.co.harieo.FurBridge.ranks.modules.PermissionNode;
 import uk.co.harieo.FurBridge.ranks.modules.RankModule;
 import uk.co.harieo.FurBridge.redis.listeners.RedisListener;
@@ -22,8 +22,21 @@ public abstract class PermissionListener extends RedisListener {
 		this.rankModule = rankModule;
 	}
 
+	/**
+	 * Reloads the whole module, as a change to any permission may have been missed
+	 */
+	@Override
+	public void onMessagesMissed() {
+		rankModule.reload();
+	}
+
 	@Override
 	public void onMessage(String type, int version, JsonObject message) {
+		if (version >= PermissionMessage.BATCH_VERSION) {
+			applyBatch(PermissionChangeSet.fromJson(message.getAsJsonArray(PermissionMessage.CHANGES_KEY)));
+			return;
+		}
+
 		String messageType = message.get("message-type").getAsString();
 		String permission = message.get("permission").getAsString();
 
@@ -40,18 +53,13 @@ public abstract class PermissionListener extends RedisListener {
 		int rankId = message.get("rank-id").getAsInt();
 		Rank rank = rankModule.getRank(rankId);
 		if (rank == null) {
-			for (Rank excludedRank : rankModule.getExcludedRanks()) {
-				if (excludedRank.getId() == rankId) {
-					PermissionNode node = excludedRank.getPermissions().get(permission);
-
-					boolean wasForced = node != null && node.isForced(); // Node isn't forced if it doesn't exist
-					boolean isRemoving = messageType.equals(PermissionRemoveMessage.MESSAGE_TYPE);
-					if (forced || wasForced || isRemoving) { // If it is forced or the forced status changed to false
-						rank = excludedRank;
-						if (wasForced && !forced) { // If it was forced and is not forced now
-							messageType = PermissionRemoveMessage.MESSAGE_TYPE; // Remove the permission
-						}
-					}
+			Rank excludedRank = rankModule.getExcludedRank(rankId);
+			if (excludedRank != null) {
+				String excludedMessageType =
+						getExcludedMessageType(excludedRank, messageType, permission, null, forced);
+				if (excludedMessageType != null) {
+					rank = excludedRank;
+					messageType = excludedMessageType;
 				}
 			}
 
@@ -65,6 +73,116 @@ public abstract class PermissionListener extends RedisListener {
 		onMessage(rank, messageType, permission, isAllowed);
 	}
 
+	/**
+	 * Applies every change in a batch to the cache as a single update, with the same handling of excluded ranks as a
+	 * single change, then passes the changes which were applied to {@link #onBatch(PermissionChangeSet)}
+	 *
+	 * @param changes which have been received
+	 */
+	private void applyBatch(PermissionChangeSet changes) {
+		PermissionChangeSet applicable = new PermissionChangeSet();
+		for (int rankId : changes.getRankIds()) {
+			Rank rank = rankModule.getRank(rankId);
+			if (rank != null) {
+				for (PermissionNode node : changes.getSetNodes(rankId)) {
+					applicable.set(rankId, node);
+				}
+				addRemovals(changes, applicable, rankId);
+				continue;
+			}
+
+			Rank excludedRank = rankModule.getExcludedRank(rankId);
+			if (excludedRank == null) {
+				System.out.println("Failed to handle permissions update for unrecognised rank id: " + rankId);
+				continue;
+			}
+
+			for (PermissionNode node : changes.getSetNodes(rankId)) {
+				String messageType = getExcludedMessageType(excludedRank, PermissionSetMessage.MESSAGE_TYPE,
+						node.getPermission(), node.getContext(), node.isForced());
+				if (PermissionSetMessage.MESSAGE_TYPE.equals(messageType)) {
+					applicable.set(rankId, node);
+				} else if (PermissionRemoveMessage.MESSAGE_TYPE.equals(messageType)) {
+					applicable.remove(rankId, node.getPermission(), node.getContext());
+				}
+			}
+			addRemovals(changes, applicable, rankId);
+		}
+
+		if (!applicable.isEmpty()) {
+			rankModule.applyChanges(applicable);
+			onBatch(applicable);
+		}
+	}
+
+	/**
+	 * Copies every permission removed from a rank, in every context, from one change set to another
+	 *
+	 * @param from the change set to copy the removals from
+	 * @param to the change set to add the removals to
+	 * @param rankId of the rank
+	 */
+	private static void addRemovals(PermissionChangeSet from, PermissionChangeSet to, int rankId) {
+		for (String context : from.getRemovedContexts(rankId)) {
+			for (String permission : from.getRemovedPermissions(rankId, context)) {
+				to.remove(rankId, permission, context);
+			}
+		}
+	}
+
+	/**
+	 * Called once for each batch of changes received in a {@link PermissionMessage}, after the whole batch has been
+	 * applied to the cache. By default this passes each change to {@link #onMessage(Rank, String, String, boolean)}
+	 * in turn, so implementations which only need to react once per batch, such as by recalculating the permissions of
+	 * online players, should override this.
+	 *
+	 * @param changes which have been applied, containing only changes to ranks known to this server
+	 */
+	public void onBatch(PermissionChangeSet changes) {
+		for (int rankId : changes.getRankIds()) {
+			Rank rank = rankModule.getRank(rankId);
+			if (rank == null) {
+				rank = rankModule.getExcludedRank(rankId);
+			}
+
+			for (PermissionNode node : changes.getSetNodes(rankId)) {
+				onMessage(rank, PermissionSetMessage.MESSAGE_TYPE, node.getPermission(), node.isAllowed());
+			}
+			for (String context : changes.getRemovedContexts(rankId)) {
+				for (String permission : changes.getRemovedPermissions(rankId, context)) {
+					onMessage(rank, PermissionRemoveMessage.MESSAGE_TYPE, permission, false);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Excluded ranks only keep their forced permissions, so a change to an excluded rank is only applied if it concerns
+	 * a forced permission. A forced permission which is no longer forced is removed.
+	 *
+	 * @param excludedRank which the change is for
+	 * @param messageType the type of change
+	 * @param permission which is being changed
+	 * @param context which the permission applies in or null if it applies everywhere
+	 * @param forced whether the permission is being set as forced
+	 * @return the type of change to apply to the excluded rank or null if it should be ignored
+	 */
+	private String getExcludedMessageType(Rank excludedRank, String messageType, String permission, String context,
+			boolean forced) {
+		PermissionNode node = excludedRank.getPermissions(context).get(permission);
+
+		boolean wasForced = node != null && node.isForced(); // Node isn't forced if it doesn't exist
+		boolean isRemoving = messageType.equals(PermissionRemoveMessage.MESSAGE_TYPE);
+		if (forced || wasForced || isRemoving) { // If it is forced or the forced status changed to false
+			if (wasForced && !forced) { // If it was forced and is not forced now
+				return PermissionRemoveMessage.MESSAGE_TYPE; // Remove the permission
+			}
+			return messageType;
+		}
+
+		return null;
+	}
+
 	/**
 	 * Updates the cached permissions in the provided {@link RankModule} to reflect this permissions change
 	 *
@@ -74,23 +192,10 @@ public abstract class PermissionListener extends RedisListener {
 	 * @param isAllowed whether the permission is true or false
 	 */
 	private void updateCache(Rank rank, String messageType, String permission, boolean isAllowed, boolean forced) {
-		Map<String, PermissionNode> permissions = rank.getPermissions();
 		if (messageType.equals(PermissionSetMessage.MESSAGE_TYPE)) {
-			PermissionNode node;
-			if (permissions.containsKey(permission)) {
-				node = permissions.get(permission);
-				node.setAllowed(isAllowed);
-				node.setForce(forced);
-			} else {
-				node = new PermissionNode(permission, isAllowed, forced);
-			}
-
-			permissions.put(permission, node);
-			System.out.println(
-					"Updated the permission " + permission + " to " + isAllowed + " for " + rank.getRankName());
+			rankModule.setPermission(rank, new PermissionNode(permission, isAllowed, forced));
 		} else if (messageType.equals(PermissionRemoveMessage.MESSAGE_TYPE)) {
-			permissions.remove(permission);
-			System.out.println("Removed the permission " + permission + " from " + rank.getRankName());
+			rankModule.removePermission(rank, permission);
 		} else {
 			System.out.println("Received unhandled permission message of type: " + messageType);
 		}
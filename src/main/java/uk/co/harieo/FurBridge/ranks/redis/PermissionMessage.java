@@ -1,6 +1,7 @@
 package uk.co.harieo.FurBridge.ranks.redis;
 
 import uk.co.harieo.FurBridge.ranks.Rank;
+import uk.co.harieo.FurBridge.ranks.modules.PermissionChangeSet;
 import uk.co.harieo.FurBridge.ranks.modules.PermissionNode;
 import uk.co.harieo.FurBridge.redis.messages.RedisMessage;
 
@@ -8,6 +9,8 @@ public class PermissionMessage extends RedisMessage {
 
 	public static final String TYPE = "permissions-update";
 	public static final int VERSION = 1;
+	public static final int BATCH_VERSION = 2; // Carries a PermissionChangeSet rather than a single node
+	public static final String CHANGES_KEY = "changes";
 
 	/**
 	 * A generic message which represents a permission being updated
@@ -26,4 +29,78 @@ public class PermissionMessage extends RedisMessage {
 		body().addProperty("forced", permission.isForced());
 	}
 
+	/**
+	 * A message which represents any number of permissions being set or removed at once, to be applied by receivers as
+	 * a single change
+	 *
+	 * @param changes which have been made
+	 */
+	public PermissionMessage(PermissionChangeSet changes) {
+		super(TYPE, BATCH_VERSION);
+		body().add(CHANGES_KEY, changes.toJson());
+	}
+
+	/**
+	 * @return a builder for a message carrying many changes at once, which should be preferred over sending one
+	 * {@link PermissionSetMessage} or {@link PermissionRemoveMessage} per node when editing more than one node
+	 */
+	public static Builder batch() {
+		return new Builder();
+	}
+
+	/**
+	 * Collects changes to be sent in a single {@link PermissionMessage}
+	 */
+	public static class Builder {
+
+		private final PermissionChangeSet changes = new PermissionChangeSet();
+
+		private Builder() { }
+
+		/**
+		 * @param rank which is being updated
+		 * @param permission which is being set
+		 * @return this builder
+		 */
+		public Builder set(Rank rank, PermissionNode permission) {
+			changes.set(rank.getId(), permission);
+			return this;
+		}
+
+		/**
+		 * @param rank which the permission is being removed from
+		 * @param permission that is being removed
+		 * @return this builder
+		 */
+		public Builder remove(Rank rank, String permission) {
+			return remove(rank, permission, null);
+		}
+
+		/**
+		 * @param rank which the permission is being removed from
+		 * @param permission that is being removed
+		 * @param context which the permission applies in or null if it applies everywhere
+		 * @return this builder
+		 */
+		public Builder remove(Rank rank, String permission, String context) {
+			changes.remove(rank.getId(), permission, context);
+			return this;
+		}
+
+		/**
+		 * @return whether no changes have been added
+		 */
+		public boolean isEmpty() {
+			return changes.isEmpty();
+		}
+
+		/**
+		 * @return the message carrying every change added to this builder
+		 */
+		public PermissionMessage build() {
+			return new PermissionMessage(changes);
+		}
+
+	}
+
 }
@@ -0,0 +1,161 @@
+package uk.co.harieo.FurBridge.ranks.redis;
+
+import com.google.common.collect.Sets;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import uk.co.harieo.FurBridge.players.PlayerInfo;
+import uk.co.harieo.FurBridge.players.UniqueIdManipulation;
+import uk.co.harieo.FurBridge.ranks.PlayerRankInfo;
+import uk.co.harieo.FurBridge.ranks.RankCache;
+import uk.co.harieo.FurBridge.redis.RedisDispatcher;
+import uk.co.harieo.FurBridge.redis.listeners.RedisListener;
+
+public class RankUpdateListener extends RedisListener {
+
+	private static final int DISPATCH_LANES = 4;
+	private static final int QUEUE_CAPACITY = 1024;
+
+	/**
+	 * A listener which listens for any {@link RankUpdateMessage} from Redis and updates the cached information of the
+	 * player it concerns. Messages which describe the ranks that were added and removed are applied to the cache
+	 * directly, unless a change has been missed in between, in which case the cached information is invalidated so that
+	 * their ranks are next loaded fresh from the database. Messages which carry an older rank version than the cached
+	 * information are ignored, as the cache already reflects a newer change.
+	 * <p>
+	 * Messages are handled away from the thread which receives them, in the order they were received for each player.
+	 * If too many messages are waiting, the player's cached information is invalidated instead of queueing another.
+	 */
+	public RankUpdateListener() {
+		this(new RedisDispatcher("RankUpdate", DISPATCH_LANES, QUEUE_CAPACITY));
+	}
+
+	/**
+	 * A listener for {@link RankUpdateMessage} which handles messages with the given dispatcher, in the order they were
+	 * received for each player
+	 *
+	 * @param dispatcher to handle messages on, or null to handle them as they are received
+	 */
+	public RankUpdateListener(RedisDispatcher dispatcher) {
+		super(Sets.newHashSet(RankUpdateMessage.TYPE), dispatcher);
+	}
+
+	@Override
+	public Object getOrderingKey(String messageType, JsonObject message) {
+		return message.has(RankUpdateMessage.PLAYER_ID_KEY) ? message.get(RankUpdateMessage.PLAYER_ID_KEY).getAsInt()
+				: null;
+	}
+
+	@Override
+	public void onMessage(String messageType, int version, JsonObject message) {
+		UUID uuid = getCachedUniqueId(message);
+		if (uuid == null) {
+			return; // This player's ranks aren't cached on this server so there is nothing to update
+		}
+
+		PlayerRankInfo cachedInfo = RankCache.getIfPresent(uuid);
+		if (cachedInfo != null && message.has(RankUpdateMessage.RANK_VERSION_KEY)) {
+			long rankVersion = message.get(RankUpdateMessage.RANK_VERSION_KEY).getAsLong();
+			if (rankVersion <= cachedInfo.getRankVersion()) {
+				return; // The cache already reflects this change or a newer one
+			}
+
+			if (message.has(RankUpdateMessage.ADDED_KEY) && message.has(RankUpdateMessage.REMOVED_KEY)
+					&& applyDelta(cachedInfo, message, rankVersion)) {
+				onRankUpdate(uuid);
+				return;
+			}
+		}
+
+		invalidate(uuid);
+	}
+
+	/**
+	 * Invalidates the player's cached information, as the change can't be applied without handling the messages which
+	 * are still waiting for the player first. Those messages are ignored once the player's ranks have been loaded again.
+	 */
+	@Override
+	public void onDropped(String messageType, int version, JsonObject message) {
+		UUID uuid = getCachedUniqueId(message);
+		if (uuid != null) {
+			invalidate(uuid);
+		}
+	}
+
+	/**
+	 * Clears every player's cached information, as an update for any of them may have been missed
+	 */
+	@Override
+	public void onMessagesMissed() {
+		RankCache.clearCache();
+	}
+
+	/**
+	 * @param message which concerns a player
+	 * @return the {@link UUID} of the player, or null if it isn't a player rank update or the player isn't known to be
+	 * cached on this server
+	 */
+	private static UUID getCachedUniqueId(JsonObject message) {
+		if (!message.has(RankUpdateMessage.PLAYER_ID_KEY)) {
+			return null; // Not a player rank update
+		}
+
+		if (message.has(RankUpdateMessage.UUID_KEY)) {
+			UUID uuid = UniqueIdManipulation.uuidFromString(message.get(RankUpdateMessage.UUID_KEY).getAsString());
+			if (uuid != null) {
+				return uuid;
+			}
+		}
+		return RankCache.getUniqueId(message.get(RankUpdateMessage.PLAYER_ID_KEY).getAsInt());
+	}
+
+	/**
+	 * Removes a player's information from the cache so that their ranks are next loaded from the database
+	 *
+	 * @param uuid of the player
+	 */
+	private void invalidate(UUID uuid) {
+		RankCache.removeFromCache(uuid);
+		PlayerInfo.removeFromCache(uuid);
+		onRankUpdate(uuid);
+	}
+
+	/**
+	 * Applies the ranks which were added and removed in a message to a player's cached information
+	 *
+	 * @param cachedInfo of the player
+	 * @param message which describes the change
+	 * @param rankVersion produced by the change
+	 * @return whether the change was applied, which is false if a change has been missed
+	 */
+	private static boolean applyDelta(PlayerRankInfo cachedInfo, JsonObject message, long rankVersion) {
+		Map<Integer, Long> added = new HashMap<>();
+		for (JsonElement element : message.getAsJsonArray(RankUpdateMessage.ADDED_KEY)) {
+			JsonObject rankJson = element.getAsJsonObject();
+			added.put(rankJson.get(RankUpdateMessage.RANK_ID_KEY).getAsInt(),
+					rankJson.has(RankUpdateMessage.EXPIRES_AT_KEY)
+							? rankJson.get(RankUpdateMessage.EXPIRES_AT_KEY).getAsLong() : PlayerRankInfo.PERMANENT);
+		}
+
+		List<Integer> removed = new ArrayList<>();
+		for (JsonElement element : message.getAsJsonArray(RankUpdateMessage.REMOVED_KEY)) {
+			removed.add(element.getAsInt());
+		}
+
+		return cachedInfo.applyRankDelta(added, removed, rankVersion);
+	}
+
+	/**
+	 * Called after a player's cached information has been updated or invalidated because their ranks changed on another
+	 * server. If the change was applied, the cache already holds the player's new ranks so reloading them won't read
+	 * the database. This does nothing by default but can be overridden to reload the player's ranks if they are online.
+	 *
+	 * @param uuid of the player whose ranks have changed
+	 */
+	public void onRankUpdate(UUID uuid) { }
+
+}
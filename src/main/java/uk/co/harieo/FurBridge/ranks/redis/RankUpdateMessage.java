@@ -1,5 +1,7 @@
 package uk.co.harieo.FurBridge.ranks.redis;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
 import uk.co.harieo.FurBridge.ranks.PlayerRankInfo;
 import uk.co.harieo.FurBridge.redis.messages.RedisMessage;
 
@@ -7,11 +9,95 @@ public class RankUpdateMessage extends RedisMessage {
 
 	public static final String TYPE = "rank-update";
 	public static final int VERSION = 1;
+	public static final int DELTA_VERSION = 2; // Carries the ranks which were added and removed
 
+	public static final String PLAYER_ID_KEY = "player-id";
+	public static final String UUID_KEY = "uuid";
+	public static final String RANK_VERSION_KEY = "rank-version";
+	public static final String ADDED_KEY = "added";
+	public static final String REMOVED_KEY = "removed";
+	public static final String RANK_ID_KEY = "rank-id";
+	public static final String EXPIRES_AT_KEY = "expires-at";
+
+	/**
+	 * A message which notifies all servers that a player's ranks have changed, carrying the player's new rank version
+	 * so that receivers can ignore messages which arrive after a newer change
+	 *
+	 * @param playerRankInfo of the player whose ranks have changed
+	 */
 	public RankUpdateMessage(PlayerRankInfo playerRankInfo) {
-		super(TYPE, VERSION);
+		this(playerRankInfo, playerRankInfo.getRankVersion());
+	}
+
+	/**
+	 * A message which notifies all servers of a single change to a player's ranks, which should be described with
+	 * {@link #added(int, long)} and {@link #removed(int)} so that receivers can apply it without reading the player's
+	 * ranks from the database
+	 *
+	 * @param playerRankInfo of the player whose ranks have changed
+	 * @param rankVersion the version produced by this change
+	 */
+	public RankUpdateMessage(PlayerRankInfo playerRankInfo, long rankVersion) {
+		this(playerRankInfo.getPlayerInfo().getPlayerId(), rankVersion);
+		body().addProperty(UUID_KEY, playerRankInfo.getPlayerInfo().getUniqueId().toString());
+	}
+
+	/**
+	 * A message which notifies all servers that the ranks of a player who may not be loaded have changed, such as when
+	 * a timed rank expires. Receivers find the player by their player id instead of their {@link java.util.UUID}.
+	 *
+	 * @param playerId of the player whose ranks have changed
+	 * @param rankVersion the player's new rank version or 0 if it isn't known, in which case receivers load the player's
+	 * ranks from the database rather than applying the change
+	 */
+	public RankUpdateMessage(int playerId, long rankVersion) {
+		super(TYPE, DELTA_VERSION);
 		body().addProperty("system", "rank");
-		body().addProperty("player-id", playerRankInfo.getPlayerInfo().getPlayerId());
+		body().addProperty(PLAYER_ID_KEY, playerId);
+		if (rankVersion > 0) {
+			body().addProperty(RANK_VERSION_KEY, rankVersion);
+		}
+	}
+
+	/**
+	 * Adds a rank which was given to the player in this change
+	 *
+	 * @param rankId of the rank
+	 * @param expiresAt the time in milliseconds at which the rank expires or {@link PlayerRankInfo#PERMANENT}
+	 * @return this message
+	 */
+	public RankUpdateMessage added(int rankId, long expiresAt) {
+		JsonObject rankJson = new JsonObject();
+		rankJson.addProperty(RANK_ID_KEY, rankId);
+		if (expiresAt != PlayerRankInfo.PERMANENT) {
+			rankJson.addProperty(EXPIRES_AT_KEY, expiresAt);
+		}
+		getDeltaArray(ADDED_KEY).add(rankJson);
+		return this;
+	}
+
+	/**
+	 * Adds a rank which was taken from the player in this change
+	 *
+	 * @param rankId of the rank
+	 * @return this message
+	 */
+	public RankUpdateMessage removed(int rankId) {
+		getDeltaArray(REMOVED_KEY).add(rankId);
+		return this;
+	}
+
+	/**
+	 * @param key of the array
+	 * @return the array of added or removed ranks, which is created along with the other if this message doesn't have
+	 * it yet so that a message with any change always describes the whole change
+	 */
+	private JsonArray getDeltaArray(String key) {
+		if (!body().has(key)) {
+			body().add(ADDED_KEY, new JsonArray());
+			body().add(REMOVED_KEY, new JsonArray());
+		}
+		return body().getAsJsonArray(key);
 	}
 
 }
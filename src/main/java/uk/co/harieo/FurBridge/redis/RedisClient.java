@@ -32,6 +32,14 @@ public class RedisClient {
 		return subscribePool.getResource();
 	}
 
+	/**
+	 * @return the socket timeout of every pooled connection in milliseconds, which a blocking command has to return
+	 * within to not be treated as a lost connection
+	 */
+	public static int getTimeout() {
+		return Integer.parseInt(properties.getProperty("timeout").trim());
+	}
+
 	/**
 	 * Creates an instance of {@link JedisPool}
 	 *
@@ -0,0 +1,160 @@
+package uk.co.harieo.FurBridge.redis;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import uk.co.harieo.FurBridge.redis.listeners.RedisListener;
+
+/**
+ * Runs the handling of Redis messages away from the subscriber thread, so that a slow {@link RedisListener} doesn't
+ * delay every other message or leave messages waiting in Redis until the subscriber is disconnected. Messages are
+ * spread across a fixed number of lanes by their ordering key, each of which is a single thread with a bounded queue,
+ * so messages with the same key are always handled in the order they were received. Once a lane's queue is full,
+ * further messages for that lane are refused rather than queued without limit, and {@link RedisReceiver} passes them
+ * to {@link RedisListener#onDropped(String, int, com.google.gson.JsonObject)} so that the listener can recover.
+ * <p>
+ * A dispatcher may be shared by several listeners, or each listener may have its own.
+ */
+public class RedisDispatcher {
+
+	private static final long DROP_LOG_INTERVAL_MILLIS = 10000;
+
+	private final String name;
+	private final ThreadPoolExecutor[] lanes;
+
+	private final AtomicLong handledCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong totalLatencyNanos = new AtomicLong();
+	private final AtomicLong maxLatencyNanos = new AtomicLong();
+	private final AtomicLong unloggedDropCount = new AtomicLong(); // Drops since the last time they were logged
+	private final AtomicLong lastDropLog = new AtomicLong();
+
+	/**
+	 * Creates a dispatcher with its own threads, which are only started once a message is dispatched to their lane
+	 *
+	 * @param name to identify this dispatcher in thread names and logs
+	 * @param laneCount the amount of lanes, which is the most messages that can be handled at once
+	 * @param capacity the most messages which can wait in each lane
+	 */
+	public RedisDispatcher(String name, int laneCount, int capacity) {
+		if (laneCount < 1 || capacity < 1) {
+			throw new IllegalArgumentException("A dispatcher must have at least one lane with room for one message");
+		}
+
+		this.name = name;
+		this.lanes = new ThreadPoolExecutor[laneCount];
+		for (int i = 0; i < laneCount; i++) {
+			String threadName = "FurBridge-Redis-" + name + "-" + i;
+			lanes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(capacity),
+					runnable -> {
+						Thread thread = new Thread(runnable, threadName);
+						thread.setDaemon(true);
+						return thread;
+					});
+		}
+	}
+
+	/**
+	 * Queues a handler in the lane of its ordering key
+	 *
+	 * @param key which orders the handler after every earlier handler with an equal key, or null to use the first lane
+	 * @param handler to be run
+	 * @return whether the handler was queued, which is false if the lane is full or this dispatcher has been shut down
+	 */
+	public boolean dispatch(Object key, Runnable handler) {
+		ThreadPoolExecutor lane = lanes[key == null ? 0 : Math.floorMod(key.hashCode(), lanes.length)];
+		try {
+			lane.execute(() -> {
+				long start = System.nanoTime();
+				try {
+					handler.run();
+				} catch (Exception e) {
+					e.printStackTrace();
+				} finally {
+					long latency = System.nanoTime() - start;
+					handledCount.incrementAndGet();
+					totalLatencyNanos.addAndGet(latency);
+					maxLatencyNanos.accumulateAndGet(latency, Math::max);
+				}
+			});
+			return true;
+		} catch (RejectedExecutionException e) {
+			droppedCount.incrementAndGet();
+			unloggedDropCount.incrementAndGet();
+			logDrops();
+			return false;
+		}
+	}
+
+	/**
+	 * Logs how many messages have been refused since the last log, at most once every
+	 * {@link #DROP_LOG_INTERVAL_MILLIS} so that a burst of refused messages doesn't flood the log
+	 */
+	private void logDrops() {
+		long now = System.currentTimeMillis();
+		long last = lastDropLog.get();
+		if (now - last >= DROP_LOG_INTERVAL_MILLIS && lastDropLog.compareAndSet(last, now)) {
+			System.out.println("Refused " + unloggedDropCount.getAndSet(0) + " Redis messages in dispatcher " + name
+					+ " because its queue is full");
+		}
+	}
+
+	/**
+	 * @return the name of this dispatcher
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the amount of messages waiting to be handled across every lane
+	 */
+	public int getQueueDepth() {
+		int depth = 0;
+		for (ThreadPoolExecutor lane : lanes) {
+			depth += lane.getQueue().size();
+		}
+		return depth;
+	}
+
+	/**
+	 * @return the amount of messages which have been handled
+	 */
+	public long getHandledCount() {
+		return handledCount.get();
+	}
+
+	/**
+	 * @return the amount of messages which were refused because their lane was full
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * @return the average time in nanoseconds taken to handle a message, or 0 if none have been handled
+	 */
+	public long getAverageLatencyNanos() {
+		long handled = handledCount.get();
+		return handled == 0 ? 0 : totalLatencyNanos.get() / handled;
+	}
+
+	/**
+	 * @return the longest time in nanoseconds taken to handle a message
+	 */
+	public long getMaxLatencyNanos() {
+		return maxLatencyNanos.get();
+	}
+
+	/**
+	 * Stops accepting messages, letting those already queued finish
+	 */
+	public void shutdown() {
+		for (ThreadPoolExecutor lane : lanes) {
+			lane.shutdown();
+		}
+	}
+
+}
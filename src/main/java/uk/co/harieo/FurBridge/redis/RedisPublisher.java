@@ -0,0 +1,271 @@
+package uk.co.harieo.FurBridge.redis;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisException;
+import uk.co.harieo.FurBridge.redis.codec.CodecNegotiator;
+import uk.co.harieo.FurBridge.redis.codec.RedisCodec;
+import uk.co.harieo.FurBridge.redis.messages.RedisMessage;
+
+/**
+ * Publishes messages from a queue on its own thread, so that publishing never waits on Redis on the thread which
+ * published. The thread holds one connection for as long as it works and sends every message waiting in the queue
+ * together in a pipeline, so a burst of messages costs one round trip rather than one each.
+ * <p>
+ * The queue is bounded. Once it is full, messages are published on the thread which published them instead, which
+ * slows that thread down rather than dropping messages or using more memory.
+ */
+public class RedisPublisher {
+
+	private static final int QUEUE_CAPACITY = 8192;
+	private static final int BATCH_SIZE = 256;
+	private static final byte[] CHANNEL_BYTES = RedisClient.CHANNEL.getBytes(StandardCharsets.UTF_8);
+	private static final RedisPublisher instance = new RedisPublisher();
+
+	private final BlockingQueue<PendingMessage> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+	private Thread publisherThread;
+	private volatile boolean isShutdown;
+	private Jedis jedis; // Only used by the publisher thread
+
+	private RedisPublisher() { }
+
+	/**
+	 * @return the publisher for this server
+	 */
+	public static RedisPublisher getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Queues a message to be published, which shouldn't be edited afterwards
+	 *
+	 * @param message to be published
+	 * @return a future of the amount of subscribers which received the message, or 0 if it was appended to the stream
+	 * of {@link RedisStreamTransport} where the readers aren't known, which fails if it couldn't be published
+	 */
+	public CompletableFuture<Long> publish(RedisMessage message) {
+		PendingMessage pending = new PendingMessage(message);
+		if (isShutdown) {
+			pending.future.completeExceptionally(new RejectedExecutionException("The Redis publisher has shut down"));
+			return pending.future;
+		}
+
+		startIfStopped();
+		if (!queue.offer(pending)) { // Full, so publish here to hold back the thread which is publishing so much
+			try (Jedis callerJedis = RedisClient.getPublishResource()) {
+				if (RedisStreamTransport.isEnabled()) {
+					RedisStreamTransport.append(callerJedis, message);
+					pending.future.complete(0L);
+				} else {
+					pending.future.complete(callerJedis
+							.publish(CHANNEL_BYTES, message.encode(CodecNegotiator.getPublishCodec(callerJedis))));
+				}
+			} catch (RuntimeException e) {
+				pending.future.completeExceptionally(e);
+			}
+		} else if (isShutdown && queue.remove(pending)) { // Shut down while queueing, so it may never be published
+			pending.future.completeExceptionally(new RejectedExecutionException("The Redis publisher has shut down"));
+		}
+		return pending.future;
+	}
+
+	/**
+	 * Starts the publisher thread if it hasn't been started
+	 */
+	private synchronized void startIfStopped() {
+		if (publisherThread == null && !isShutdown) {
+			publisherThread = new Thread(this::runPublisher, "FurBridge-RedisPublisher");
+			publisherThread.setDaemon(true);
+			publisherThread.start();
+		}
+	}
+
+	/**
+	 * Publishes queued messages in batches until this publisher is shut down and its queue is empty
+	 */
+	private void runPublisher() {
+		List<PendingMessage> batch = new ArrayList<>(BATCH_SIZE);
+		try {
+			while (!isShutdown || !queue.isEmpty()) {
+				PendingMessage first = queue.poll(100, TimeUnit.MILLISECONDS); // Wakes up to check for shutdown
+				if (first == null) {
+					continue;
+				}
+
+				batch.add(first);
+				queue.drainTo(batch, BATCH_SIZE - 1);
+				publishBatch(batch);
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			failQueued(e); // Only interrupted when shutting down took too long
+		} finally {
+			closeConnection();
+		}
+	}
+
+	/**
+	 * Publishes a batch in a single pipeline, trying once more on a new connection if the connection fails
+	 *
+	 * @param batch of messages to be published
+	 */
+	private void publishBatch(List<PendingMessage> batch) {
+		for (int attempt = 0; ; attempt++) {
+			try {
+				if (jedis == null) {
+					jedis = RedisClient.getPublishResource();
+				}
+
+				if (RedisStreamTransport.isEnabled()) {
+					appendBatch(batch);
+					return;
+				}
+
+				RedisCodec codec = CodecNegotiator.getPublishCodec(jedis); // Before the pipeline as it queries Redis
+				List<PendingMessage> encoded = new ArrayList<>(batch.size());
+				List<byte[]> encodedMessages = new ArrayList<>(batch.size());
+				for (PendingMessage pending : batch) {
+					if (pending.future.isDone()) {
+						continue; // Failed to encode in an earlier attempt
+					}
+
+					try {
+						encodedMessages.add(pending.message.encode(codec));
+						encoded.add(pending);
+					} catch (RuntimeException e) { // Only fails this message, and won't change by trying again
+						e.printStackTrace();
+						pending.future.completeExceptionally(e);
+					}
+				}
+
+				Pipeline pipeline = jedis.pipelined();
+				List<Response<Long>> responses = new ArrayList<>(encoded.size());
+				for (byte[] message : encodedMessages) {
+					responses.add(pipeline.publish(CHANNEL_BYTES, message));
+				}
+				pipeline.sync();
+
+				for (int i = 0; i < encoded.size(); i++) {
+					encoded.get(i).future.complete(responses.get(i).get());
+				}
+				return;
+			} catch (JedisException e) {
+				closeConnection(); // It may be broken, so take a new one
+				if (attempt > 0) {
+					e.printStackTrace();
+					for (PendingMessage pending : batch) {
+						pending.future.completeExceptionally(e); // Does nothing to those which already failed
+					}
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Appends a batch to the stream of {@link RedisStreamTransport} in a single pipeline
+	 *
+	 * @param batch of messages to be appended
+	 */
+	private void appendBatch(List<PendingMessage> batch) {
+		Pipeline pipeline = jedis.pipelined();
+		List<PendingMessage> appended = new ArrayList<>(batch.size());
+		for (PendingMessage pending : batch) {
+			if (pending.future.isDone()) {
+				continue; // Failed to encode in an earlier attempt
+			}
+
+			try {
+				RedisStreamTransport.append(pipeline, pending.message);
+				appended.add(pending);
+			} catch (RuntimeException e) { // Only fails this message, and won't change by trying again
+				e.printStackTrace();
+				pending.future.completeExceptionally(e);
+			}
+		}
+		pipeline.sync();
+
+		for (PendingMessage pending : appended) {
+			pending.future.complete(0L); // The readers of a stream aren't known
+		}
+	}
+
+	/**
+	 * Returns the publisher thread's connection to its pool
+	 */
+	private void closeConnection() {
+		if (jedis != null) {
+			try {
+				jedis.close();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+			jedis = null;
+		}
+	}
+
+	/**
+	 * Fails every message which is still queued
+	 *
+	 * @param cause of the failure
+	 */
+	private void failQueued(Throwable cause) {
+		PendingMessage pending;
+		while ((pending = queue.poll()) != null) {
+			pending.future.completeExceptionally(cause);
+		}
+	}
+
+	/**
+	 * Stops accepting messages and waits for those already queued to be published
+	 *
+	 * @param timeoutMillis the longest time to wait for the queue to be flushed
+	 * @return whether every queued message was published in time, otherwise the rest have failed
+	 */
+	public boolean shutdown(long timeoutMillis) {
+		Thread thread;
+		synchronized (this) {
+			isShutdown = true;
+			thread = publisherThread;
+		}
+		if (thread == null) {
+			return true; // Nothing was ever published
+		}
+
+		try {
+			thread.join(timeoutMillis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (thread.isAlive()) {
+			thread.interrupt();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * A message waiting to be published with the future of its result
+	 */
+	private static class PendingMessage {
+
+		private final RedisMessage message;
+		private final CompletableFuture<Long> future = new CompletableFuture<>();
+
+		private PendingMessage(RedisMessage message) {
+			this.message = message;
+		}
+
+	}
+
+}
@@ -1,19 +1,43 @@
 package uk.co.harieo.FurBridge.redis;
 
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import redis.clients.jedis.BinaryJedisPubSub;
+import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPubSub;
+import uk.co.harieo.FurBridge.redis.codec.BinaryCodec;
+import uk.co.harieo.FurBridge.redis.codec.CodecNegotiator;
+import uk.co.harieo.FurBridge.redis.codec.JsonCodec;
+import uk.co.harieo.FurBridge.redis.codec.RedisCodec;
+import uk.co.harieo.FurBridge.redis.codec.RedisEnvelope;
 import uk.co.harieo.FurBridge.redis.listeners.RedisListener;
-import uk.co.harieo.FurBridge.redis.messages.RedisMessage;
 
+/**
+ * Receives messages from Redis and passes them to each {@link RedisListener} of their type. Subscribing this receiver
+ * directly only reads JSON messages, while {@link #subscribe(Jedis)} reads both JSON and binary messages and announces
+ * that this server can read binary messages to {@link CodecNegotiator}.
+ */
 public class RedisReceiver extends JedisPubSub {
 
 	private static final RedisReceiver instance = new RedisReceiver();
-	private static final List<RedisListener> listeners = new ArrayList<>();
+	private static final BinaryReceiver binaryInstance = new BinaryReceiver();
+	private static final byte[] CHANNEL_BYTES = RedisClient.CHANNEL.getBytes(StandardCharsets.UTF_8);
+	private static final byte[] CAPABILITY_CHANNEL_BYTES = CodecNegotiator.CAPABILITY_CHANNEL
+			.getBytes(StandardCharsets.UTF_8);
 
-	private final JsonParser parser = new JsonParser();
+	// Registered listeners by the message types they listen for, so a message only visits the listeners of its type
+	private static final Map<String, CopyOnWriteArrayList<RedisListener>> listeners = new ConcurrentHashMap<>();
+	// The types which have at least one listener, which the codecs check before decoding anything of a message
+	private static volatile String[] listenedTypes = new String[0];
 
 	private RedisReceiver() { }
 
@@ -21,15 +45,9 @@ public class RedisReceiver extends JedisPubSub {
 	public void onMessage(String channel, String message) {
 		try {
 			if (channel.equals(RedisClient.CHANNEL)) {
-				JsonObject json = parser.parse(message).getAsJsonObject();
-				String messageType = json.get(RedisMessage.messageTypeKey).getAsString();
-
-				for (RedisListener listener : listeners) { // Loop through registered listeners
-					if (listener.listeningFor().contains(messageType)) { // If the listener is listening for this type
-						int messageVersion = json.get(RedisMessage.versionKey).getAsInt();
-						JsonObject messageBody = json.get(RedisMessage.messageBodyKey).getAsJsonObject();
-						listener.onMessage(messageType, messageVersion, messageBody); // Call implementation
-					}
+				RedisEnvelope envelope = JsonCodec.getInstance().decode(message, listenedTypes);
+				if (envelope != null) {
+					dispatch(envelope);
 				}
 			}
 		} catch (Exception e) {
@@ -38,16 +56,157 @@ public class RedisReceiver extends JedisPubSub {
 	}
 
 	/**
-	 * Registers a listener of specified message types with custom implementations
+	 * Passes a message to each listener of its type, only decoding its body if there is at least one
+	 *
+	 * @param envelope of the received message
+	 */
+	static void dispatch(RedisEnvelope envelope) {
+		dispatch(envelope, false);
+	}
+
+	/**
+	 * Passes a message to each listener of its type in the same way as {@link #dispatch(RedisEnvelope)}. This is also
+	 * used by {@link RedisStreamTransport} for messages read from a stream, which are handled inline so that they are
+	 * only acknowledged once they have been handled.
+	 *
+	 * @param envelope of the received message
+	 * @param isInline whether to handle the message on this thread for every listener, ignoring their dispatchers
+	 */
+	static void dispatch(RedisEnvelope envelope, boolean isInline) {
+		String messageType = envelope.getMessageType();
+		List<RedisListener> typeListeners = listeners.get(messageType);
+		if (typeListeners == null || typeListeners.isEmpty()) {
+			return; // Nothing is listening for this type
+		}
+
+		int messageVersion = envelope.getVersion();
+		JsonObject messageBody = envelope.body();
+		for (RedisListener listener : typeListeners) {
+			try {
+				RedisDispatcher dispatcher = isInline ? null : listener.getDispatcher();
+				if (dispatcher == null) {
+					listener.onMessage(messageType, messageVersion, messageBody); // Call implementation
+				} else if (!dispatcher.dispatch(listener.getOrderingKey(messageType, messageBody),
+						() -> listener.onMessage(messageType, messageVersion, messageBody))) {
+					listener.onDropped(messageType, messageVersion, messageBody); // Recovers rather than losing it
+				}
+			} catch (Exception e) {
+				e.printStackTrace(); // Don't let one listener stop the others receiving the message
+			}
+		}
+	}
+
+	/**
+	 * Tells every registered listener once that messages may have been missed, through
+	 * {@link RedisListener#onMessagesMissed()}
+	 */
+	static void notifyMessagesMissed() {
+		Set<RedisListener> notified = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (List<RedisListener> typeListeners : listeners.values()) {
+			for (RedisListener listener : typeListeners) {
+				if (notified.add(listener)) { // A listener of several types is only told once
+					try {
+						listener.onMessagesMissed();
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Registers a listener of specified message types with custom implementations. The listener is indexed by the types
+	 * in {@link RedisListener#listeningFor()} at the time of registration, so changes to those types afterwards are
+	 * ignored unless the listener is registered again. Registering a listener more than once has no further effect.
 	 *
 	 * @param listener to be registered
 	 */
-	public static void registerListener(RedisListener listener) {
-		listeners.add(listener);
+	public static synchronized void registerListener(RedisListener listener) {
+		for (String messageType : listener.listeningFor()) {
+			listeners.computeIfAbsent(messageType, type -> new CopyOnWriteArrayList<>()).addIfAbsent(listener);
+		}
+		updateListenedTypes();
+	}
+
+	/**
+	 * Unregisters a listener so that it receives no further messages of any type
+	 *
+	 * @param listener to be unregistered
+	 */
+	public static synchronized void unregisterListener(RedisListener listener) {
+		for (List<RedisListener> typeListeners : listeners.values()) {
+			typeListeners.remove(listener);
+		}
+		updateListenedTypes();
+	}
+
+	/**
+	 * Rebuilds the types which have at least one listener after the registered listeners have changed
+	 */
+	private static void updateListenedTypes() {
+		List<String> types = new ArrayList<>();
+		for (Map.Entry<String, CopyOnWriteArrayList<RedisListener>> entry : listeners.entrySet()) {
+			if (!entry.getValue().isEmpty()) {
+				types.add(entry.getKey());
+			}
+		}
+		listenedTypes = types.toArray(new String[0]);
+	}
+
+	/**
+	 * @return the types which have at least one listener, which must not be modified
+	 */
+	static String[] getListenedTypes() {
+		return listenedTypes;
+	}
+
+	/**
+	 * Subscribes to messages in both the JSON and binary formats, blocking the calling thread until unsubscribed with
+	 * {@link #getBinaryInstance()}
+	 *
+	 * @param jedis connection to subscribe with, which can't be used for anything else while subscribed
+	 */
+	public static void subscribe(Jedis jedis) {
+		jedis.subscribe(binaryInstance, CHANNEL_BYTES, CAPABILITY_CHANNEL_BYTES);
 	}
 
+	/**
+	 * @return the receiver which only reads JSON messages
+	 */
 	public static RedisReceiver getInstance() {
 		return instance;
 	}
 
+	/**
+	 * @return the receiver which reads both JSON and binary messages
+	 */
+	public static BinaryJedisPubSub getBinaryInstance() {
+		return binaryInstance;
+	}
+
+	/**
+	 * Reads messages as bytes so that binary messages reach their codec intact, telling the formats apart by their
+	 * first byte
+	 */
+	private static class BinaryReceiver extends BinaryJedisPubSub {
+
+		@Override
+		public void onMessage(byte[] channel, byte[] message) {
+			try {
+				if (Arrays.equals(channel, CHANNEL_BYTES)) {
+					RedisCodec codec = BinaryCodec.getInstance().canDecode(message) ? BinaryCodec.getInstance()
+							: JsonCodec.getInstance();
+					RedisEnvelope envelope = codec.decode(message, listenedTypes);
+					if (envelope != null) { // Otherwise nothing listens for its type
+						dispatch(envelope);
+					}
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+
+	}
+
 }
@@ -0,0 +1,297 @@
+package uk.co.harieo.FurBridge.redis;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.StreamEntry;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.StreamGroupInfo;
+import redis.clients.jedis.StreamInfo;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import uk.co.harieo.FurBridge.redis.codec.JsonCodec;
+import uk.co.harieo.FurBridge.redis.codec.RedisEnvelope;
+import uk.co.harieo.FurBridge.redis.listeners.RedisListener;
+import uk.co.harieo.FurBridge.redis.messages.RedisMessage;
+
+/**
+ * An alternative to publishing messages over pub/sub which appends them to a Redis stream instead, so that a server
+ * which is restarting or briefly disconnected receives the messages it missed rather than losing them. Each server
+ * reads the stream through its own consumer group, named after the server, so every server receives every message and
+ * Redis remembers how far each server has read. The stream is trimmed to roughly {@link #MAX_LENGTH} messages, which is
+ * how far behind a server can fall before it misses messages. Each time this server connects, it checks whether
+ * messages it never read have been trimmed, in which case every {@link RedisListener} is told through
+ * {@link RedisListener#onMessagesMissed()} so that it can load what those messages would have updated.
+ * <p>
+ * Once {@link #start(String)} has been called, {@link RedisMessage#publish()} and {@link RedisPublisher} append to the
+ * stream and messages are passed to each {@link RedisListener} as they would be from pub/sub. Every server should be
+ * switched at the same time, as servers using pub/sub won't receive messages appended to the stream.
+ * <p>
+ * Messages are handled on the reader thread by every listener, ignoring any {@link RedisDispatcher}, and are only
+ * acknowledged once they have been handled, so a message which was read but not handled before a crash is read again
+ * on restart.
+ */
+public class RedisStreamTransport {
+
+	public static final String STREAM_KEY = RedisClient.CHANNEL + ":stream";
+	public static final String DATA_FIELD = "data";
+	public static final long MAX_LENGTH = 10000;
+
+	private static final int READ_COUNT = 100;
+	private static final int MAX_BLOCK_MILLIS = 2000;
+	private static final long MIN_RECONNECT_MILLIS = 1000;
+	private static final long MAX_RECONNECT_MILLIS = 30000;
+
+	private static volatile String nodeName; // Null unless this transport has been started
+	private static Thread readerThread;
+
+	/**
+	 * Starts appending messages to the stream and reading them from it, resuming from where this server last read
+	 *
+	 * @param serverName which names this server's consumer group, so must be the same each time the server starts and
+	 * unique to the server
+	 */
+	public static synchronized void start(String serverName) {
+		if (readerThread != null) {
+			return; // Already started
+		}
+
+		nodeName = serverName;
+		readerThread = new Thread(RedisStreamTransport::runReader, "FurBridge-RedisStream");
+		readerThread.setDaemon(true);
+		readerThread.start();
+	}
+
+	/**
+	 * Stops reading from the stream. Messages published afterwards are still appended to the stream, and are read
+	 * once this server starts again.
+	 */
+	public static synchronized void stop() {
+		if (readerThread != null) {
+			readerThread.interrupt();
+			readerThread = null;
+		}
+	}
+
+	/**
+	 * @return whether messages are published to the stream rather than over pub/sub
+	 */
+	public static boolean isEnabled() {
+		return nodeName != null;
+	}
+
+	/**
+	 * Appends a message to the stream
+	 *
+	 * @param jedis to append with
+	 * @param message to be appended
+	 * @return the id of the appended message
+	 */
+	public static StreamEntryID append(Jedis jedis, RedisMessage message) {
+		return jedis.xadd(STREAM_KEY, StreamEntryID.NEW_ENTRY, toFields(message), MAX_LENGTH, true);
+	}
+
+	/**
+	 * Appends a message to the stream as part of a pipeline
+	 *
+	 * @param pipeline to append with
+	 * @param message to be appended
+	 * @return the response which will hold the id of the appended message
+	 */
+	public static Response<StreamEntryID> append(Pipeline pipeline, RedisMessage message) {
+		return pipeline.xadd(STREAM_KEY, StreamEntryID.NEW_ENTRY, toFields(message), MAX_LENGTH, true);
+	}
+
+	/**
+	 * @param message to be appended
+	 * @return the fields of the stream entry for the message, which is always JSON as entries are read as strings
+	 */
+	private static Map<String, String> toFields(RedisMessage message) {
+		return Collections.singletonMap(DATA_FIELD,
+				new String(message.encode(JsonCodec.getInstance()), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Reads from the stream until stopped, reconnecting with an increasing delay whenever the connection fails
+	 */
+	private static void runReader() {
+		long reconnectMillis = MIN_RECONNECT_MILLIS;
+		while (!Thread.currentThread().isInterrupted()) {
+			try (Jedis jedis = RedisClient.getSubscribeResource()) {
+				if (!createGroup(jedis) && hasMissedMessages(jedis)) {
+					System.out.println("Messages were trimmed from the Redis stream before this server read them");
+					RedisReceiver.notifyMessagesMissed();
+				}
+				readPending(jedis);
+				reconnectMillis = MIN_RECONNECT_MILLIS; // Connected, so the next failure starts waiting from scratch
+				readNew(jedis);
+			} catch (JedisConnectionException e) {
+				System.out.println("Lost connection to the Redis stream, reconnecting in " + reconnectMillis + "ms");
+				try {
+					Thread.sleep(reconnectMillis);
+				} catch (InterruptedException interrupted) {
+					return;
+				}
+				reconnectMillis = Math.min(reconnectMillis * 2, MAX_RECONNECT_MILLIS);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+				try {
+					Thread.sleep(MAX_RECONNECT_MILLIS); // Unlikely to be fixed by trying again straight away
+				} catch (InterruptedException interrupted) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates this server's consumer group if it doesn't exist, starting from the end of the stream as a new server
+	 * loads everything it needs from the database
+	 *
+	 * @param jedis to create the group with
+	 * @return whether the group was created, otherwise it already existed
+	 */
+	private static boolean createGroup(Jedis jedis) {
+		try {
+			jedis.xgroupCreate(STREAM_KEY, nodeName, StreamEntryID.LAST_ENTRY, true);
+			return true;
+		} catch (JedisDataException e) {
+			if (e.getMessage() == null || !e.getMessage().startsWith("BUSYGROUP")) {
+				throw e;
+			}
+			return false; // The group already exists and remembers where this server last read
+		}
+	}
+
+	/**
+	 * Checks whether messages which were never delivered to this server's group have been trimmed from the stream,
+	 * which is the case if the oldest message left is newer than the last message delivered to the group. This is also
+	 * true if the stream was trimmed exactly up to the last delivered message, as the two can't be told apart, which
+	 * only costs the listeners an unneeded reload.
+	 *
+	 * @param jedis to check with
+	 * @return whether messages may have been missed
+	 */
+	private static boolean hasMissedMessages(Jedis jedis) {
+		StreamEntryID lastDeliveredId = null;
+		for (StreamGroupInfo group : jedis.xinfoGroup(STREAM_KEY)) {
+			if (nodeName.equals(group.getName())) {
+				lastDeliveredId = group.getLastDeliveredId();
+				break;
+			}
+		}
+
+		StreamInfo stream = jedis.xinfoStream(STREAM_KEY);
+		StreamEntry firstEntry = stream == null ? null : stream.getFirstEntry();
+		return lastDeliveredId != null && firstEntry != null && firstEntry.getID().compareTo(lastDeliveredId) > 0;
+	}
+
+	/**
+	 * Handles the messages which were read by this server before it stopped but never acknowledged
+	 *
+	 * @param jedis to read with
+	 */
+	private static void readPending(Jedis jedis) {
+		StreamEntryID lastId = new StreamEntryID(); // The start of this server's pending messages
+		List<StreamEntry> entries;
+		boolean hasMissedMessages = false;
+		while (!(entries = read(jedis, lastId, 0)).isEmpty()) {
+			hasMissedMessages |= !handle(jedis, entries);
+			lastId = entries.get(entries.size() - 1).getID();
+		}
+
+		if (hasMissedMessages) {
+			System.out.println("Messages were trimmed from the Redis stream before this server handled them");
+			RedisReceiver.notifyMessagesMissed();
+		}
+	}
+
+	/**
+	 * Handles new messages as they are appended until this thread is interrupted
+	 *
+	 * @param jedis to read with
+	 */
+	private static void readNew(Jedis jedis) {
+		int blockMillis = getBlockMillis();
+		while (!Thread.currentThread().isInterrupted()) {
+			handle(jedis, read(jedis, StreamEntryID.UNRECEIVED_ENTRY, blockMillis));
+		}
+	}
+
+	/**
+	 * @return how long to wait for new messages, which is well within the socket timeout of the connection so that
+	 * waiting is never mistaken for a lost connection
+	 */
+	private static int getBlockMillis() {
+		int timeout = RedisClient.getTimeout();
+		return timeout <= 0 ? MAX_BLOCK_MILLIS : Math.max(1, Math.min(MAX_BLOCK_MILLIS, timeout / 2)); // 0 is forever
+	}
+
+	/**
+	 * Reads a batch of messages through this server's consumer group
+	 *
+	 * @param jedis to read with
+	 * @param fromId to read after, which is either the start of this server's pending messages or only new messages
+	 * @param blockMillis to wait for new messages, or 0 to not wait
+	 * @return the messages which were read
+	 */
+	@SuppressWarnings("unchecked")
+	private static List<StreamEntry> read(Jedis jedis, StreamEntryID fromId, int blockMillis) {
+		List<Map.Entry<String, List<StreamEntry>>> streams = jedis.xreadGroup(nodeName, nodeName, READ_COUNT,
+				blockMillis, false, new AbstractMap.SimpleImmutableEntry<>(STREAM_KEY, fromId));
+		if (streams == null || streams.isEmpty() || streams.get(0).getValue() == null) {
+			return Collections.emptyList(); // Nothing arrived in time
+		}
+		return streams.get(0).getValue();
+	}
+
+	/**
+	 * Passes each message to its listeners on this thread and then acknowledges them all, including any which couldn't
+	 * be handled so that they aren't read again forever
+	 *
+	 * @param jedis to acknowledge with
+	 * @param entries which were read
+	 * @return whether every message was still in the stream, otherwise pending messages were trimmed before they were
+	 * handled
+	 */
+	private static boolean handle(Jedis jedis, List<StreamEntry> entries) {
+		if (entries.isEmpty()) {
+			return true;
+		}
+
+		boolean isComplete = true;
+
+		StreamEntryID[] ids = new StreamEntryID[entries.size()];
+		for (int i = 0; i < entries.size(); i++) {
+			StreamEntry entry = entries.get(i);
+			ids[i] = entry.getID();
+
+			if (entry.getFields() == null) {
+				isComplete = false; // Trimmed from the stream while pending
+				continue;
+			}
+
+			String data = entry.getFields().get(DATA_FIELD);
+			if (data == null) {
+				continue; // Not a message
+			}
+
+			try {
+				RedisEnvelope envelope = JsonCodec.getInstance().decode(data, RedisReceiver.getListenedTypes());
+				if (envelope != null) { // Otherwise nothing listens for its type, but it is still acknowledged
+					RedisReceiver.dispatch(envelope, true);
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		jedis.xack(STREAM_KEY, nodeName, ids);
+		return isComplete;
+	}
+
+}
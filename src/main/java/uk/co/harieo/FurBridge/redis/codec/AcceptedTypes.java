@@ -0,0 +1,83 @@
+package uk.co.harieo.FurBridge.redis.codec;
+
+/**
+ * Compares the type of a received message against the types which are listened for without creating a string of the
+ * type, so that a message nobody listens to can be dropped before anything is allocated for it
+ */
+final class AcceptedTypes {
+
+	private AcceptedTypes() { }
+
+	/**
+	 * @param acceptedTypes which are listened for
+	 * @param messageType of the message
+	 * @return whether the type is one of the accepted types
+	 */
+	static boolean contains(String[] acceptedTypes, String messageType) {
+		for (String acceptedType : acceptedTypes) {
+			if (acceptedType.equals(messageType)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param acceptedTypes which are listened for
+	 * @param message holding the type
+	 * @param start of the type in the message, inclusive
+	 * @param end of the type in the message, exclusive
+	 * @return whether the type is one of the accepted types
+	 */
+	static boolean contains(String[] acceptedTypes, String message, int start, int end) {
+		int length = end - start;
+		for (String acceptedType : acceptedTypes) {
+			if (acceptedType.length() == length && message.regionMatches(start, acceptedType, 0, length)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks a type held as UTF-8, which can only be compared byte by byte if it is ASCII
+	 *
+	 * @param acceptedTypes which are listened for
+	 * @param message holding the type
+	 * @param start of the type in the message, inclusive
+	 * @param end of the type in the message, exclusive
+	 * @return whether the type is one of the accepted types, which is always true if the type isn't ASCII so that it
+	 * is decoded and compared as a string instead
+	 */
+	static boolean mayContain(String[] acceptedTypes, byte[] message, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (message[i] < 0) {
+				return true; // Not ASCII
+			}
+		}
+
+		int length = end - start;
+		for (String acceptedType : acceptedTypes) {
+			if (acceptedType.length() == length && matches(acceptedType, message, start)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param type to compare, which is the same length as the region
+	 * @param message holding ASCII bytes
+	 * @param start of the region in the message
+	 * @return whether every character of the type equals the byte in the same position of the region
+	 */
+	private static boolean matches(String type, byte[] message, int start) {
+		for (int i = 0; i < type.length(); i++) {
+			if (type.charAt(i) != message[start + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,306 @@
+package uk.co.harieo.FurBridge.redis.codec;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * A compact binary format for messages, which starts with a byte that can't begin a JSON message so that servers
+ * which read both formats can tell them apart. The envelope is:
+ * <pre>
+ * magic byte, format version, type (length-prefixed UTF-8), message version, body length, body
+ * </pre>
+ * where every length and the message version is an unsigned variable length integer. The body is a JSON object
+ * encoded as a tagged tree, and its length prefix lets the type and version be read without decoding it.
+ * <p>
+ * Servers which only read JSON can't read this format, so it should only be published once every subscriber has
+ * announced it can read it, which {@link CodecNegotiator} checks.
+ */
+public class BinaryCodec implements RedisCodec {
+
+	public static final byte MAGIC = (byte) 0xFB; // Not valid as the first byte of UTF-8 text
+	public static final byte FORMAT_VERSION = 1;
+
+	private static final byte TAG_NULL = 0;
+	private static final byte TAG_FALSE = 1;
+	private static final byte TAG_TRUE = 2;
+	private static final byte TAG_LONG = 3; // Zigzag encoded so small negative numbers stay small
+	private static final byte TAG_DOUBLE = 4;
+	private static final byte TAG_STRING = 5;
+	private static final byte TAG_ARRAY = 6;
+	private static final byte TAG_OBJECT = 7;
+	private static final byte TAG_DECIMAL = 8; // Any other number, kept exactly as its string form
+
+	private static final BinaryCodec instance = new BinaryCodec();
+
+	private BinaryCodec() { }
+
+	@Override
+	public byte[] encode(String messageType, int version, JsonObject body) {
+		ByteArrayOutputStream bodyStream = new ByteArrayOutputStream();
+		writeElement(bodyStream, body);
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream(bodyStream.size() + messageType.length() + 16);
+		stream.write(MAGIC);
+		stream.write(FORMAT_VERSION);
+		writeString(stream, messageType);
+		writeVarLong(stream, version);
+		writeVarLong(stream, bodyStream.size());
+		stream.write(bodyStream.toByteArray(), 0, bodyStream.size());
+		return stream.toByteArray();
+	}
+
+	@Override
+	public boolean canDecode(byte[] message) {
+		return message.length > 0 && message[0] == MAGIC;
+	}
+
+	@Override
+	public RedisEnvelope decode(byte[] message) {
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(message);
+			if (buffer.get() != MAGIC) {
+				throw new IllegalArgumentException("Not a binary Redis message");
+			}
+
+			byte formatVersion = buffer.get();
+			if (formatVersion != FORMAT_VERSION) {
+				throw new IllegalArgumentException("Unsupported binary Redis message format " + formatVersion);
+			}
+
+			String messageType = readString(buffer);
+			int version = (int) readVarLong(buffer);
+			int bodyLength = (int) readVarLong(buffer);
+			if (bodyLength > buffer.remaining()) {
+				throw new IllegalArgumentException("Truncated binary Redis message");
+			}
+
+			ByteBuffer bodyBuffer = buffer.slice();
+			bodyBuffer.limit(bodyLength);
+			return new RedisEnvelope(messageType, version, () -> {
+				try {
+					return readElement(bodyBuffer).getAsJsonObject();
+				} catch (RuntimeException e) {
+					throw new IllegalArgumentException("Malformed binary Redis message body", e);
+				}
+			});
+		} catch (RuntimeException e) {
+			if (e instanceof IllegalArgumentException) {
+				throw e;
+			}
+			throw new IllegalArgumentException("Malformed binary Redis message", e);
+		}
+	}
+
+	/**
+	 * Decodes a message in the same way as {@link #decode(byte[])} unless its type isn't one of the given types, which
+	 * is checked in place so that a message nobody listens to is dropped without allocating anything
+	 *
+	 * @param message which has been received from Redis
+	 * @param acceptedTypes which are listened for
+	 * @return the decoded envelope of the message or null if nothing listens for its type
+	 * @throws IllegalArgumentException if the message is malformed
+	 */
+	@Override
+	public RedisEnvelope decode(byte[] message, String[] acceptedTypes) {
+		if (message.length > 2 && message[0] == MAGIC && message[1] == FORMAT_VERSION) {
+			int length = 0;
+			int start = 2;
+			for (int shift = 0; start < message.length && shift < 32; shift += 7) {
+				byte b = message[start++];
+				length |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					int end = start + length;
+					if (length >= 0 && end <= message.length
+							&& !AcceptedTypes.mayContain(acceptedTypes, message, start, end)) {
+						return null; // Nobody listens for this type
+					}
+					break;
+				}
+			}
+		}
+
+		RedisEnvelope envelope = decode(message); // Anything unexpected is reported by the full decode
+		return AcceptedTypes.contains(acceptedTypes, envelope.getMessageType()) ? envelope : null;
+	}
+
+	/**
+	 * Writes a JSON element with its tag
+	 *
+	 * @param stream to write to
+	 * @param element to be written
+	 */
+	private static void writeElement(ByteArrayOutputStream stream, JsonElement element) {
+		if (element == null || element.isJsonNull()) {
+			stream.write(TAG_NULL);
+		} else if (element.isJsonObject()) {
+			stream.write(TAG_OBJECT);
+			writeVarLong(stream, element.getAsJsonObject().size());
+			for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+				writeString(stream, entry.getKey());
+				writeElement(stream, entry.getValue());
+			}
+		} else if (element.isJsonArray()) {
+			stream.write(TAG_ARRAY);
+			writeVarLong(stream, element.getAsJsonArray().size());
+			for (JsonElement child : element.getAsJsonArray()) {
+				writeElement(stream, child);
+			}
+		} else {
+			JsonPrimitive primitive = element.getAsJsonPrimitive();
+			if (primitive.isBoolean()) {
+				stream.write(primitive.getAsBoolean() ? TAG_TRUE : TAG_FALSE);
+			} else if (primitive.isString()) {
+				stream.write(TAG_STRING);
+				writeString(stream, primitive.getAsString());
+			} else {
+				writeNumber(stream, primitive.getAsNumber());
+			}
+		}
+	}
+
+	/**
+	 * Writes a number with the smallest tag which keeps it exact
+	 *
+	 * @param stream to write to
+	 * @param number to be written
+	 */
+	private static void writeNumber(ByteArrayOutputStream stream, Number number) {
+		if (number instanceof Double || number instanceof Float) {
+			stream.write(TAG_DOUBLE);
+			long bits = Double.doubleToRawLongBits(number.doubleValue());
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				stream.write((int) (bits >>> shift));
+			}
+			return;
+		}
+
+		String text = number.toString(); // Parsed numbers are only known by their text
+		try {
+			long value = Long.parseLong(text);
+			stream.write(TAG_LONG);
+			writeVarLong(stream, (value << 1) ^ (value >> 63));
+		} catch (NumberFormatException e) {
+			stream.write(TAG_DECIMAL);
+			writeString(stream, text);
+		}
+	}
+
+	/**
+	 * Reads a JSON element with its tag
+	 *
+	 * @param buffer to read from
+	 * @return the element which was read
+	 */
+	private static JsonElement readElement(ByteBuffer buffer) {
+		byte tag = buffer.get();
+		switch (tag) {
+			case TAG_NULL:
+				return JsonNull.INSTANCE;
+			case TAG_FALSE:
+				return new JsonPrimitive(false);
+			case TAG_TRUE:
+				return new JsonPrimitive(true);
+			case TAG_LONG:
+				long zigzag = readVarLong(buffer);
+				return new JsonPrimitive((zigzag >>> 1) ^ -(zigzag & 1));
+			case TAG_DOUBLE:
+				return new JsonPrimitive(Double.longBitsToDouble(buffer.getLong()));
+			case TAG_STRING:
+				return new JsonPrimitive(readString(buffer));
+			case TAG_DECIMAL:
+				return new JsonPrimitive(new BigDecimal(readString(buffer)));
+			case TAG_ARRAY:
+				long length = readVarLong(buffer);
+				JsonArray array = new JsonArray();
+				for (long i = 0; i < length; i++) {
+					array.add(readElement(buffer));
+				}
+				return array;
+			case TAG_OBJECT:
+				long size = readVarLong(buffer);
+				JsonObject object = new JsonObject();
+				for (long i = 0; i < size; i++) {
+					String key = readString(buffer);
+					object.add(key, readElement(buffer));
+				}
+				return object;
+			default:
+				throw new IllegalArgumentException("Unknown binary Redis message tag " + tag);
+		}
+	}
+
+	/**
+	 * Writes a string as UTF-8 with its length
+	 *
+	 * @param stream to write to
+	 * @param value to be written
+	 */
+	private static void writeString(ByteArrayOutputStream stream, String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeVarLong(stream, bytes.length);
+		stream.write(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Reads a string which was written by {@link #writeString(ByteArrayOutputStream, String)}
+	 *
+	 * @param buffer to read from
+	 * @return the string which was read
+	 */
+	private static String readString(ByteBuffer buffer) {
+		int length = (int) readVarLong(buffer);
+		if (length < 0 || length > buffer.remaining()) {
+			throw new IllegalArgumentException("Truncated binary Redis message");
+		}
+
+		String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+				StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + length);
+		return value;
+	}
+
+	/**
+	 * Writes an unsigned integer in 7 bit groups, least significant first, with the high bit set on all but the last
+	 *
+	 * @param stream to write to
+	 * @param value to be written
+	 */
+	private static void writeVarLong(ByteArrayOutputStream stream, long value) {
+		while ((value & ~0x7FL) != 0) {
+			stream.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		stream.write((int) value);
+	}
+
+	/**
+	 * Reads an unsigned integer which was written by {@link #writeVarLong(ByteArrayOutputStream, long)}
+	 *
+	 * @param buffer to read from
+	 * @return the integer which was read
+	 */
+	private static long readVarLong(ByteBuffer buffer) {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed variable length integer in binary Redis message");
+	}
+
+	public static BinaryCodec getInstance() {
+		return instance;
+	}
+
+}
@@ -0,0 +1,73 @@
+package uk.co.harieo.FurBridge.redis.codec;
+
+import java.util.Map;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisException;
+import uk.co.harieo.FurBridge.redis.RedisClient;
+
+/**
+ * Chooses the codec which messages are published with, so that servers which read the binary format and servers which
+ * only read JSON can share a channel during a rolling upgrade. Every server which reads the binary format also
+ * subscribes to {@link #CAPABILITY_CHANNEL}, which nothing is published to, so the binary format is only used while
+ * every subscriber of {@link RedisClient#CHANNEL} is also subscribed to that channel.
+ * <p>
+ * The subscriber counts are checked at most once every {@link #CHECK_INTERVAL_MILLIS}, so a server which only reads
+ * JSON and subscribes within that time of a check may miss binary messages until the next one.
+ */
+public class CodecNegotiator {
+
+	public static final String CAPABILITY_CHANNEL = RedisClient.CHANNEL + ":binary-v" + BinaryCodec.FORMAT_VERSION;
+	public static final long CHECK_INTERVAL_MILLIS = 5000;
+
+	private static volatile RedisCodec preferredCodec = BinaryCodec.getInstance();
+	private static volatile boolean isBinarySupported;
+	private static volatile long lastCheck;
+
+	/**
+	 * Sets the codec which this server would rather publish with, which is the binary codec by default. The JSON codec
+	 * can be set to always publish JSON.
+	 *
+	 * @param codec to be preferred
+	 */
+	public static void setPreferredCodec(RedisCodec codec) {
+		preferredCodec = codec;
+	}
+
+	/**
+	 * Gets the codec to publish a message with, checking which codecs the subscribers can read if it hasn't been
+	 * checked recently
+	 *
+	 * @param jedis to check the subscriber counts with
+	 * @return the preferred codec if every subscriber can read it, otherwise the JSON codec
+	 */
+	public static RedisCodec getPublishCodec(Jedis jedis) {
+		RedisCodec codec = preferredCodec;
+		if (!(codec instanceof BinaryCodec)) {
+			return codec;
+		}
+
+		long now = System.currentTimeMillis();
+		if (now - lastCheck >= CHECK_INTERVAL_MILLIS) {
+			lastCheck = now;
+			isBinarySupported = checkBinarySupported(jedis);
+		}
+		return isBinarySupported ? codec : JsonCodec.getInstance();
+	}
+
+	/**
+	 * @param jedis to check the subscriber counts with
+	 * @return whether every subscriber of the message channel can read the binary format
+	 */
+	private static boolean checkBinarySupported(Jedis jedis) {
+		try {
+			Map<String, String> counts = jedis.pubsubNumSub(RedisClient.CHANNEL, CAPABILITY_CHANNEL);
+			long subscribers = Long.parseLong(counts.getOrDefault(RedisClient.CHANNEL, "0"));
+			long binarySubscribers = Long.parseLong(counts.getOrDefault(CAPABILITY_CHANNEL, "0"));
+			return subscribers > 0 && binarySubscribers >= subscribers;
+		} catch (JedisException | NumberFormatException e) {
+			e.printStackTrace();
+			return false; // JSON can always be read
+		}
+	}
+
+}
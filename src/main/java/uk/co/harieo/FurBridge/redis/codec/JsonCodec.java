@@ -0,0 +1,212 @@
+package uk.co.harieo.FurBridge.redis.codec;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import uk.co.harieo.FurBridge.redis.messages.RedisMessage;
+
+/**
+ * The original format of messages, which is a JSON object holding the type, version and body of the message and which
+ * every server can read. Messages are read with a pull parser which stops once it reaches the body, so long as the
+ * type and version come first as they do in messages encoded here, and the body is only parsed if it is needed.
+ */
+public class JsonCodec implements RedisCodec {
+
+	private static final JsonCodec instance = new JsonCodec();
+	// How every message encoded here starts, which lets the type be found without a parser
+	private static final String TYPE_PREFIX = "{\"" + RedisMessage.messageTypeKey + "\":\"";
+	private static final byte[] TYPE_PREFIX_BYTES = TYPE_PREFIX.getBytes(StandardCharsets.UTF_8);
+
+	private JsonCodec() { }
+
+	@Override
+	public byte[] encode(String messageType, int version, JsonObject body) {
+		return encodeToString(messageType, version, body).getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Encodes a message as a string, as published by servers which only read JSON
+	 *
+	 * @param messageType to identify the message when received
+	 * @param version of the message
+	 * @param body of the message
+	 * @return the encoded message
+	 */
+	public String encodeToString(String messageType, int version, JsonObject body) {
+		JsonObject messageJson = new JsonObject();
+		messageJson.addProperty(RedisMessage.messageTypeKey, messageType);
+		messageJson.addProperty(RedisMessage.versionKey, version);
+		messageJson.add(RedisMessage.messageBodyKey, body);
+		return messageJson.toString();
+	}
+
+	@Override
+	public boolean canDecode(byte[] message) {
+		return !BinaryCodec.getInstance().canDecode(message); // Anything else is assumed to be JSON
+	}
+
+	@Override
+	public RedisEnvelope decode(byte[] message) {
+		return decode(new InputStreamReader(new ByteArrayInputStream(message), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Decodes a message in the same way as {@link #decode(byte[])} unless its type isn't one of the given types. A
+	 * message which starts with its type, as every message encoded here does, is dropped without allocating anything
+	 * if nothing listens for its type.
+	 *
+	 * @param message which has been received from Redis
+	 * @param acceptedTypes which are listened for
+	 * @return the decoded envelope of the message or null if nothing listens for its type
+	 * @throws IllegalArgumentException if the message is malformed
+	 */
+	@Override
+	public RedisEnvelope decode(byte[] message, String[] acceptedTypes) {
+		int start = TYPE_PREFIX_BYTES.length;
+		if (startsWith(message, TYPE_PREFIX_BYTES)) {
+			for (int end = start; end < message.length; end++) {
+				if (message[end] == '"') {
+					if (!AcceptedTypes.mayContain(acceptedTypes, message, start, end)) {
+						return null; // Nobody listens for this type
+					}
+					break;
+				} else if (message[end] == '\\') {
+					break; // Escaped, so only the parser can read it
+				}
+			}
+		}
+
+		RedisEnvelope envelope = decode(message);
+		return AcceptedTypes.contains(acceptedTypes, envelope.getMessageType()) ? envelope : null;
+	}
+
+	/**
+	 * Decodes a message which has been received as a string in the same way as
+	 * {@link #decode(byte[], String[])}
+	 *
+	 * @param message which has been received from Redis
+	 * @param acceptedTypes which are listened for
+	 * @return the decoded envelope of the message or null if nothing listens for its type
+	 * @throws IllegalArgumentException if the message is malformed
+	 */
+	public RedisEnvelope decode(String message, String[] acceptedTypes) {
+		int start = TYPE_PREFIX.length();
+		if (message.startsWith(TYPE_PREFIX)) {
+			int end = message.indexOf('"', start);
+			if (end >= 0 && message.lastIndexOf('\\', end) < start // Escaped types can only be read by the parser
+					&& !AcceptedTypes.contains(acceptedTypes, message, start, end)) {
+				return null; // Nobody listens for this type
+			}
+		}
+
+		RedisEnvelope envelope = decode(message);
+		return AcceptedTypes.contains(acceptedTypes, envelope.getMessageType()) ? envelope : null;
+	}
+
+	/**
+	 * Decodes a message which has been received as a string
+	 *
+	 * @param message which has been received from Redis
+	 * @return the decoded envelope of the message
+	 * @throws IllegalArgumentException if the message is malformed
+	 */
+	public RedisEnvelope decode(String message) {
+		return decode(new StringReader(message));
+	}
+
+	/**
+	 * Reads the type and version of a message, leaving the reader at the start of the body if the body comes after
+	 * them so that it can be parsed later
+	 *
+	 * @param message reader of the received message
+	 * @return the decoded envelope of the message
+	 * @throws IllegalArgumentException if the message is malformed
+	 */
+	private RedisEnvelope decode(Reader message) {
+		try {
+			JsonReader reader = new JsonReader(message);
+			reader.setLenient(true); // As lenient as the parser which previously read every message
+
+			String messageType = null;
+			Integer version = null;
+			JsonObject body = null;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				if (name.equals(RedisMessage.messageTypeKey)) {
+					messageType = reader.nextString();
+				} else if (name.equals(RedisMessage.versionKey)) {
+					version = reader.nextInt();
+				} else if (name.equals(RedisMessage.messageBodyKey)) {
+					if (messageType != null && version != null) { // The rest of the message is only the body
+						return new RedisEnvelope(messageType, version, () -> parseBody(reader));
+					}
+					body = parseBody(reader); // Out of order, so the body has to be read to reach the header
+				} else {
+					reader.skipValue();
+				}
+			}
+
+			if (messageType == null || version == null || body == null) {
+				throw new IllegalArgumentException("JSON Redis message is missing its type, version or body");
+			}
+			JsonObject parsedBody = body;
+			return new RedisEnvelope(messageType, version, () -> parsedBody);
+		} catch (IOException | RuntimeException e) {
+			if (e instanceof IllegalArgumentException) {
+				throw (IllegalArgumentException) e;
+			}
+			throw new IllegalArgumentException("Malformed JSON Redis message", e);
+		}
+	}
+
+	/**
+	 * @param reader positioned at the start of a message body
+	 * @return the parsed body
+	 * @throws IllegalArgumentException if the body is malformed
+	 */
+	private static JsonObject parseBody(JsonReader reader) {
+		try {
+			JsonElement body = new JsonParser().parse(reader);
+			if (!body.isJsonObject()) {
+				throw new IllegalArgumentException("JSON Redis message body is not an object");
+			}
+			return body.getAsJsonObject();
+		} catch (RuntimeException e) {
+			if (e instanceof IllegalArgumentException) {
+				throw e;
+			}
+			throw new IllegalArgumentException("Malformed JSON Redis message body", e);
+		}
+	}
+
+	/**
+	 * @param message to check
+	 * @param prefix to look for
+	 * @return whether the message starts with the prefix
+	 */
+	private static boolean startsWith(byte[] message, byte[] prefix) {
+		if (message.length < prefix.length) {
+			return false;
+		}
+
+		for (int i = 0; i < prefix.length; i++) {
+			if (message[i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public static JsonCodec getInstance() {
+		return instance;
+	}
+
+}
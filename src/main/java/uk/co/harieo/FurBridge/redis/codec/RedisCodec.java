@@ -0,0 +1,46 @@
+package uk.co.harieo.FurBridge.redis.codec;
+
+import com.google.gson.JsonObject;
+
+public interface RedisCodec {
+
+	/**
+	 * Encodes a message to be published over Redis
+	 *
+	 * @param messageType to identify the message when received
+	 * @param version of the message
+	 * @param body of the message
+	 * @return the encoded message
+	 */
+	byte[] encode(String messageType, int version, JsonObject body);
+
+	/**
+	 * @param message which has been received from Redis
+	 * @return whether this codec encoded the message
+	 */
+	boolean canDecode(byte[] message);
+
+	/**
+	 * Decodes the type and version of a message, leaving the body to be decoded once it is needed
+	 *
+	 * @param message which has been received from Redis
+	 * @return the decoded envelope of the message
+	 * @throws IllegalArgumentException if the message is malformed
+	 */
+	RedisEnvelope decode(byte[] message);
+
+	/**
+	 * Decodes a message in the same way as {@link #decode(byte[])} unless its type isn't one of the given types, in
+	 * which case it is dropped after reading as little of it as possible
+	 *
+	 * @param message which has been received from Redis
+	 * @param acceptedTypes which are listened for
+	 * @return the decoded envelope of the message or null if nothing listens for its type
+	 * @throws IllegalArgumentException if the message is malformed
+	 */
+	default RedisEnvelope decode(byte[] message, String[] acceptedTypes) {
+		RedisEnvelope envelope = decode(message);
+		return AcceptedTypes.contains(acceptedTypes, envelope.getMessageType()) ? envelope : null;
+	}
+
+}
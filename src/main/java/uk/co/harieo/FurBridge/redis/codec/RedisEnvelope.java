@@ -0,0 +1,61 @@
+package uk.co.harieo.FurBridge.redis.codec;
+
+import com.google.gson.JsonObject;
+import java.util.function.Supplier;
+
+/**
+ * A message received from Redis whose type and version have been decoded but whose body is only decoded the first time
+ * it is requested, so that messages which no listener is interested in are never fully decoded
+ */
+public class RedisEnvelope {
+
+	private final String messageType;
+	private final int version;
+	private Supplier<JsonObject> bodyDecoder;
+	private volatile JsonObject body;
+
+	/**
+	 * @param messageType of the message
+	 * @param version of the message
+	 * @param bodyDecoder which decodes the body of the message, called at most once
+	 */
+	public RedisEnvelope(String messageType, int version, Supplier<JsonObject> bodyDecoder) {
+		this.messageType = messageType;
+		this.version = version;
+		this.bodyDecoder = bodyDecoder;
+	}
+
+	/**
+	 * @return the message type
+	 */
+	public String getMessageType() {
+		return messageType;
+	}
+
+	/**
+	 * @return the message version
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the body of the message, decoding it if it hasn't been already
+	 * @throws IllegalArgumentException if the body is malformed
+	 */
+	public JsonObject body() {
+		JsonObject decoded = body;
+		if (decoded == null) {
+			synchronized (this) {
+				decoded = body;
+				if (decoded == null) {
+					decoded = bodyDecoder.get();
+					body = decoded;
+					bodyDecoder = null; // Lets the encoded message be collected
+				}
+			}
+		}
+		return decoded;
+	}
+
+}
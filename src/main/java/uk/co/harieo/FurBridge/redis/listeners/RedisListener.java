@@ -2,11 +2,13 @@ package uk.co.harieo.FurBridge.redis.listeners;
 
 import com.google.gson.JsonObject;
 import java.util.Set;
+import uk.co.harieo.FurBridge.redis.RedisDispatcher;
 import uk.co.harieo.FurBridge.redis.RedisReceiver;
 
 public abstract class RedisListener {
 
 	private final Set<String> listeningFor;
+	private final RedisDispatcher dispatcher;
 
 	/**
 	 * A custom listener of specified message types, which will have {@link #onMessage(String, int, JsonObject)} called
@@ -15,7 +17,19 @@ public abstract class RedisListener {
 	 * @param toListenFor types of messages to listen for
 	 */
 	public RedisListener(Set<String> toListenFor) {
+		this(toListenFor, null);
+	}
+
+	/**
+	 * A custom listener of specified message types, which will have {@link #onMessage(String, int, JsonObject)} called
+	 * by the given dispatcher rather than on the thread which receives messages from Redis
+	 *
+	 * @param toListenFor types of messages to listen for
+	 * @param dispatcher to handle messages on, or null to handle them as they are received
+	 */
+	public RedisListener(Set<String> toListenFor, RedisDispatcher dispatcher) {
 		this.listeningFor = toListenFor;
+		this.dispatcher = dispatcher;
 		RedisReceiver.registerListener(this);
 	}
 
@@ -26,6 +40,48 @@ public abstract class RedisListener {
 		return listeningFor;
 	}
 
+	/**
+	 * @return the dispatcher which handles this listener's messages, or null if they are handled as they are received
+	 */
+	public RedisDispatcher getDispatcher() {
+		return dispatcher;
+	}
+
+	/**
+	 * Gets the key which orders a message when this listener has a dispatcher. Messages with equal keys are handled in
+	 * the order they were received, while messages with different keys may be handled at the same time. By default,
+	 * the message type is the key so that all messages of a type are handled in order.
+	 *
+	 * @param messageType of the received message
+	 * @param message body of the received message
+	 * @return the ordering key of the message
+	 */
+	public Object getOrderingKey(String messageType, JsonObject message) {
+		return messageType;
+	}
+
+	/**
+	 * Called on the thread which received a message when it couldn't be queued on this listener's dispatcher, because
+	 * the dispatcher's queue is full or it has been shut down. By default, the message is handled on that thread
+	 * instead so that it is never lost, which holds up every other message until it has been handled. Listeners which
+	 * can recover more cheaply, such as by invalidating what the message would have updated, should override this.
+	 *
+	 * @param messageType of the received message
+	 * @param version of the received message
+	 * @param message body of the received message
+	 */
+	public void onDropped(String messageType, int version, JsonObject message) {
+		onMessage(messageType, version, message);
+	}
+
+	/**
+	 * Called when messages may have been lost before this server could receive them, such as when
+	 * {@link uk.co.harieo.FurBridge.redis.RedisStreamTransport} finds that messages were trimmed from the stream
+	 * before this server read them. Listeners which keep anything up to date from messages should load it again
+	 * from its source. This does nothing by default.
+	 */
+	public void onMessagesMissed() { }
+
 	/**
 	 * A method which will be called when the {@link RedisReceiver} receives a Redis message of one of the specified
 	 * types provided in {@link #listeningFor()}
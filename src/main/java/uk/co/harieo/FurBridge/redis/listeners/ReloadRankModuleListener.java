@@ -1,22 +1,94 @@
 package uk.co.harieo.FurBridge.redis.listeners;
 
 import com.google.common.collect.Sets;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import java.util.HashSet;
+import java.util.Set;
+import uk.co.harieo.FurBridge.redis.RedisDispatcher;
 import uk.co.harieo.FurBridge.redis.messages.ReloadRankModuleMessage;
 
 public abstract class ReloadRankModuleListener extends RedisListener {
 
+	private static final int QUEUE_CAPACITY = 256;
+
+	/**
+	 * A listener for {@link ReloadRankModuleMessage} which handles each request on its own thread, in the order they
+	 * were received, as reloading the module reads from the database. If too many requests are waiting, the module is
+	 * fully reloaded instead of queueing another, so that no change is missed.
+	 */
 	public ReloadRankModuleListener() {
-		super(Sets.newHashSet(ReloadRankModuleMessage.MESSAGE_TYPE));
+		this(new RedisDispatcher("ReloadRankModule", 1, QUEUE_CAPACITY));
+	}
+
+	/**
+	 * A listener for {@link ReloadRankModuleMessage} which handles requests with the given dispatcher
+	 *
+	 * @param dispatcher to handle requests on, or null to handle them as they are received
+	 */
+	public ReloadRankModuleListener(RedisDispatcher dispatcher) {
+		super(Sets.newHashSet(ReloadRankModuleMessage.MESSAGE_TYPE), dispatcher);
 	}
 
 	@Override
 	public void onMessage(String messageType, int version, JsonObject message) {
 		if (version == ReloadRankModuleMessage.MESSAGE_VERSION) {
 			onRequest();
+		} else if (version == ReloadRankModuleMessage.DELTA_VERSION) {
+			if (message.has(ReloadRankModuleMessage.RANK_IDS_KEY)) {
+				Set<Integer> rankIds = new HashSet<>();
+				for (JsonElement rankId : message.getAsJsonArray(ReloadRankModuleMessage.RANK_IDS_KEY)) {
+					rankIds.add(rankId.getAsInt());
+				}
+				onRanksChanged(rankIds);
+			} else {
+				onChangedSince(message.get(ReloadRankModuleMessage.SINCE_KEY).getAsLong());
+			}
 		}
 	}
 
+	/**
+	 * Reloads the whole module on the receiving thread, as the request which couldn't be queued may have been for any
+	 * change
+	 */
+	@Override
+	public void onDropped(String messageType, int version, JsonObject message) {
+		onRequest();
+	}
+
+	/**
+	 * Reloads the whole module, as any request may have been missed
+	 */
+	@Override
+	public void onMessagesMissed() {
+		onRequest();
+	}
+
+	/**
+	 * Called when the whole rank module should be reloaded
+	 */
 	public abstract void onRequest();
 
+	/**
+	 * Called when only the specified ranks have changed, which should be passed to
+	 * {@link uk.co.harieo.FurBridge.ranks.modules.RankModule#reloadRanks(java.util.Collection)}. By default, this
+	 * reloads the whole module.
+	 *
+	 * @param rankIds of the ranks which have changed
+	 */
+	public void onRanksChanged(Set<Integer> rankIds) {
+		onRequest();
+	}
+
+	/**
+	 * Called when any rank changed since the given time should be reloaded, which should be passed to
+	 * {@link uk.co.harieo.FurBridge.ranks.modules.RankModule#reloadChangedSince(long)}. By default, this reloads the
+	 * whole module.
+	 *
+	 * @param since database time in milliseconds
+	 */
+	public void onChangedSince(long since) {
+		onRequest();
+	}
+
 }
@@ -1,8 +1,14 @@
 package uk.co.harieo.FurBridge.redis.messages;
 
 import com.google.gson.JsonObject;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
 import redis.clients.jedis.Jedis;
 import uk.co.harieo.FurBridge.redis.RedisClient;
+import uk.co.harieo.FurBridge.redis.RedisPublisher;
+import uk.co.harieo.FurBridge.redis.RedisStreamTransport;
+import uk.co.harieo.FurBridge.redis.codec.CodecNegotiator;
+import uk.co.harieo.FurBridge.redis.codec.RedisCodec;
 import uk.co.harieo.FurBridge.redis.listeners.RedisListener;
 
 public abstract class RedisMessage {
@@ -12,10 +18,11 @@ public abstract class RedisMessage {
 	public static final String versionKey = "version";
 	public static final String messageBodyKey = "message";
 
+	private static final byte[] CHANNEL_BYTES = RedisClient.CHANNEL.getBytes(StandardCharsets.UTF_8);
+
 	private final String messageType;
 	private final int messageVersion;
 
-	private final JsonObject messageJson; // The frame JSON with the main information
 	private final JsonObject messageBody; // An encapsulated message to prevent overlapping primary data
 
 	/**
@@ -27,11 +34,6 @@ public abstract class RedisMessage {
 	public RedisMessage(String messageType, int version) {
 		this.messageType = messageType;
 		this.messageVersion = version;
-
-		messageJson = new JsonObject();
-		messageJson.addProperty(messageTypeKey, messageType);
-		messageJson.addProperty(versionKey, version);
-
 		messageBody = new JsonObject();
 	}
 
@@ -59,14 +61,37 @@ public abstract class RedisMessage {
 	}
 
 	/**
-	 * Publishes this message to Redis by attaching the message body and publishing via {@link Jedis}
+	 * Publishes this message to Redis by encoding it with the codec chosen by {@link CodecNegotiator} and publishing via
+	 * {@link Jedis}, or by appending it to the stream if {@link RedisStreamTransport} has been started
 	 */
 	public void publish() {
 		try (Jedis jedis = RedisClient.getPublishResource()) {
-			messageJson.add(messageBodyKey,
-					messageBody); // Add before publish to make sure it has had time to edit the body
-			jedis.publish(RedisClient.CHANNEL, messageJson.toString());
+			if (RedisStreamTransport.isEnabled()) {
+				RedisStreamTransport.append(jedis, this);
+			} else {
+				jedis.publish(CHANNEL_BYTES, encode(CodecNegotiator.getPublishCodec(jedis)));
+			}
 		}
 	}
 
+	/**
+	 * Queues this message to be published by {@link RedisPublisher}, so that the calling thread doesn't wait on Redis.
+	 * The body shouldn't be edited afterwards.
+	 *
+	 * @return a future of the amount of subscribers which received this message, or 0 if it was appended to a stream
+	 */
+	public CompletableFuture<Long> publishAsync() {
+		return RedisPublisher.getInstance().publish(this);
+	}
+
+	/**
+	 * Encodes this message, which should only be done once the body has been fully edited
+	 *
+	 * @param codec to encode with
+	 * @return the encoded message
+	 */
+	public byte[] encode(RedisCodec codec) {
+		return codec.encode(messageType, messageVersion, messageBody);
+	}
+
 }
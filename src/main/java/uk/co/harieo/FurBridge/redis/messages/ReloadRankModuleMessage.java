@@ -1,12 +1,47 @@
 package uk.co.harieo.FurBridge.redis.messages;
 
+import com.google.gson.JsonArray;
+import java.util.Collection;
+
 public class ReloadRankModuleMessage extends RedisMessage {
 
 	public static final String MESSAGE_TYPE = "reload-rank-module";
 	public static final int MESSAGE_VERSION = 1;
+	public static final int DELTA_VERSION = 2; // Only reloads the ranks which have changed
+
+	public static final String RANK_IDS_KEY = "rank-ids";
+	public static final String SINCE_KEY = "since";
 
 	public ReloadRankModuleMessage() {
 		super(MESSAGE_TYPE, MESSAGE_VERSION);
 	}
 
+	private ReloadRankModuleMessage(int version) {
+		super(MESSAGE_TYPE, version);
+	}
+
+	/**
+	 * @param rankIds of the ranks which have changed, including any which have been created or deleted
+	 * @return a message asking to reload only the specified ranks
+	 */
+	public static ReloadRankModuleMessage forRanks(Collection<Integer> rankIds) {
+		ReloadRankModuleMessage message = new ReloadRankModuleMessage(DELTA_VERSION);
+		JsonArray rankIdsJson = new JsonArray();
+		for (int rankId : rankIds) {
+			rankIdsJson.add(rankId);
+		}
+		message.body().add(RANK_IDS_KEY, rankIdsJson);
+		return message;
+	}
+
+	/**
+	 * @param since database time in milliseconds, after which any changed rank should be reloaded
+	 * @return a message asking to reload only the ranks which have changed since the given time
+	 */
+	public static ReloadRankModuleMessage changedSince(long since) {
+		ReloadRankModuleMessage message = new ReloadRankModuleMessage(DELTA_VERSION);
+		message.body().addProperty(SINCE_KEY, since);
+		return message;
+	}
+
 }
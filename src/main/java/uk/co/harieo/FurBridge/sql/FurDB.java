@@ -23,7 +23,8 @@ public class FurDB {
 	public static Connection getConnection() throws SQLException {
 		verifyIntegrity();
 		return DriverManager
-				.getConnection("jdbc:mysql://" + properties.getProperty("address") + "/" + database + "?useSSL=false",
+				.getConnection("jdbc:mysql://" + properties.getProperty("address") + "/" + database
+								+ "?useSSL=false&rewriteBatchedStatements=true", // Sends batches as multi-row statements
 						properties);
 	}
 
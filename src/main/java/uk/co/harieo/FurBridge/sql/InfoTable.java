@@ -2,6 +2,7 @@ package uk.co.harieo.FurBridge.sql;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
@@ -60,6 +61,70 @@ public class InfoTable {
 		});
 	}
 
+	/**
+	 * Adds a column to this table if the table doesn't already have it, which allows a column to be added to a table
+	 * which was created before the column was part of its parameters
+	 *
+	 * @param columnName of the column
+	 * @param columnDefinition of the column, such as its type and default value
+	 * @return whether the column was verified as present
+	 */
+	public CompletableFuture<Boolean> addColumnIfAbsent(String columnName, String columnDefinition) {
+		return CompletableFuture.supplyAsync(() -> {
+			try (Connection connection = FurDB.getConnection();
+					PreparedStatement statement = connection.prepareStatement("SELECT COUNT(*) FROM information_schema.COLUMNS "
+							+ "WHERE TABLE_SCHEMA=DATABASE() AND TABLE_NAME=? AND COLUMN_NAME=?")) {
+				statement.setString(1, tableName);
+				statement.setString(2, columnName);
+				ResultSet result = statement.executeQuery();
+				if (result.next() && result.getInt(1) > 0) {
+					return true; // Already exists
+				}
+
+				try (PreparedStatement alterStatement = connection.prepareStatement(
+						"ALTER TABLE " + tableName + " ADD COLUMN " + columnName + " " + columnDefinition)) {
+					alterStatement.executeUpdate();
+					return true;
+				}
+			} catch (SQLException e) {
+				e.printStackTrace();
+				return false;
+			}
+		});
+	}
+
+	/**
+	 * Adds an index to this table if the table doesn't already have an index of the same name, which allows an index
+	 * to be added to a table which was created before the index was part of its parameters
+	 *
+	 * @param indexName of the index
+	 * @param columns which the index covers, separated by commas
+	 * @return whether the index was verified as present
+	 */
+	public CompletableFuture<Boolean> addIndexIfAbsent(String indexName, String columns) {
+		return CompletableFuture.supplyAsync(() -> {
+			try (Connection connection = FurDB.getConnection();
+					PreparedStatement statement = connection.prepareStatement("SELECT COUNT(*) FROM information_schema.STATISTICS "
+							+ "WHERE TABLE_SCHEMA=DATABASE() AND TABLE_NAME=? AND INDEX_NAME=?")) {
+				statement.setString(1, tableName);
+				statement.setString(2, indexName);
+				ResultSet result = statement.executeQuery();
+				if (result.next() && result.getInt(1) > 0) {
+					return true; // Already exists
+				}
+
+				try (PreparedStatement alterStatement = connection.prepareStatement(
+						"ALTER TABLE " + tableName + " ADD INDEX " + indexName + " (" + columns + ")")) {
+					alterStatement.executeUpdate();
+					return true;
+				}
+			} catch (SQLException e) {
+				e.printStackTrace();
+				return false;
+			}
+		});
+	}
+
 	/**
 	 * @return the assigned name of this table
 	 */
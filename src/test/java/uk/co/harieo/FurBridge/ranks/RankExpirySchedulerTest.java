@@ -0,0 +1,93 @@
+package uk.co.harieo.FurBridge.ranks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import uk.co.harieo.FurBridge.ranks.RankExpiryScheduler.Timeout;
+
+/**
+ * Checks the position of tasks in the timing wheel of {@link RankExpiryScheduler} and the replacing and cancelling of
+ * keyed tasks
+ */
+public class RankExpirySchedulerTest {
+
+	private static final long START_TIME = 1_000_000;
+	private static final long FAR_FUTURE = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1);
+
+	private final RankExpiryScheduler scheduler = RankExpiryScheduler.getInstance();
+
+	@Test
+	public void deadlinesRoundUpToTheNextTick() {
+		long tick = RankExpiryScheduler.TICK_MILLIS;
+		assertEquals(5, RankExpiryScheduler.getDeadlineTick(START_TIME, 0, START_TIME + 5 * tick));
+		assertEquals(6, RankExpiryScheduler.getDeadlineTick(START_TIME, 0, START_TIME + 5 * tick + 1));
+		assertEquals(6, RankExpiryScheduler.getDeadlineTick(START_TIME, 0, START_TIME + 6 * tick - 1));
+	}
+
+	@Test
+	public void pastDeadlinesRunInTheCurrentTick() {
+		assertEquals(10, RankExpiryScheduler.getDeadlineTick(START_TIME, 10, START_TIME));
+		assertEquals(10, RankExpiryScheduler.getDeadlineTick(START_TIME, 10, START_TIME - 1)); // Before the wheel
+		assertEquals(10, RankExpiryScheduler.getDeadlineTick(START_TIME, 10, 0));
+	}
+
+	@Test
+	public void bucketsWrapAroundTheWheel() {
+		int size = RankExpiryScheduler.WHEEL_SIZE;
+		assertEquals(0, RankExpiryScheduler.getBucketIndex(0));
+		assertEquals(size - 1, RankExpiryScheduler.getBucketIndex(size - 1));
+		assertEquals(0, RankExpiryScheduler.getBucketIndex(size));
+		assertEquals(3, RankExpiryScheduler.getBucketIndex(5L * size + 3));
+	}
+
+	@Test
+	public void roundsCountFullRotations() {
+		int size = RankExpiryScheduler.WHEEL_SIZE;
+		assertEquals(0, RankExpiryScheduler.getRemainingRounds(100, 100));
+		assertEquals(0, RankExpiryScheduler.getRemainingRounds(100, 100 + size - 1));
+		assertEquals(1, RankExpiryScheduler.getRemainingRounds(100, 100 + size));
+		assertEquals(2, RankExpiryScheduler.getRemainingRounds(100, 100 + 3L * size - 1));
+	}
+
+	@Test
+	public void schedulingTheSameKeyReplacesTheEarlierTask() {
+		UUID owner = UUID.randomUUID();
+		Timeout first = scheduler.schedule(owner, 1, FAR_FUTURE, () -> { });
+		Timeout second = scheduler.schedule(owner, 1, FAR_FUTURE, () -> { });
+
+		assertFalse(first.cancel()); // Already removed from the wheel when replaced
+		assertTrue(scheduler.cancel(owner, 1));
+		assertFalse(second.cancel());
+		assertFalse(scheduler.cancel(owner, 1));
+	}
+
+	@Test
+	public void cancellingAllOfAnOwnerLeavesOthers() {
+		UUID owner = UUID.randomUUID();
+		UUID other = UUID.randomUUID();
+		Timeout first = scheduler.schedule(owner, 1, FAR_FUTURE, () -> { });
+		Timeout second = scheduler.schedule(owner, 2, FAR_FUTURE, () -> { });
+		Timeout unrelated = scheduler.schedule(other, 1, FAR_FUTURE, () -> { });
+
+		scheduler.cancelAll(owner);
+		assertFalse(first.cancel());
+		assertFalse(second.cancel());
+		assertFalse(scheduler.cancel(owner, 2));
+		assertTrue(unrelated.cancel());
+	}
+
+	@Test
+	public void runsTasksWhichAreAlreadyDue() throws InterruptedException {
+		CountDownLatch latch = new CountDownLatch(1);
+		Timeout timeout = scheduler.schedule(UUID.randomUUID(), 1, System.currentTimeMillis(), latch::countDown);
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertFalse(timeout.cancel());
+	}
+
+}
@@ -0,0 +1,55 @@
+package uk.co.harieo.FurBridge.ranks.modules;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Test;
+
+/**
+ * Checks how {@link CompiledPermissions} combines exact permissions with wildcards
+ */
+public class CompiledPermissionsTest {
+
+	private final PermissionDictionary dictionary = new PermissionDictionary();
+
+	@Test
+	public void exactPermissionsBeatUnforcedWildcards() {
+		CompiledPermissions permissions = compile(new PermissionNode("essentials.*", true, false),
+				new PermissionNode("essentials.fly", false, false));
+
+		assertEquals(PermissionState.DENIED, permissions.check("essentials.fly"));
+		assertEquals(PermissionState.ALLOWED, permissions.check("essentials.god"));
+		assertEquals(PermissionState.UNSET, permissions.check("worldedit.wand"));
+	}
+
+	@Test
+	public void forcedWildcardsBeatUnforcedExactPermissions() {
+		CompiledPermissions permissions = compile(new PermissionNode("essentials.*", false, true),
+				new PermissionNode("essentials.fly", true, false), new PermissionNode("essentials.god", true, true));
+
+		assertEquals(PermissionState.DENIED, permissions.check("essentials.fly"));
+		assertEquals(PermissionState.ALLOWED, permissions.check("essentials.god"));
+	}
+
+	@Test
+	public void permissionsWithoutIdsFallBackToWildcards() {
+		CompiledPermissions permissions = compile(new PermissionNode("*", true, false));
+
+		assertEquals(PermissionState.ALLOWED, permissions.check("never.seen.before"));
+	}
+
+	/**
+	 * @param nodes to be compiled
+	 * @return the compiled permissions of the nodes
+	 */
+	private CompiledPermissions compile(PermissionNode... nodes) {
+		Map<String, PermissionNode> permissions = new LinkedHashMap<>();
+		for (PermissionNode node : nodes) {
+			permissions.put(node.getPermission(), node);
+		}
+		return new CompiledPermissions(dictionary,
+				PermissionBits.of(dictionary, PermissionSet.of(dictionary, permissions)));
+	}
+
+}
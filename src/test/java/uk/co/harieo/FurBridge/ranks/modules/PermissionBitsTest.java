@@ -0,0 +1,123 @@
+package uk.co.harieo.FurBridge.ranks.modules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+/**
+ * Checks the states held by {@link PermissionBits} and that merging takes each permission from the first set holding it
+ */
+public class PermissionBitsTest {
+
+	private final PermissionDictionary dictionary = new PermissionDictionary();
+
+	@Test
+	public void holdsTheStateOfEachPermission() {
+		PermissionBits bits = of(new PermissionNode("essentials.fly", true, false),
+				new PermissionNode("essentials.god", false, true));
+
+		int fly = dictionary.getId("essentials.fly");
+		assertEquals(PermissionState.ALLOWED, bits.getState(fly));
+		assertTrue(bits.isAllowed(fly));
+		assertFalse(bits.isForced(fly));
+
+		int god = dictionary.getId("essentials.god");
+		assertEquals(PermissionState.DENIED, bits.getState(god));
+		assertFalse(bits.isAllowed(god));
+		assertTrue(bits.isForced(god));
+	}
+
+	@Test
+	public void unknownIdsAreUnset() {
+		PermissionBits bits = of(new PermissionNode("essentials.fly", true, false));
+
+		assertEquals(PermissionState.UNSET, bits.getState(-1));
+		assertEquals(PermissionState.UNSET, bits.getState(dictionary.assignId("essentials.god")));
+		assertEquals(PermissionState.UNSET, bits.getState(1000)); // Beyond the last word of the set
+		assertFalse(bits.isAllowed(-1));
+		assertFalse(bits.isForced(1000));
+		assertEquals(PermissionState.UNSET, PermissionBits.empty(dictionary).getState(0));
+	}
+
+	@Test
+	public void mergeTakesEachPermissionFromTheFirstSetHoldingIt() {
+		PermissionBits player = of(new PermissionNode("essentials.fly", false, false));
+		PermissionBits rank = of(new PermissionNode("essentials.fly", true, true),
+				new PermissionNode("essentials.god", true, true));
+		PermissionBits merged = PermissionBits.merge(dictionary, Arrays.asList(player, rank));
+
+		int fly = dictionary.getId("essentials.fly");
+		assertEquals(PermissionState.DENIED, merged.getState(fly));
+		assertFalse(merged.isForced(fly)); // The lower priority flags are dropped with the rest of its node
+
+		int god = dictionary.getId("essentials.god");
+		assertEquals(PermissionState.ALLOWED, merged.getState(god));
+		assertTrue(merged.isForced(god));
+	}
+
+	@Test
+	public void mergeSpansSetsOfDifferentLengths() {
+		PermissionBits shortSet = of(new PermissionNode("essentials.fly", true, false));
+		for (int i = 0; i < 100; i++) {
+			dictionary.assignId("filler." + i); // Pushes the next permission into a later word
+		}
+		PermissionBits longSet = of(new PermissionNode("essentials.god", false, false));
+		PermissionBits merged = PermissionBits.merge(dictionary, Arrays.asList(shortSet, longSet));
+
+		assertEquals(PermissionState.ALLOWED, merged.getState(dictionary.getId("essentials.fly")));
+		assertEquals(PermissionState.DENIED, merged.getState(dictionary.getId("essentials.god")));
+		assertEquals(2, merged.asMap().size());
+	}
+
+	@Test
+	public void findsOnlyWildcardNodes() {
+		PermissionBits bits = of(new PermissionNode("essentials.fly", true, false),
+				new PermissionNode("essentials.*", false, true), new PermissionNode("*", true, false));
+
+		List<PermissionNode> wildcards = bits.getWildcardNodes();
+		assertEquals(2, wildcards.size());
+		assertTrue(wildcards.contains(dictionary.getNode("essentials.*", false, true)));
+		assertTrue(wildcards.contains(dictionary.getNode("*", true, false)));
+	}
+
+	@Test
+	public void wildcardNodesResolveThroughATrie() {
+		PermissionBits bits = of(new PermissionNode("essentials.*", true, false),
+				new PermissionNode("essentials.fly", false, false));
+		PermissionTrie trie = new PermissionTrie(bits.getWildcardNodes());
+
+		assertSame(dictionary.getNode("essentials.*", true, false), trie.resolve("essentials.god"));
+		assertEquals(PermissionState.DENIED, bits.getState(dictionary.getId("essentials.fly")));
+	}
+
+	@Test
+	public void mapViewMatchesTheSet() {
+		Map<String, PermissionNode> view = of(new PermissionNode("essentials.fly", true, false),
+				new PermissionNode("essentials.god", false, true)).asMap();
+
+		assertEquals(2, view.size());
+		assertSame(dictionary.getNode("essentials.fly", true, false), view.get("essentials.fly"));
+		assertSame(dictionary.getNode("essentials.god", false, true), view.get("essentials.god"));
+		assertFalse(view.containsKey("essentials.*"));
+	}
+
+	/**
+	 * @param nodes to be held in the set
+	 * @return the bitsets of the nodes
+	 */
+	private PermissionBits of(PermissionNode... nodes) {
+		Map<String, PermissionNode> permissions = new LinkedHashMap<>();
+		for (PermissionNode node : nodes) {
+			permissions.put(node.getPermission(), node);
+		}
+		return PermissionBits.of(dictionary, PermissionSet.of(dictionary, permissions));
+	}
+
+}
@@ -0,0 +1,105 @@
+package uk.co.harieo.FurBridge.ranks.modules;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link CompiledPermissions#check(String)}, which every check of {@code PlayerRankInfo} goes through, for a
+ * player with several ranks against resolving every check through a trie of all of the nodes. Run with
+ * {@code -Pbenchmark} as described in the pom.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PermissionCheckBenchmark {
+
+	@Param({"4", "16"})
+	private int rankCount;
+
+	@Param({"50", "500"})
+	private int permissionsPerRank;
+
+	private CompiledPermissions permissions;
+	private PermissionTrie allNodes;
+
+	private String exactPermission;
+	private String wildcardPermission;
+	private String missingPermission;
+
+	@Setup
+	public void setup() {
+		PermissionDictionary dictionary = new PermissionDictionary();
+		List<PermissionBits> rankBits = new ArrayList<>(rankCount);
+		Map<String, PermissionNode> merged = new LinkedHashMap<>();
+		for (int rank = 0; rank < rankCount; rank++) {
+			Map<String, PermissionNode> rankPermissions = new LinkedHashMap<>();
+			for (int i = 0; i < permissionsPerRank; i++) {
+				String permission = "plugin" + rank + ".command" + i + ".use";
+				rankPermissions.put(permission, dictionary.getNode(permission, i % 3 != 0, false));
+			}
+			String wildcard = "plugin" + rank + ".admin.*";
+			rankPermissions.put(wildcard, dictionary.getNode(wildcard, true, false));
+
+			rankBits.add(PermissionBits.of(dictionary, PermissionSet.of(dictionary, rankPermissions)));
+			for (PermissionNode node : rankPermissions.values()) {
+				merged.putIfAbsent(node.getPermission(), node); // Highest priority first, as when merging the bits
+			}
+		}
+
+		permissions = new CompiledPermissions(dictionary, PermissionBits.merge(dictionary, rankBits));
+		allNodes = new PermissionTrie(merged);
+
+		int lastRank = rankCount - 1;
+		exactPermission = "plugin" + lastRank + ".command" + (permissionsPerRank - 1) + ".use";
+		wildcardPermission = "plugin" + lastRank + ".admin.reload";
+		missingPermission = "other.command.use";
+	}
+
+	@Benchmark
+	public PermissionState exactWithBits() {
+		return permissions.check(exactPermission);
+	}
+
+	@Benchmark
+	public PermissionState wildcardWithBits() {
+		return permissions.check(wildcardPermission);
+	}
+
+	@Benchmark
+	public PermissionState missingWithBits() {
+		return permissions.check(missingPermission);
+	}
+
+	@Benchmark
+	public PermissionNode exactWithTrie() {
+		return allNodes.resolve(exactPermission);
+	}
+
+	@Benchmark
+	public PermissionNode wildcardWithTrie() {
+		return allNodes.resolve(wildcardPermission);
+	}
+
+	@Benchmark
+	public PermissionNode missingWithTrie() {
+		return allNodes.resolve(missingPermission);
+	}
+
+}
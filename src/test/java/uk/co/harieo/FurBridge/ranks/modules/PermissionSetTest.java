@@ -0,0 +1,77 @@
+package uk.co.harieo.FurBridge.ranks.modules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Test;
+
+/**
+ * Checks that {@link PermissionSet} keeps the nodes it was created from and finds them by id and by permission
+ */
+public class PermissionSetTest {
+
+	private final PermissionDictionary dictionary = new PermissionDictionary();
+
+	@Test
+	public void holdsEveryNodeSortedById() {
+		dictionary.assignId("essentials.fly"); // Given the lowest id, though it is added to the map last
+		Map<String, PermissionNode> permissions = new LinkedHashMap<>();
+		permissions.put("essentials.god", new PermissionNode("essentials.god", false, true));
+		permissions.put("essentials.*", new PermissionNode("essentials.*", true, false));
+		permissions.put("essentials.fly", new PermissionNode("essentials.fly", true, false));
+		PermissionSet set = PermissionSet.of(dictionary, permissions);
+
+		assertEquals(3, set.size());
+		for (int i = 1; i < set.size(); i++) {
+			assertTrue(set.getId(i - 1) < set.getId(i));
+		}
+		assertEquals(dictionary.getId("essentials.fly"), set.getId(0));
+
+		int god = set.indexOf(dictionary.getId("essentials.god"));
+		assertFalse(set.isAllowed(god));
+		assertTrue(set.isForced(god));
+
+		int fly = set.indexOf(dictionary.getId("essentials.fly"));
+		assertTrue(set.isAllowed(fly));
+		assertFalse(set.isForced(fly));
+	}
+
+	@Test
+	public void getsSharedNodesByPermission() {
+		Map<String, PermissionNode> permissions = new LinkedHashMap<>();
+		permissions.put("essentials.fly", new PermissionNode("essentials.fly", true, false));
+		PermissionSet set = PermissionSet.of(dictionary, permissions);
+
+		assertSame(dictionary.getNode("essentials.fly", true, false), set.get("essentials.fly"));
+		assertNull(set.get("essentials.god"));
+		assertEquals(-1, set.indexOf(dictionary.assignId("essentials.god")));
+	}
+
+	@Test
+	public void mapViewMatchesTheNodes() {
+		Map<String, PermissionNode> permissions = new LinkedHashMap<>();
+		permissions.put("essentials.fly", new PermissionNode("essentials.fly", true, false));
+		permissions.put("essentials.god", new PermissionNode("essentials.god", false, false));
+		Map<String, PermissionNode> view = PermissionSet.of(dictionary, permissions).asMap();
+
+		assertEquals(2, view.size());
+		assertTrue(view.get("essentials.fly").isAllowed());
+		assertFalse(view.get("essentials.god").isAllowed());
+		assertFalse(view.containsKey("essentials.*"));
+	}
+
+	@Test
+	public void emptySetHasNoEntries() {
+		PermissionSet set = PermissionSet.of(dictionary, new LinkedHashMap<>());
+
+		assertEquals(0, set.size());
+		assertEquals(-1, set.indexOf(0));
+		assertTrue(set.asMap().isEmpty());
+	}
+
+}
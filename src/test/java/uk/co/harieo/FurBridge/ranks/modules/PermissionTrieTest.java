@@ -0,0 +1,107 @@
+package uk.co.harieo.FurBridge.ranks.modules;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+/**
+ * Checks which node {@link PermissionTrie} resolves when exact, wildcard and forced nodes overlap
+ */
+public class PermissionTrieTest {
+
+	private final PermissionDictionary dictionary = new PermissionDictionary();
+
+	@Test
+	public void resolvesExactNodes() {
+		PermissionNode fly = dictionary.getNode("essentials.fly", true, false);
+		PermissionTrie trie = new PermissionTrie(Collections.singletonList(fly));
+
+		assertSame(fly, trie.resolve("essentials.fly"));
+		assertNull(trie.resolve("essentials"));
+		assertNull(trie.resolve("essentials.fly.other"));
+		assertNull(trie.resolve("essentials.flying"));
+	}
+
+	@Test
+	public void wildcardsApplyBelowTheirSegment() {
+		PermissionNode essentials = dictionary.getNode("essentials.*", true, false);
+		PermissionTrie trie = new PermissionTrie(Collections.singletonList(essentials));
+
+		assertSame(essentials, trie.resolve("essentials.fly"));
+		assertSame(essentials, trie.resolve("essentials.fly.other"));
+		assertNull(trie.resolve("essentials"));
+		assertNull(trie.resolve("worldedit.wand"));
+	}
+
+	@Test
+	public void rootWildcardAppliesToEverything() {
+		PermissionNode everything = dictionary.getNode("*", false, false);
+		PermissionTrie trie = new PermissionTrie(Collections.singletonList(everything));
+
+		assertSame(everything, trie.resolve("essentials.fly"));
+		assertSame(everything, trie.resolve("anything"));
+	}
+
+	@Test
+	public void mostSpecificUnforcedNodeWins() {
+		PermissionNode everything = dictionary.getNode("*", false, false);
+		PermissionNode essentials = dictionary.getNode("essentials.*", true, false);
+		PermissionNode fly = dictionary.getNode("essentials.fly", false, false);
+		PermissionTrie trie = new PermissionTrie(Arrays.asList(everything, essentials, fly));
+
+		assertSame(fly, trie.resolve("essentials.fly"));
+		assertSame(essentials, trie.resolve("essentials.god"));
+		assertSame(everything, trie.resolve("worldedit.wand"));
+	}
+
+	@Test
+	public void forcedWildcardBeatsUnforcedExactNode() {
+		PermissionNode essentials = dictionary.getNode("essentials.*", false, true);
+		PermissionNode fly = dictionary.getNode("essentials.fly", true, false);
+		PermissionTrie trie = new PermissionTrie(Arrays.asList(essentials, fly));
+
+		assertSame(essentials, trie.resolve("essentials.fly"));
+	}
+
+	@Test
+	public void forcedExactNodeBeatsForcedWildcard() {
+		PermissionNode essentials = dictionary.getNode("essentials.*", false, true);
+		PermissionNode fly = dictionary.getNode("essentials.fly", true, true);
+		PermissionTrie trie = new PermissionTrie(Arrays.asList(essentials, fly));
+
+		assertSame(fly, trie.resolve("essentials.fly"));
+	}
+
+	@Test
+	public void deeperForcedWildcardWins() {
+		PermissionNode everything = dictionary.getNode("*", true, true);
+		PermissionNode essentials = dictionary.getNode("essentials.*", false, true);
+		PermissionTrie trie = new PermissionTrie(Arrays.asList(everything, essentials));
+
+		assertSame(essentials, trie.resolve("essentials.fly"));
+		assertSame(everything, trie.resolve("worldedit.wand"));
+	}
+
+	@Test
+	public void onlyForcedWildcardsCountAsForcedNodes() {
+		PermissionNode fly = dictionary.getNode("essentials.fly", true, true);
+		assertFalse(new PermissionTrie(Collections.singletonList(fly)).hasForcedNodes());
+
+		PermissionNode essentials = dictionary.getNode("essentials.*", true, true);
+		assertTrue(new PermissionTrie(Arrays.asList(fly, essentials)).hasForcedNodes());
+	}
+
+	@Test
+	public void recognisesWildcards() {
+		assertTrue(PermissionTrie.isWildcard("*"));
+		assertTrue(PermissionTrie.isWildcard("essentials.*"));
+		assertFalse(PermissionTrie.isWildcard("essentials.fly"));
+		assertFalse(PermissionTrie.isWildcard("essentials*"));
+	}
+
+}
@@ -0,0 +1,104 @@
+package uk.co.harieo.FurBridge.ranks.modules;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import uk.co.harieo.FurBridge.ranks.Rank;
+
+/**
+ * Checks how {@link RankModuleState} flattens the permissions of a rank everywhere and in a context
+ */
+public class RankModuleStateTest {
+
+	private static final int ADMIN_ID = 1;
+	private static final int MEMBER_ID = 2;
+	private static final int MODERATOR_ID = 3;
+
+	private final PermissionDictionary dictionary = new PermissionDictionary();
+	private RankModuleState state;
+
+	@Before
+	public void setup() {
+		Map<String, PermissionNode> adminPermissions = nodes(new PermissionNode("essentials.fly", true, false));
+		Map<String, Map<String, PermissionNode>> adminContexts = Collections.singletonMap("survival",
+				nodes(new PermissionNode("essentials.god", true, false, "survival")));
+		Rank admin = new Rank(new Rank(ADMIN_ID, "admin"), adminPermissions, adminContexts);
+
+		Rank memberTemplate = new Rank(MEMBER_ID, "member");
+		memberTemplate.setDefault(true);
+		Map<String, PermissionNode> memberPermissions = nodes(new PermissionNode("essentials.fly", false, false));
+		Map<String, Map<String, PermissionNode>> memberContexts = Collections.singletonMap("survival",
+				nodes(new PermissionNode("essentials.fly", false, false, "survival"),
+						new PermissionNode("essentials.home", true, false, "survival")));
+		Rank member = new Rank(memberTemplate, memberPermissions, memberContexts);
+
+		Rank moderator = new Rank(MODERATOR_ID, "moderator");
+		moderator.setParentRank(ADMIN_ID);
+
+		state = RankModuleState.create(dictionary, Arrays.asList(admin, member, moderator), Collections.emptyList(),
+				1, 0, false);
+	}
+
+	@Test
+	public void rootRankHasOnlyItsOwnNodesEverywhere() {
+		PermissionBits bits = state.getPermissionBits(state.getRank(ADMIN_ID), null);
+
+		assertEquals(PermissionState.ALLOWED, getState(bits, "essentials.fly"));
+		assertEquals(PermissionState.UNSET, getState(bits, "essentials.home"));
+	}
+
+	@Test
+	public void rootRankHasOnlyItsOwnNodesInAContext() {
+		PermissionBits bits = state.getPermissionBits(state.getRank(ADMIN_ID), "survival");
+
+		assertEquals(PermissionState.ALLOWED, getState(bits, "essentials.fly")); // Not overridden by the default rank
+		assertEquals(PermissionState.ALLOWED, getState(bits, "essentials.god"));
+		assertEquals(PermissionState.UNSET, getState(bits, "essentials.home"));
+	}
+
+	@Test
+	public void rootRankAgreesEverywhereAndInAContextWithoutItsNodes() {
+		Rank admin = state.getRank(ADMIN_ID);
+		PermissionBits global = state.getPermissionBits(admin, null);
+
+		assertEquals(global.asMap(), state.getPermissionBits(admin, "creative").asMap());
+		assertEquals(getState(global, "essentials.fly"),
+				getState(state.getPermissionBits(admin, "SURVIVAL"), "essentials.fly"));
+	}
+
+	@Test
+	public void childRankTakesDefaultNodesInAContext() {
+		PermissionBits bits = state.getPermissionBits(state.getRank(MODERATOR_ID), "survival");
+
+		assertEquals(PermissionState.DENIED, getState(bits, "essentials.fly"));
+		assertEquals(PermissionState.ALLOWED, getState(bits, "essentials.god"));
+		assertEquals(PermissionState.ALLOWED, getState(bits, "essentials.home"));
+	}
+
+	/**
+	 * @param bits to check
+	 * @param permission to check
+	 * @return the state of the permission in the bits
+	 */
+	private PermissionState getState(PermissionBits bits, String permission) {
+		return bits.getState(dictionary.getId(permission));
+	}
+
+	/**
+	 * @param nodes to be keyed
+	 * @return the nodes keyed by their permission
+	 */
+	private static Map<String, PermissionNode> nodes(PermissionNode... nodes) {
+		Map<String, PermissionNode> permissions = new HashMap<>();
+		for (PermissionNode node : nodes) {
+			permissions.put(node.getPermission(), node);
+		}
+		return permissions;
+	}
+
+}
@@ -0,0 +1,120 @@
+package uk.co.harieo.FurBridge.redis.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.Test;
+
+/**
+ * Checks that every kind of JSON value survives a round trip through {@link BinaryCodec}
+ */
+public class BinaryCodecTest {
+
+	private final BinaryCodec codec = BinaryCodec.getInstance();
+
+	@Test
+	public void roundTripsTheHeader() {
+		RedisEnvelope envelope = codec.decode(codec.encode("rank-update", 3, new JsonObject()));
+
+		assertEquals("rank-update", envelope.getMessageType());
+		assertEquals(3, envelope.getVersion());
+		assertEquals(new JsonObject(), envelope.body());
+	}
+
+	@Test
+	public void roundTripsEveryValueType() {
+		JsonArray array = new JsonArray();
+		array.add(1);
+		array.add("two");
+		array.add(JsonNull.INSTANCE);
+
+		JsonObject nested = new JsonObject();
+		nested.addProperty("flag", false);
+
+		JsonObject body = new JsonObject();
+		body.add("null", JsonNull.INSTANCE);
+		body.addProperty("true", true);
+		body.addProperty("false", false);
+		body.addProperty("zero", 0);
+		body.addProperty("negative", -1);
+		body.addProperty("min", Long.MIN_VALUE);
+		body.addProperty("max", Long.MAX_VALUE);
+		body.addProperty("double", 0.5);
+		body.addProperty("decimal", new BigDecimal("12345678901234567890.123"));
+		body.addProperty("empty", "");
+		body.addProperty("unicode", "h\u00e9llo \u4e16\u754c \ud83d\ude00");
+		body.add("array", array);
+		body.add("object", nested);
+
+		assertEquals(body, codec.decode(codec.encode("test", 1, body)).body());
+	}
+
+	@Test
+	public void keepsTheOrderOfFields() {
+		JsonObject body = new JsonObject();
+		body.addProperty("b", 1);
+		body.addProperty("a", 2);
+		body.addProperty("c", 3);
+
+		JsonObject decoded = codec.decode(codec.encode("test", 1, body)).body();
+		assertEquals(Arrays.asList("b", "a", "c"), Arrays.asList(decoded.keySet().toArray()));
+	}
+
+	@Test
+	public void numbersKeepTheirValues() {
+		JsonObject body = new JsonObject();
+		body.addProperty("version", 42);
+		body.addProperty("expiresAt", 1_600_000_000_000L);
+
+		JsonObject decoded = codec.decode(codec.encode("test", 1, body)).body();
+		assertEquals(42, decoded.get("version").getAsLong());
+		assertEquals(1_600_000_000_000L, decoded.get("expiresAt").getAsLong());
+	}
+
+	@Test
+	public void recognisesOnlyBinaryMessages() {
+		assertTrue(codec.canDecode(codec.encode("test", 1, new JsonObject())));
+		assertFalse(codec.canDecode("{\"type\":\"test\"}".getBytes(StandardCharsets.UTF_8)));
+		assertFalse(codec.canDecode(new byte[0]));
+	}
+
+	@Test
+	public void dropsTypesWhichAreNotListenedFor() {
+		String[] acceptedTypes = {"rank-update", "r\u00e9ng"};
+		byte[] unlistened = codec.encode("test", 1, new JsonObject());
+
+		assertNull(codec.decode(Arrays.copyOf(unlistened, unlistened.length - 1), acceptedTypes)); // Never read
+		assertNull(codec.decode(codec.encode("rank", 1, new JsonObject()), acceptedTypes));
+		assertNull(codec.decode(codec.encode("r\u00e9ngs", 1, new JsonObject()), acceptedTypes));
+		assertEquals("rank-update", codec.decode(codec.encode("rank-update", 1, new JsonObject()), acceptedTypes)
+				.getMessageType());
+		assertEquals("r\u00e9ng", codec.decode(codec.encode("r\u00e9ng", 1, new JsonObject()), acceptedTypes)
+				.getMessageType());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsTruncatedMessages() {
+		JsonObject body = new JsonObject();
+		body.addProperty("player", "a long enough value to be cut short");
+		byte[] message = codec.encode("test", 1, body);
+
+		codec.decode(Arrays.copyOf(message, message.length - 5));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnknownFormats() {
+		byte[] message = codec.encode("test", 1, new JsonObject());
+		message[1] = BinaryCodec.FORMAT_VERSION + 1;
+
+		codec.decode(message);
+	}
+
+}
@@ -0,0 +1,123 @@
+package uk.co.harieo.FurBridge.redis.codec;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.co.harieo.FurBridge.ranks.redis.RankUpdateMessage;
+import uk.co.harieo.FurBridge.redis.messages.RedisMessage;
+
+/**
+ * Measures receiving a JSON message with {@link JsonCodec}, which only reads the type and version unless a listener
+ * needs the body, against parsing the whole message into a tree as every message was before. Allocation per message is
+ * the figure of interest, so run with the GC profiler, such as {@code -Djmh.args="JsonCodecBenchmark -prof gc"} with
+ * {@code -Pbenchmark}, and compare {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonCodecBenchmark {
+
+	@Param({"1", "20"})
+	private int addedRanks;
+
+	private String message;
+	private byte[] messageBytes;
+	private final String[] otherTypes = {"server-status", "punishment", "chat"}; // Listened for instead of the message
+
+	@Setup
+	public void setup() {
+		JsonArray added = new JsonArray();
+		for (int i = 0; i < addedRanks; i++) {
+			JsonObject rankJson = new JsonObject();
+			rankJson.addProperty(RankUpdateMessage.RANK_ID_KEY, i);
+			rankJson.addProperty(RankUpdateMessage.EXPIRES_AT_KEY, 1_600_000_000_000L + i);
+			added.add(rankJson);
+		}
+
+		JsonObject body = new JsonObject();
+		body.addProperty("system", "rank");
+		body.addProperty(RankUpdateMessage.PLAYER_ID_KEY, 12345);
+		body.addProperty(RankUpdateMessage.UUID_KEY, UUID.randomUUID().toString());
+		body.addProperty(RankUpdateMessage.RANK_VERSION_KEY, 42);
+		body.add(RankUpdateMessage.ADDED_KEY, added);
+
+		message = JsonCodec.getInstance().encodeToString(RankUpdateMessage.TYPE, RankUpdateMessage.DELTA_VERSION, body);
+		messageBytes = JsonCodec.getInstance().encode(RankUpdateMessage.TYPE, RankUpdateMessage.DELTA_VERSION, body);
+	}
+
+	/**
+	 * A message of a type nobody on this server listens to, which is dropped by its type before anything is allocated
+	 */
+	@Benchmark
+	public void skippedByType(Blackhole blackhole) {
+		blackhole.consume(JsonCodec.getInstance().decode(message, otherTypes));
+	}
+
+	/**
+	 * A message received as bytes through the binary subscription, dropped by its type before anything is allocated
+	 */
+	@Benchmark
+	public void skippedByTypeFromBytes(Blackhole blackhole) {
+		blackhole.consume(JsonCodec.getInstance().decode(messageBytes, otherTypes));
+	}
+
+	/**
+	 * The header of a message read without its body, as it was before messages were dropped by their type
+	 */
+	@Benchmark
+	public void headerOnly(Blackhole blackhole) {
+		RedisEnvelope envelope = JsonCodec.getInstance().decode(message);
+		blackhole.consume(envelope.getMessageType());
+		blackhole.consume(envelope.getVersion());
+	}
+
+	/**
+	 * The header of a message received as bytes through the binary subscription
+	 */
+	@Benchmark
+	public void headerOnlyFromBytes(Blackhole blackhole) {
+		RedisEnvelope envelope = JsonCodec.getInstance().decode(messageBytes);
+		blackhole.consume(envelope.getMessageType());
+		blackhole.consume(envelope.getVersion());
+	}
+
+	/**
+	 * A message which a listener is registered for, so its body is parsed as well
+	 */
+	@Benchmark
+	public void headerAndBody(Blackhole blackhole) {
+		RedisEnvelope envelope = JsonCodec.getInstance().decode(message);
+		blackhole.consume(envelope.getMessageType());
+		blackhole.consume(envelope.getVersion());
+		blackhole.consume(envelope.body());
+	}
+
+	/**
+	 * Parses the whole message into a tree before looking at its type, as every message was before the pull parser
+	 */
+	@Benchmark
+	public void fullTree(Blackhole blackhole) {
+		JsonObject messageJson = new JsonParser().parse(message).getAsJsonObject();
+		blackhole.consume(messageJson.get(RedisMessage.messageTypeKey).getAsString());
+		blackhole.consume(messageJson.get(RedisMessage.versionKey).getAsInt());
+		blackhole.consume(messageJson.getAsJsonObject(RedisMessage.messageBodyKey));
+	}
+
+}
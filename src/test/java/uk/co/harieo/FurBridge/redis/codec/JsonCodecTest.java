@@ -0,0 +1,138 @@
+package uk.co.harieo.FurBridge.redis.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.Test;
+import uk.co.harieo.FurBridge.redis.messages.RedisMessage;
+
+/**
+ * Checks the layout of messages written by {@link JsonCodec} and that messages are read whatever the order of their
+ * fields
+ */
+public class JsonCodecTest {
+
+	private final JsonCodec codec = JsonCodec.getInstance();
+
+	@Test
+	public void writesTheHeaderBeforeTheBody() {
+		JsonObject body = new JsonObject();
+		body.addProperty("player", "test");
+		JsonObject message = new JsonParser().parse(codec.encodeToString("rank-update", 2, body)).getAsJsonObject();
+
+		assertEquals(Arrays.asList(RedisMessage.messageTypeKey, RedisMessage.versionKey, RedisMessage.messageBodyKey),
+				Arrays.asList(message.keySet().toArray()));
+		assertEquals("rank-update", message.get(RedisMessage.messageTypeKey).getAsString());
+		assertEquals(2, message.get(RedisMessage.versionKey).getAsInt());
+		assertEquals(body, message.get(RedisMessage.messageBodyKey));
+	}
+
+	@Test
+	public void roundTripsStringsAndBytes() {
+		JsonObject body = new JsonObject();
+		body.addProperty("unicode", "h\u00e9llo \u4e16\u754c");
+
+		RedisEnvelope fromString = codec.decode(codec.encodeToString("test", 4, body));
+		assertEquals("test", fromString.getMessageType());
+		assertEquals(4, fromString.getVersion());
+		assertEquals(body, fromString.body());
+
+		RedisEnvelope fromBytes = codec.decode(codec.encode("test", 4, body));
+		assertEquals("test", fromBytes.getMessageType());
+		assertEquals(4, fromBytes.getVersion());
+		assertEquals(body, fromBytes.body());
+	}
+
+	@Test
+	public void readsTheHeaderWithoutTheBody() {
+		RedisEnvelope envelope = codec.decode("{\"type\":\"test\",\"version\":1,\"message\":{\"player\":");
+
+		assertEquals("test", envelope.getMessageType()); // The malformed body hasn't been parsed yet
+		assertEquals(1, envelope.getVersion());
+		try {
+			envelope.body();
+			fail("The malformed body should have been rejected once parsed");
+		} catch (IllegalArgumentException expected) {
+			// The body is only parsed when needed
+		}
+	}
+
+	@Test
+	public void readsTheBodyBeforeTheHeader() {
+		RedisEnvelope envelope = codec.decode("{\"message\":{\"player\":\"test\"},\"extra\":[1,2],\"version\":3,"
+				+ "\"type\":\"test\"}");
+
+		assertEquals("test", envelope.getMessageType());
+		assertEquals(3, envelope.getVersion());
+		assertEquals("test", envelope.body().get("player").getAsString());
+	}
+
+	@Test
+	public void skipsUnknownFields() {
+		RedisEnvelope envelope = codec.decode("{\"type\":\"test\",\"extra\":{\"a\":1},\"version\":1,\"message\":{}}");
+
+		assertEquals("test", envelope.getMessageType());
+		assertTrue(envelope.body().entrySet().isEmpty());
+	}
+
+	@Test
+	public void dropsTypesWhichAreNotListenedFor() {
+		String[] acceptedTypes = {"rank-update"};
+		// Dropped before the malformed rest of the message is read
+		assertNull(codec.decode("{\"type\":\"test\",\"version\":", acceptedTypes));
+		assertNull(codec.decode("{\"type\":\"test\",\"version\":".getBytes(StandardCharsets.UTF_8), acceptedTypes));
+		assertNull(codec.decode("{\"type\":\"rank\",\"version\":1,\"message\":{}}", acceptedTypes));
+
+		assertEquals("rank-update", codec.decode(codec.encodeToString("rank-update", 1, new JsonObject()),
+				acceptedTypes).getMessageType());
+		assertEquals("rank-update", codec.decode(codec.encode("rank-update", 1, new JsonObject()), acceptedTypes)
+				.getMessageType());
+	}
+
+	@Test
+	public void dropsTypesWhichAreNotListenedForInAnyOrder() {
+		String[] acceptedTypes = {"rank-update"};
+		String unlistened = "{\"version\":1,\"message\":{},\"type\":\"test\"}";
+		String listened = "{\"version\":1,\"message\":{},\"type\":\"rank-update\"}";
+		String escaped = "{\"type\":\"rank\\u002dupdate\",\"version\":1,\"message\":{}}";
+
+		assertNull(codec.decode(unlistened, acceptedTypes));
+		assertNull(codec.decode(unlistened.getBytes(StandardCharsets.UTF_8), acceptedTypes));
+		assertEquals("rank-update", codec.decode(listened, acceptedTypes).getMessageType());
+		assertEquals("rank-update", codec.decode(escaped, acceptedTypes).getMessageType());
+		assertEquals("rank-update", codec.decode(escaped.getBytes(StandardCharsets.UTF_8), acceptedTypes)
+				.getMessageType());
+	}
+
+	@Test
+	public void dropsUnicodeTypesWhichAreNotListenedFor() {
+		String[] acceptedTypes = {"r\u00e9ng"};
+		byte[] listened = codec.encode("r\u00e9ng", 1, new JsonObject());
+		byte[] unlistened = codec.encode("r\u00e9ngs", 1, new JsonObject());
+
+		assertEquals("r\u00e9ng", codec.decode(listened, acceptedTypes).getMessageType());
+		assertNull(codec.decode(unlistened, acceptedTypes));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsMessagesWithoutABody() {
+		codec.decode("{\"type\":\"test\",\"version\":1}");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsMalformedMessages() {
+		codec.decode("not json".getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsBodiesWhichAreNotObjects() {
+		codec.decode("{\"type\":\"test\",\"version\":1,\"message\":[]}").body();
+	}
+
+}